@@ -0,0 +1,25 @@
+-- Manual migration: move user conversation state into the narrow "user_state" table
+
+CREATE TABLE IF NOT EXISTS user_state (
+    user_id BIGINT PRIMARY KEY,
+    type TEXT,
+    session_id BIGINT,
+    question_index INTEGER NOT NULL DEFAULT 0,
+    payload TEXT,
+    updated_at TIMESTAMP,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) WITH (fillfactor = 70);
+
+-- Copy existing state, skipping users without any
+INSERT INTO user_state (user_id, type, session_id, question_index, payload, updated_at)
+SELECT id, state_type, state_session_id, state_question_index, state_payload, state_updated_at
+FROM users
+WHERE state_type IS NOT NULL OR state_question_index <> 0
+ON CONFLICT (user_id) DO NOTHING;
+
+-- Drop state columns from users
+ALTER TABLE users DROP COLUMN IF EXISTS state_type;
+ALTER TABLE users DROP COLUMN IF EXISTS state_session_id;
+ALTER TABLE users DROP COLUMN IF EXISTS state_question_index;
+ALTER TABLE users DROP COLUMN IF EXISTS state_updated_at;
+ALTER TABLE users DROP COLUMN IF EXISTS state_payload;
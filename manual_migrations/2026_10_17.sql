@@ -0,0 +1,29 @@
+-- Manual migration: share questions between sessions through "question_templates"
+
+CREATE TABLE IF NOT EXISTS question_templates (
+    id BIGSERIAL PRIMARY KEY,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE sessions ADD COLUMN IF NOT EXISTS template_id BIGINT
+    REFERENCES question_templates(id) ON DELETE SET NULL;
+ALTER TABLE questions ADD COLUMN IF NOT EXISTS template_id BIGINT
+    REFERENCES question_templates(id) ON DELETE CASCADE;
+
+-- One template per session with questions, with the same ID as the session
+INSERT INTO question_templates (id, created_at)
+SELECT s.id, s.created_at FROM sessions s
+WHERE EXISTS (SELECT 1 FROM questions q WHERE q.session_id = s.id)
+ON CONFLICT (id) DO NOTHING;
+SELECT setval('question_templates_id_seq', GREATEST((SELECT MAX(id) FROM question_templates), 1));
+
+UPDATE questions SET template_id = session_id WHERE template_id IS NULL;
+UPDATE sessions s SET template_id = s.id
+WHERE s.template_id IS NULL AND EXISTS (SELECT 1 FROM question_templates t WHERE t.id = s.id);
+
+-- Drop the per-session link of questions
+ALTER TABLE questions ALTER COLUMN template_id SET NOT NULL;
+DROP INDEX IF EXISTS idx_questions_session_type;
+ALTER TABLE questions DROP COLUMN IF EXISTS session_id;
+CREATE INDEX IF NOT EXISTS idx_sessions_template ON sessions(template_id);
+CREATE INDEX IF NOT EXISTS idx_questions_template ON questions(template_id, order_index);
@@ -1,15 +1,39 @@
 package com.aleksandrmakarov.journals;
 
 import com.aleksandrmakarov.journals.config.RepositoryRuntimeHints;
+import java.util.Map;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
 import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
 
 @SpringBootApplication
 @ImportRuntimeHints({RepositoryRuntimeHints.class})
 public class JournalsApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(JournalsApplication.class, args);
+		SpringApplication application = new SpringApplication(JournalsApplication.class);
+		application.addListeners(event -> {
+			if (event instanceof ApplicationEnvironmentPreparedEvent prepared) {
+				disableBotForImport(prepared.getEnvironment());
+			}
+		});
+		application.run(args);
+	}
+
+	/**
+	 * A command line import (`telegram.bot.import.file`) exits when done, so the
+	 * bot must not receive updates meanwhile: the web server with the webhook is
+	 * not started, and polling and the sender are switched off.
+	 */
+	private static void disableBotForImport(ConfigurableEnvironment environment) {
+		if (!environment.containsProperty("telegram.bot.import.file")) {
+			return;
+		}
+		environment.getPropertySources()
+				.addFirst(new MapPropertySource("historyImport", Map.of("spring.main.web-application-type", "none",
+						"telegram.bot.mode", "import", "telegram.bot.sender.enabled", "false")));
 	}
 }
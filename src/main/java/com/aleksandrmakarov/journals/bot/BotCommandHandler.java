@@ -10,7 +10,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardRow;
@@ -24,6 +23,7 @@ import com.aleksandrmakarov.journals.model.SessionJournals;
 import com.aleksandrmakarov.journals.model.StateType;
 import com.aleksandrmakarov.journals.model.User;
 import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.model.UserState;
 import com.aleksandrmakarov.journals.security.ForbiddenException;
 import com.aleksandrmakarov.journals.service.HealthService;
 import com.aleksandrmakarov.journals.service.JournalService;
@@ -178,13 +178,11 @@ public class BotCommandHandler {
 	 *            The text of the message received from the user.
 	 * @param user
 	 *            The user who sent the message.
-	 * @param update
-	 *            The update received from the user.
 	 * @param locale
 	 *            The locale of the user.
 	 * @return The response to the user.
 	 */
-	public BotResponse handleCommand(String messageText, User user, Update update, String locale) {
+	public BotResponse handleCommand(String messageText, User user, String locale) {
 		// If user is in an active state and sends a command, clear the state (cancel
 		// the flow).
 		if (messageText != null && messageText.startsWith("/") && user.stateType() != null) {
@@ -742,11 +740,10 @@ public class BotCommandHandler {
 			return translationService.t("bot.qa.flow.question_error", locale);
 		}
 
-		// Save answer.
+		// Decide on the next state and reply, then save the answer with the state at once.
 		Question currentQuestion = questions.get(previousIndex);
-		journalService.saveJournal(messageText, user, session, currentQuestion);
-
-		// Get next question.
+		UserState nextState;
+		String reply;
 		int nextIndex = previousIndex + 1;
 		if (nextIndex < questionsCount) {
 			Question nextQuestion = questions.get(nextIndex);
@@ -756,24 +753,31 @@ public class BotCommandHandler {
 
 				// If we got next question of type "after" - stop flow for now.
 				if (nextQuestion.type() == QuestionType.AFTER) {
-					userService.clearUserState(user.id(), false);
-					return translationService.t("bot.qa.flow.done_for_now", locale);
+					nextState = UserState.cleared(user.id(), false);
+					reply = translationService.t("bot.qa.flow.done_for_now", locale);
+				} else {
+					// If we got "before" question after "after" question - it is a bug.
+					nextState = UserState.cleared(user.id(), true);
+					reply = translationService.t("bot.qa.flow.type_error", locale);
 				}
-
-				// If we got "before" question after "after" question - it is a bug.
-				userService.clearUserState(user.id(), true);
-				return translationService.t("bot.qa.flow.type_error", locale);
+			} else {
+				// Ask next question.
+				nextState = UserState.questionFlow(user.id(), session.id(), nextIndex);
+				reply = translationService.t("bot.qa.flow.answer_saved", locale, nextQuestion.text());
 			}
-
-			// Ask next question.
-			userService.setQuestionFlowState(user.id(), session.id(), nextIndex);
-			return translationService.t("bot.qa.flow.answer_saved", locale, nextQuestion.text());
 		} else {
 
 			// Last question - exit flow.
+			nextState = UserState.cleared(user.id(), true);
+			reply = translationService.t("bot.qa.flow.done", locale);
+		}
+
+		// Session may have been finished by another instance meanwhile.
+		if (journalService.saveAnswer(messageText, user, session, currentQuestion, nextState) == null) {
 			userService.clearUserState(user.id(), true);
-			return translationService.t("bot.qa.flow.done", locale);
+			return translationService.t("bot.qa.flow.no_session", locale);
 		}
+		return reply;
 	}
 
 	/**
@@ -0,0 +1,154 @@
+package com.aleksandrmakarov.journals.bot;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.aleksandrmakarov.journals.service.StatsProvider;
+import com.aleksandrmakarov.journals.util.PackedTokenBuckets;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Per-user flood control applied before updates reach the command handler, so
+ * a single user can't exhaust the DB connection pool. Each user has a bucket
+ * for all updates and, for commands configured in
+ * `telegram.bot.flood.commands`, a bucket per command.
+ */
+@Component
+public class FloodControl implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(FloodControl.class);
+
+	/** Decision for an update. */
+	public enum Decision {
+		/** Handle the update. */
+		ALLOW,
+		/** Reply that the user is throttled. */
+		REPLY,
+		/** Ignore the update. */
+		DROP
+	}
+
+	@Value("${telegram.bot.flood.enabled:false}")
+	private boolean isEnabled;
+
+	@Value("${telegram.bot.flood.reply:true}")
+	private boolean isReply;
+
+	@Value("${telegram.bot.flood.max-users:65536}")
+	private int maxUsers;
+
+	@Value("${telegram.bot.flood.per-user-rate:30}")
+	private double perUserRate;
+
+	@Value("${telegram.bot.flood.per-user-burst:10}")
+	private int perUserBurst;
+
+	@Value("${telegram.bot.flood.commands:/last50:2:2,/last5:6:3,/participants:6:3}")
+	private String commandLimits;
+
+	private final long origin = System.nanoTime();
+	private PackedTokenBuckets userBuckets;
+	private final Map<String, PackedTokenBuckets> commandBuckets = new HashMap<>();
+
+	private final AtomicLong allowed = new AtomicLong();
+	private final AtomicLong userLimited = new AtomicLong();
+	private final AtomicLong commandLimited = new AtomicLong();
+	private final AtomicLong untracked = new AtomicLong();
+
+	@PostConstruct
+	private void init() {
+		if (!isEnabled) {
+			return;
+		}
+		userBuckets = new PackedTokenBuckets(maxUsers, perUserRate, perUserBurst);
+		for (String limit : commandLimits.split(",")) {
+			String[] parts = limit.trim().split(":");
+			if (parts.length != 3) {
+				logger.warn("Skipping invalid command limit '{}', expected 'command:ratePerMinute:burst'", limit);
+				continue;
+			}
+			commandBuckets.put(parts[0], new PackedTokenBuckets(maxUsers, Double.parseDouble(parts[1]),
+					Integer.parseInt(parts[2])));
+		}
+	}
+
+	/**
+	 * Checks the update against the user's limits and takes tokens if it is
+	 * allowed.
+	 *
+	 * @param telegramId
+	 *            Telegram ID of the sender
+	 * @param text
+	 *            Message text or callback data, may be {@code null}
+	 * @return What to do with the update
+	 */
+	public Decision check(Long telegramId, String text) {
+		if (!isEnabled || telegramId == null || telegramId <= 0) {
+			return Decision.ALLOW;
+		}
+		long nowMs = (System.nanoTime() - origin) / 1_000_000;
+		PackedTokenBuckets.Result result = userBuckets.tryTake(telegramId, nowMs);
+		if (result == PackedTokenBuckets.Result.LIMITED) {
+			userLimited.incrementAndGet();
+			return isReply ? Decision.REPLY : Decision.DROP;
+		}
+		PackedTokenBuckets commandBucket = commandBuckets.get(commandOf(text));
+		if (commandBucket != null) {
+			PackedTokenBuckets.Result commandResult = commandBucket.tryTake(telegramId, nowMs);
+			if (commandResult == PackedTokenBuckets.Result.LIMITED) {
+				commandLimited.incrementAndGet();
+				return isReply ? Decision.REPLY : Decision.DROP;
+			}
+			if (commandResult == PackedTokenBuckets.Result.UNTRACKED) {
+				untracked.incrementAndGet();
+			}
+		}
+		if (result == PackedTokenBuckets.Result.UNTRACKED) {
+			untracked.incrementAndGet();
+		}
+		allowed.incrementAndGet();
+		return Decision.ALLOW;
+	}
+
+	/** Returns command without arguments and bot username, or {@code null}. */
+	private static String commandOf(String text) {
+		if (text == null || !text.startsWith("/")) {
+			return null;
+		}
+		int end = text.length();
+		for (int i = 1; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == ' ' || c == '\n' || c == '@') {
+				end = i;
+				break;
+			}
+		}
+		return text.substring(0, end);
+	}
+
+	@Override
+	public String getStatsName() {
+		return "flood";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", isEnabled);
+		if (isEnabled) {
+			stats.put("allowed", allowed.get());
+			stats.put("userLimited", userLimited.get());
+			stats.put("commandLimited", commandLimited.get());
+			stats.put("untracked", untracked.get());
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,84 @@
+package com.aleksandrmakarov.journals.bot;
+
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+/**
+ * Flat representation of a Telegram update with only the fields the bot reads.
+ * Either message text or callback data is set, depending on the update kind.
+ *
+ * @param updateId
+ *            Telegram update ID.
+ * @param chatId
+ *            ID of the chat to reply to.
+ * @param fromId
+ *            Telegram ID of the user who sent the message or pressed the button.
+ * @param username
+ *            Username of the user, may be {@code null}.
+ * @param firstName
+ *            First name of the user.
+ * @param lastName
+ *            Last name of the user, may be {@code null}.
+ * @param languageCode
+ *            IETF language tag of the user's language, may be {@code null}.
+ * @param text
+ *            Text of the message, {@code null} for callback queries and
+ *            non-text messages.
+ * @param callbackQueryId
+ *            ID of the callback query, {@code null} for messages.
+ * @param callbackData
+ *            Data of the pressed inline keyboard button.
+ * @param editedMessage
+ *            Whether the update is about an edited message (ignored by the bot).
+ */
+public record IncomingUpdate(Integer updateId, Long chatId, Long fromId, String username, String firstName,
+		String lastName, String languageCode, String text, String callbackQueryId, String callbackData,
+		boolean editedMessage) {
+
+	/**
+	 * Whether the update is a callback query (button press on inline keyboard).
+	 *
+	 * @return True for callback queries
+	 */
+	public boolean isCallbackQuery() {
+		return callbackQueryId != null;
+	}
+
+	/**
+	 * Whether the update is a message with text.
+	 *
+	 * @return True for text messages
+	 */
+	public boolean hasText() {
+		return callbackQueryId == null && text != null;
+	}
+
+	/**
+	 * Converts fully deserialized Telegram update.
+	 *
+	 * @param update
+	 *            Telegram update.
+	 * @return Flat update.
+	 */
+	public static IncomingUpdate from(Update update) {
+		if (update.hasCallbackQuery()) {
+			CallbackQuery query = update.getCallbackQuery();
+			var from = query.getFrom();
+			return new IncomingUpdate(update.getUpdateId(),
+					query.getMessage() != null ? query.getMessage().getChatId() : null, from.getId(),
+					from.getUserName(), from.getFirstName(), from.getLastName(), from.getLanguageCode(), null,
+					query.getId(), query.getData(), false);
+		}
+		if (update.hasMessage()) {
+			Message message = update.getMessage();
+			var from = message.getFrom();
+			return new IncomingUpdate(update.getUpdateId(), message.getChatId(), from != null ? from.getId() : null,
+					from != null ? from.getUserName() : null, from != null ? from.getFirstName() : null,
+					from != null ? from.getLastName() : null, from != null ? from.getLanguageCode() : null,
+					message.getText(), null, null, false);
+		}
+		return new IncomingUpdate(update.getUpdateId(), null, null, null, null, null, null, null, null, null,
+				update.hasEditedMessage());
+	}
+}
@@ -1,21 +1,35 @@
 package com.aleksandrmakarov.journals.bot;
 
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.OkHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.telegram.telegrambots.client.AbstractTelegramClient;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
+import org.telegram.telegrambots.meta.TelegramUrl;
 import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.webhook.TelegramWebhookBot;
 
 import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.repository.RoleDirectory;
 import com.aleksandrmakarov.journals.security.ForbiddenException;
 import com.aleksandrmakarov.journals.service.UserService;
 
+import jakarta.annotation.PostConstruct;
+
 /** Telegram bot that handles commands and messages from users. */
 public class JournalsBot implements TelegramWebhookBot {
 
@@ -27,10 +41,32 @@ public class JournalsBot implements TelegramWebhookBot {
 	@Autowired
 	private BotCommandHandler commandHandler;
 
+	@Autowired
+	private TelegramSender sender;
+
+	@Autowired
+	private RoleDirectory roleDirectory;
+
+	@Autowired
+	private FloodControl floodControl;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${telegram.bot.unit-of-work.enabled:false}")
+	private boolean isUnitOfWork;
+
+	private TransactionTemplate transactionTemplate;
+	/** Transaction of the update handled by the current thread, in unit of work mode. */
+	private final ThreadLocal<TransactionStatus> updateTransaction = new ThreadLocal<>();
+
 	private final String botToken;
 	private final String botUsername;
 	private final String webhookPath;
 	private final AbstractTelegramClient telegramClient;
+	/** Runs API calls sent asynchronously when the send pipeline is disabled. */
+	private final ExecutorService asyncExecutor = Executors
+			.newThreadPerTaskExecutor(Thread.ofVirtual().name("telegram-async-", 0).factory());
 
 	public JournalsBot(String botToken, String botUsername, String webhookPath) {
 		this.botToken = botToken;
@@ -39,6 +75,32 @@ public class JournalsBot implements TelegramWebhookBot {
 		this.telegramClient = new OkHttpTelegramClient(botToken);
 	}
 
+	/**
+	 * Creates bot working with the given Bot API server, e.g. a local fake one.
+	 *
+	 * @param apiUrl
+	 *            Base URL of Bot API server like "https://api.telegram.org"
+	 */
+	public JournalsBot(String botToken, String botUsername, String webhookPath, String apiUrl) {
+		this.botToken = botToken;
+		this.botUsername = botUsername;
+		this.webhookPath = webhookPath;
+		this.telegramClient = new OkHttpTelegramClient(new OkHttpClient(), botToken, parseTelegramUrl(apiUrl));
+	}
+
+	/**
+	 * Parses Bot API server URL.
+	 *
+	 * @param apiUrl
+	 *            URL like "https://api.telegram.org" or "http://localhost:8081"
+	 * @return URL for telegrambots client
+	 */
+	public static TelegramUrl parseTelegramUrl(String apiUrl) {
+		URI uri = URI.create(apiUrl);
+		int port = uri.getPort() != -1 ? uri.getPort() : "https".equals(uri.getScheme()) ? 443 : 80;
+		return TelegramUrl.builder().schema(uri.getScheme()).host(uri.getHost()).port(port).build();
+	}
+
 	public String getBotUsername() {
 		return botUsername;
 	}
@@ -57,6 +119,53 @@ public class JournalsBot implements TelegramWebhookBot {
 		}
 	}
 
+	/**
+	 * Sends the method to Telegram. If the send pipeline is enabled the method is
+	 * queued and sent within Telegram rate limits, otherwise it is sent right away.
+	 *
+	 * @param method
+	 *            The method to send
+	 * @return Future completed when the method is sent
+	 */
+	public CompletableFuture<Void> send(BotApiMethod<?> method) {
+		if (!sender.isEnabled()) {
+			execute(method);
+			return CompletableFuture.completedFuture(null);
+		}
+		return sender.submit(chatIdOf(method), () -> execute(method));
+	}
+
+	/**
+	 * Sends the method to Telegram without waiting for the result.
+	 *
+	 * @param method
+	 *            The method to send
+	 * @return Future completed when the method is sent
+	 */
+	public CompletableFuture<Void> sendAsync(BotApiMethod<?> method) {
+		if (sender.isEnabled()) {
+			return sender.submit(chatIdOf(method), () -> execute(method));
+		}
+		return CompletableFuture.runAsync(() -> execute(method), asyncExecutor);
+	}
+
+	private static Long chatIdOf(BotApiMethod<?> method) {
+		if (method instanceof SendMessage sendMessage) {
+			try {
+				return Long.valueOf(sendMessage.getChatId());
+			} catch (NumberFormatException e) {
+				// Channel username, doesn't matter for rate limiting.
+				return null;
+			}
+		}
+		return null;
+	}
+
+	@PostConstruct
+	private void initTransactionTemplate() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
 	@Override
 	public String getBotPath() {
 		return webhookPath;
@@ -64,73 +173,92 @@ public class JournalsBot implements TelegramWebhookBot {
 
 	@Override
 	public BotApiMethod<?> consumeUpdate(Update update) {
+		return consumeUpdate(IncomingUpdate.from(update));
+	}
+
+	/**
+	 * Handles the update and builds the response for it. With
+	 * `telegram.bot.unit-of-work.enabled` all DB work of the update runs in one
+	 * transaction (one connection checkout and one commit), services join it. The
+	 * response is sent by the caller after this method returns, i.e. after the
+	 * commit. Failed handling is answered with an error message and rolled back.
+	 * A callback query gets a plain answer before handling, banned, forbidden and
+	 * error texts are delivered by the reply message.
+	 *
+	 * @param update
+	 *            Flat Telegram update with fields used by the bot
+	 * @return Response method or {@code null} if there is nothing to answer
+	 */
+	public BotApiMethod<?> consumeUpdate(IncomingUpdate update) {
+		// Answer the callback query right away to remove loading state, the answer
+		// doesn't depend on the result and goes in parallel with handling.
+		CompletableFuture<Void> answer = update.isCallbackQuery()
+				? sendAsync(AnswerCallbackQuery.builder().callbackQueryId(update.callbackQueryId()).build())
+				: null;
+		try {
+			return isUnitOfWork ? handleUpdateInTransaction(update) : handleUpdate(update);
+		} finally {
+			if (answer != null) {
+				awaitAnswer(answer);
+			}
+		}
+	}
+
+	private BotApiMethod<?> handleUpdateInTransaction(IncomingUpdate update) {
+		return transactionTemplate.execute(status -> {
+			updateTransaction.set(status);
+			try {
+				BotApiMethod<?> response = handleUpdate(update);
+				// A service call which failed inside the transaction marks it rollback-only
+				// globally, commit would then roll back and throw
+				// UnexpectedRollbackException, losing the error reply. Marking it locally
+				// too makes the template roll back quietly and return the reply.
+				if (status.isRollbackOnly()) {
+					status.setRollbackOnly();
+				}
+				return response;
+			} finally {
+				updateTransaction.remove();
+			}
+		});
+	}
+
+	private BotApiMethod<?> handleUpdate(IncomingUpdate update) {
 
 		// Check if the update has a callback query (button press on inline keyboard).
-		if (update.hasCallbackQuery()) {
-			CallbackQuery callbackQuery = update.getCallbackQuery();
-			String callbackData = callbackQuery.getData();
-			Long chatId = callbackQuery.getMessage().getChatId();
-			Long userId = callbackQuery.getFrom().getId();
-			String username = callbackQuery.getFrom().getUserName();
-			String firstName = callbackQuery.getFrom().getFirstName();
-			String lastName = callbackQuery.getFrom().getLastName();
-			String queryId = callbackQuery.getId();
+		if (update.isCallbackQuery()) {
+			return handleCallbackQuery(update);
+		}
 
-			// Register or update user.
-			var user = userService.findOrCreateUser(userId, username, firstName, lastName);
-			var logPrefix = "CallbackQuery from " + user.role() + " " + userId + " (" + username + ", " + firstName
-					+ " " + lastName + ")";
-			logger.info("{} received: '{}'", logPrefix, callbackData);
+		// Check if the update has a message with text.
+		if (update.hasText()) {
+			String messageText = update.text();
+			Long chatId = update.chatId();
+			Long userId = update.fromId();
+			String username = update.username();
+			String firstName = update.firstName();
+			String lastName = update.lastName();
 
 			// Get user locale from Telegram (defaults to "en" if not available)
-			String locale = callbackQuery.getFrom().getLanguageCode();
+			String locale = update.languageCode();
 			if (locale == null || locale.isEmpty()) {
 				locale = "en";
 			}
 
-			// Check user is not banned.
-			if (user.role() == UserRole.BANNED) {
-				logger.info("{} is banned, skipping callback handling", logPrefix);
-				String bannedMessage = commandHandler.getTranslation("bot.banned", locale);
-				execute(AnswerCallbackQuery.builder().callbackQueryId(queryId).text(bannedMessage).build());
-				return createSendMessage(chatId, bannedMessage);
+			// Reject banned users before any DB work.
+			if (roleDirectory.isBanned(userId)) {
+				logger.info("Message from banned user {} ({}) is skipped", userId, username);
+				return createSendMessage(chatId, commandHandler.getTranslation("bot.banned", locale));
 			}
 
-			try {
-				BotResponse response = commandHandler.handleCallbackQuery(callbackData, user, locale);
-				String text = response != null ? response.text() : null;
-				logger.info("{} is answered: {}", logPrefix, (text == null ? "<null>" : text.replace("\n", "⏎")));
-
-				if (text == null || text.trim().isEmpty()) {
-					logger.warn("Empty response from callback handler for: {}", callbackData);
-					text = commandHandler.getTranslation("bot.error.empty_response", locale);
-				}
-
-				// Answer the callback query to remove loading state
-				execute(AnswerCallbackQuery.builder().callbackQueryId(queryId).build());
-
-				return createSendMessage(chatId, text, response);
-			} catch (ForbiddenException fe) {
-				execute(AnswerCallbackQuery.builder().callbackQueryId(queryId).text(fe.getMessage()).showAlert(true)
-						.build());
-				return createSendMessage(chatId, fe.getMessage());
-			} catch (Exception e) {
-				logger.error("{} failed: {}", logPrefix, e.getMessage(), e);
-				String errorMessage = commandHandler.getTranslation("bot.error.occurred", locale);
-				execute(AnswerCallbackQuery.builder().callbackQueryId(queryId).text(errorMessage).showAlert(true)
-						.build());
-				return createSendMessage(chatId, errorMessage);
+			// Throttle flooding users before they load DB.
+			FloodControl.Decision decision = floodControl.check(userId, messageText);
+			if (decision != FloodControl.Decision.ALLOW) {
+				logger.info("Message from user {} ({}) is throttled", userId, username);
+				return decision == FloodControl.Decision.REPLY
+						? createSendMessage(chatId, commandHandler.getTranslation("bot.throttled", locale))
+						: null;
 			}
-		}
-
-		// Check if the update has a message with text.
-		if (update.hasMessage() && update.getMessage().getText() != null) {
-			String messageText = update.getMessage().getText();
-			Long chatId = update.getMessage().getChatId();
-			Long userId = update.getMessage().getFrom().getId();
-			String username = update.getMessage().getFrom().getUserName();
-			String firstName = update.getMessage().getFrom().getFirstName();
-			String lastName = update.getMessage().getFrom().getLastName();
 
 			// Register or update user.
 			var user = userService.findOrCreateUser(userId, username, firstName, lastName);
@@ -138,12 +266,6 @@ public class JournalsBot implements TelegramWebhookBot {
 					+ lastName + ")";
 			logger.info("{} received: '{}'", logPrefix, messageText);
 
-			// Get user locale from Telegram (defaults to "en" if not available)
-			String locale = update.getMessage().getFrom().getLanguageCode();
-			if (locale == null || locale.isEmpty()) {
-				locale = "en";
-			}
-
 			// Check user is not banned.
 			if (user.role() == UserRole.BANNED) {
 				logger.info("{} is banned, skipping command handling", logPrefix);
@@ -152,7 +274,7 @@ public class JournalsBot implements TelegramWebhookBot {
 			}
 
 			try {
-				BotResponse response = commandHandler.handleCommand(messageText, user, update, locale);
+				BotResponse response = commandHandler.handleCommand(messageText, user, locale);
 				String text = response != null ? response.text() : null;
 				logger.info("{} is answered: {}", logPrefix, (text == null ? "<null>" : text.replace("\n", "⏎")));
 
@@ -166,17 +288,105 @@ public class JournalsBot implements TelegramWebhookBot {
 				return createSendMessage(chatId, fe.getMessage());
 			} catch (Exception e) {
 				logger.error("{} failed: {}", logPrefix, e.getMessage(), e);
+				rollbackUpdate();
 				String errorMessage = commandHandler.getTranslation("bot.error.occurred", locale);
 				return createSendMessage(chatId, errorMessage);
 			}
 		} else {
 			logger.warn(
-					"Received update {} without text message. Update type: message={}, callbackQuery={}, editedMessage={}",
-					update.getUpdateId(), update.hasMessage(), update.hasCallbackQuery(), update.hasEditedMessage());
+					"Received update {} without text message. Update type: chatId={}, callbackQuery={}, editedMessage={}",
+					update.updateId(), update.chatId(), update.isCallbackQuery(), update.editedMessage());
 		}
 		return null;
 	}
 
+	private BotApiMethod<?> handleCallbackQuery(IncomingUpdate update) {
+		String callbackData = update.callbackData();
+		Long chatId = update.chatId();
+		Long userId = update.fromId();
+		String username = update.username();
+		String firstName = update.firstName();
+		String lastName = update.lastName();
+
+		// Get user locale from Telegram (defaults to "en" if not available)
+		String locale = update.languageCode();
+		if (locale == null || locale.isEmpty()) {
+			locale = "en";
+		}
+
+		// Reject banned users before any DB work.
+		if (roleDirectory.isBanned(userId)) {
+			logger.info("CallbackQuery from banned user {} ({}) is skipped", userId, username);
+			return createSendMessage(chatId, commandHandler.getTranslation("bot.banned", locale));
+		}
+
+		// Throttle flooding users before they load DB.
+		FloodControl.Decision decision = floodControl.check(userId, null);
+		if (decision != FloodControl.Decision.ALLOW) {
+			logger.info("CallbackQuery from user {} ({}) is throttled", userId, username);
+			return decision == FloodControl.Decision.REPLY
+					? createSendMessage(chatId, commandHandler.getTranslation("bot.throttled", locale))
+					: null;
+		}
+
+		// Register or update user.
+		var user = userService.findOrCreateUser(userId, username, firstName, lastName);
+		var logPrefix = "CallbackQuery from " + user.role() + " " + userId + " (" + username + ", " + firstName
+				+ " " + lastName + ")";
+		logger.info("{} received: '{}'", logPrefix, callbackData);
+
+		// Check user is not banned.
+		if (user.role() == UserRole.BANNED) {
+			logger.info("{} is banned, skipping callback handling", logPrefix);
+			String bannedMessage = commandHandler.getTranslation("bot.banned", locale);
+			return createSendMessage(chatId, bannedMessage);
+		}
+
+		try {
+			BotResponse response = commandHandler.handleCallbackQuery(callbackData, user, locale);
+			String text = response != null ? response.text() : null;
+			logger.info("{} is answered: {}", logPrefix, (text == null ? "<null>" : text.replace("\n", "⏎")));
+
+			if (text == null || text.trim().isEmpty()) {
+				logger.warn("Empty response from callback handler for: {}", callbackData);
+				text = commandHandler.getTranslation("bot.error.empty_response", locale);
+			}
+
+			return createSendMessage(chatId, text, response);
+		} catch (ForbiddenException fe) {
+			return createSendMessage(chatId, fe.getMessage());
+		} catch (Exception e) {
+			logger.error("{} failed: {}", logPrefix, e.getMessage(), e);
+			rollbackUpdate();
+			String errorMessage = commandHandler.getTranslation("bot.error.occurred", locale);
+			return createSendMessage(chatId, errorMessage);
+		}
+	}
+
+	/** Rolls back DB changes of the failed update, in unit of work mode. */
+	private void rollbackUpdate() {
+		TransactionStatus status = updateTransaction.get();
+		if (status != null) {
+			status.setRollbackOnly();
+		}
+	}
+
+	/**
+	 * Waits until the callback query answer is sent so the reply doesn't overtake
+	 * it. With the send pipeline the answer is queued before the reply and
+	 * waiting isn't needed.
+	 */
+	private void awaitAnswer(CompletableFuture<Void> answer) {
+		if (sender.isEnabled()) {
+			return;
+		}
+		try {
+			answer.join();
+		} catch (CompletionException e) {
+			// Already logged by execute(), the reply is still worth sending.
+		}
+	}
+
 	private SendMessage createSendMessage(Long chatId, String text) {
 		return createSendMessage(chatId, text, null);
 	}
@@ -0,0 +1,418 @@
+package com.aleksandrmakarov.journals.bot;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import com.aleksandrmakarov.journals.service.StatsProvider;
+import com.aleksandrmakarov.journals.util.TokenBucket;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Outbound pipeline of Telegram API calls. Keeps calls within Telegram limits
+ * (about 30 messages per second overall and 1 message per second per chat)
+ * with a global and per-chat token buckets, preserves order of messages within
+ * a chat and retries failed calls: after `retry_after` seconds on 429 responses and with exponential
+ * backoff on server and network errors.
+ *
+ * A single scheduler thread decides what to send next, calls themselves run on
+ * virtual threads so callers never wait for Telegram.
+ */
+@Service
+public class TelegramSender implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(TelegramSender.class);
+
+	/** Key of calls not bound to a chat (e.g. callback query answers). */
+	private static final long NO_CHAT = Long.MIN_VALUE;
+	/** How many queued calls to look through to find one ready to send. */
+	private static final int SCAN_LIMIT = 256;
+	private static final long IDLE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	@Value("${telegram.bot.sender.enabled:false}")
+	private boolean enabled;
+
+	@Value("${telegram.bot.sender.global-rate:30}")
+	private double globalRate;
+
+	@Value("${telegram.bot.sender.per-chat-rate:1}")
+	private double perChatRate;
+
+	@Value("${telegram.bot.sender.per-chat-burst:3}")
+	private int perChatBurst;
+
+	@Value("${telegram.bot.sender.max-in-flight:8}")
+	private int maxInFlight;
+
+	@Value("${telegram.bot.sender.queue-capacity:10000}")
+	private int queueCapacity;
+
+	@Value("${telegram.bot.sender.max-attempts:5}")
+	private int maxAttempts;
+
+	@Value("${telegram.bot.sender.backoff-initial-ms:500}")
+	private long backoffInitialMs;
+
+	@Value("${telegram.bot.sender.backoff-max-ms:30000}")
+	private long backoffMaxMs;
+
+	/** Guards all scheduling state below. */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final ArrayDeque<Job> queue = new ArrayDeque<>();
+	private final Map<Long, ChatState> chats = new HashMap<>();
+	private TokenBucket globalBucket;
+	private int queued;
+	private int inFlight;
+	private long scanCounter;
+	private long nextWakeNanos;
+	private long sweptAt;
+	private boolean running;
+
+	private ExecutorService sendExecutor;
+	private Thread scheduler;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong rateLimited = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong totalQueueNanos = new AtomicLong();
+	private final AtomicLong maxQueueNanos = new AtomicLong();
+
+	@PostConstruct
+	private void init() {
+		if (!enabled) {
+			return;
+		}
+		long now = System.nanoTime();
+		globalBucket = new TokenBucket(globalRate, globalRate, now);
+		sweptAt = now;
+		running = true;
+		sendExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("telegram-send-", 0).factory());
+		scheduler = Thread.ofPlatform().name("telegram-send-scheduler").daemon().start(this::schedule);
+		logger.info("Telegram send pipeline enabled: {} msg/s overall, {} msg/s per chat, {} calls in flight",
+				globalRate, perChatRate, maxInFlight);
+	}
+
+	/**
+	 * Whether calls should go through the pipeline.
+	 *
+	 * @return True if the pipeline is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Queues the Telegram API call.
+	 *
+	 * @param chatId
+	 *            Chat the call sends to, {@code null} if it isn't bound to a chat
+	 * @param call
+	 *            The call itself, throws on failure
+	 * @return Future completed when the call succeeds or is given up on
+	 */
+	public CompletableFuture<Void> submit(Long chatId, Runnable call) {
+		Job job = new Job(chatId != null ? chatId : NO_CHAT, call, System.nanoTime());
+		lock.lock();
+		try {
+			if (!running || queued >= queueCapacity) {
+				dropped.incrementAndGet();
+				logger.warn("Telegram send queue is full, dropping call to chat {}", chatId);
+				job.result.completeExceptionally(new RejectedExecutionException("Telegram send queue is full"));
+				return job.result;
+			}
+			queue.addLast(job);
+			queued++;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		return job.result;
+	}
+
+	private void schedule() {
+		lock.lock();
+		try {
+			while (running || queued > 0) {
+				long now = System.nanoTime();
+				if (now - sweptAt > SWEEP_INTERVAL_NANOS) {
+					sweepIdleChats(now);
+				}
+				if (!startNext(now)) {
+					changed.awaitNanos(nextWakeNanos);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			failQueued();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Starts the first call allowed by rate limits.
+	 *
+	 * @return True if a call was started, otherwise {@code nextWakeNanos} is set
+	 *         to the time after which a call may become ready
+	 */
+	private boolean startNext(long now) {
+		nextWakeNanos = IDLE_WAIT_NANOS;
+		if (inFlight >= maxInFlight || queued == 0) {
+			return false;
+		}
+		long globalWait = globalBucket.nanosUntilAvailable(now);
+		if (globalWait > 0) {
+			nextWakeNanos = globalWait;
+			return false;
+		}
+		long scan = ++scanCounter;
+		int scanned = 0;
+		for (Iterator<Job> it = queue.iterator(); it.hasNext() && scanned < SCAN_LIMIT; scanned++) {
+			Job job = it.next();
+			ChatState chat = null;
+			if (job.chatKey != NO_CHAT) {
+				chat = chats.computeIfAbsent(job.chatKey, k -> new ChatState(perChatRate, perChatBurst, now));
+				// Earlier call to the same chat is waiting, keep the order.
+				if (chat.scanMark == scan) {
+					continue;
+				}
+				chat.scanMark = scan;
+				if (chat.inFlight) {
+					continue;
+				}
+			}
+			long wait = job.notBefore - now;
+			if (chat != null) {
+				wait = Math.max(wait, chat.blockedUntil - now);
+				wait = Math.max(wait, chat.bucket.nanosUntilAvailable(now));
+			}
+			if (wait > 0) {
+				nextWakeNanos = Math.min(nextWakeNanos, wait);
+				continue;
+			}
+			it.remove();
+			start(job, chat, now);
+			return true;
+		}
+		return false;
+	}
+
+	private void start(Job job, ChatState chat, long now) {
+		globalBucket.tryTake(now);
+		if (chat != null) {
+			chat.bucket.tryTake(now);
+			chat.inFlight = true;
+		}
+		queued--;
+		inFlight++;
+		if (job.attempt == 0) {
+			long queueNanos = now - job.enqueuedAt;
+			totalQueueNanos.addAndGet(queueNanos);
+			maxQueueNanos.accumulateAndGet(queueNanos, Math::max);
+		}
+		job.attempt++;
+		sendExecutor.execute(() -> run(job));
+	}
+
+	private void run(Job job) {
+		RuntimeException error = null;
+		try {
+			job.call.run();
+		} catch (RuntimeException e) {
+			error = e;
+		}
+		lock.lock();
+		try {
+			inFlight--;
+			ChatState chat = chats.get(job.chatKey);
+			if (chat != null) {
+				chat.inFlight = false;
+			}
+			if (error == null) {
+				sent.incrementAndGet();
+				job.result.complete(null);
+			} else {
+				handleFailure(job, chat, error, System.nanoTime());
+			}
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void handleFailure(Job job, ChatState chat, RuntimeException error, long now) {
+		TelegramApiRequestException apiError = findApiError(error);
+		Integer code = apiError != null ? apiError.getErrorCode() : null;
+		boolean isRateLimited = code != null && code == 429;
+		// No error code means network problem or timeout.
+		boolean isRetriable = isRateLimited || code == null || code >= 500;
+		if (!isRetriable) {
+			failed.incrementAndGet();
+			job.result.completeExceptionally(error);
+			return;
+		}
+		if (job.attempt >= maxAttempts || !running) {
+			dropped.incrementAndGet();
+			logger.warn("Giving up Telegram call to chat {} after {} attempts", job.chatKey, job.attempt);
+			job.result.completeExceptionally(error);
+			return;
+		}
+		long delay = backoffNanos(job.attempt);
+		if (isRateLimited) {
+			rateLimited.incrementAndGet();
+			Integer retryAfter = apiError.getParameters() != null ? apiError.getParameters().getRetryAfter() : null;
+			if (retryAfter != null) {
+				delay = TimeUnit.SECONDS.toNanos(retryAfter);
+			}
+			if (chat != null) {
+				chat.blockedUntil = now + delay;
+			}
+		}
+		retried.incrementAndGet();
+		job.notBefore = now + delay;
+		// Put back to the head to keep order of calls to the chat.
+		queue.addFirst(job);
+		queued++;
+	}
+
+	private long backoffNanos(int attempt) {
+		long delayMs = Math.min(backoffMaxMs, backoffInitialMs << Math.min(attempt - 1, 20));
+		// Jitter prevents retries of many chats from hitting Telegram at once.
+		delayMs += ThreadLocalRandom.current().nextLong(delayMs / 5 + 1);
+		return TimeUnit.MILLISECONDS.toNanos(delayMs);
+	}
+
+	private static TelegramApiRequestException findApiError(Throwable error) {
+		for (Throwable e = error; e != null; e = e.getCause()) {
+			if (e instanceof TelegramApiRequestException apiError) {
+				return apiError;
+			}
+		}
+		return null;
+	}
+
+	/** Forgets chats which rate limiting state is the same as of a new chat. */
+	private void sweepIdleChats(long now) {
+		chats.values().removeIf(
+				chat -> !chat.inFlight && chat.blockedUntil <= now && chat.scanMark != scanCounter
+						&& chat.bucket.isFull(now));
+		sweptAt = now;
+	}
+
+	private void failQueued() {
+		for (Job job : queue) {
+			dropped.incrementAndGet();
+			job.result.completeExceptionally(new RejectedExecutionException("Telegram sender is stopped"));
+		}
+		queue.clear();
+		queued = 0;
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		if (!enabled) {
+			return;
+		}
+		lock.lock();
+		try {
+			running = false;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			scheduler.join(TimeUnit.SECONDS.toMillis(10));
+			if (scheduler.isAlive()) {
+				logger.warn("Telegram send queue was not drained in time");
+				scheduler.interrupt();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			scheduler.interrupt();
+		}
+		sendExecutor.shutdown();
+	}
+
+	@Override
+	public String getStatsName() {
+		return "sender";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", enabled);
+		if (enabled) {
+			lock.lock();
+			try {
+				stats.put("queued", queued);
+				stats.put("inFlight", inFlight);
+				stats.put("chats", chats.size());
+			} finally {
+				lock.unlock();
+			}
+			long sentCount = sent.get();
+			stats.put("sent", sentCount);
+			stats.put("retried", retried.get());
+			stats.put("rateLimited", rateLimited.get());
+			stats.put("dropped", dropped.get());
+			stats.put("failed", failed.get());
+			stats.put("avgQueueMs", sentCount > 0 ? totalQueueNanos.get() / sentCount / 1_000_000.0 : 0.0);
+			stats.put("maxQueueMs", maxQueueNanos.get() / 1_000_000.0);
+		}
+		return stats;
+	}
+
+	/** Queued Telegram API call. */
+	private static class Job {
+		final long chatKey;
+		final Runnable call;
+		final long enqueuedAt;
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+		long notBefore;
+		int attempt;
+
+		Job(long chatKey, Runnable call, long enqueuedAt) {
+			this.chatKey = chatKey;
+			this.call = call;
+			this.enqueuedAt = enqueuedAt;
+			this.notBefore = enqueuedAt;
+		}
+	}
+
+	/** Rate limiting state of a chat. */
+	private static class ChatState {
+		final TokenBucket bucket;
+		long blockedUntil;
+		boolean inFlight;
+		long scanMark;
+
+		ChatState(double ratePerSecond, int burst, long now) {
+			this.bucket = new TokenBucket(ratePerSecond, burst, now);
+			this.blockedUntil = now;
+		}
+	}
+}
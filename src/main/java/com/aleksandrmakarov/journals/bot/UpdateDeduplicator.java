@@ -0,0 +1,157 @@
+package com.aleksandrmakarov.journals.bot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.aleksandrmakarov.journals.repository.ProcessedUpdateRepository;
+import com.aleksandrmakarov.journals.service.StatsProvider;
+import com.aleksandrmakarov.journals.util.UpdateIdWindow;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Drops Telegram updates redelivered after timeouts and 5xx responses by their
+ * `update_id`. In-memory window is checked first, so replays don't cost any DB
+ * work. Optionally new IDs are also claimed in Postgres, which makes
+ * deduplication work across restarts and multiple instances. An ID below the
+ * window is dropped as a late redelivery, unless no update was accepted for
+ * `telegram.bot.dedup.restart-idle-minutes`: then Telegram has restarted the
+ * ID sequence and the window is re-seeded from it.
+ */
+@Service
+public class UpdateDeduplicator implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(UpdateDeduplicator.class);
+
+	/** How often (in claimed updates) to delete old claims from DB. */
+	private static final int PRUNE_EVERY = 1000;
+
+	@Autowired
+	private ProcessedUpdateRepository processedUpdateRepository;
+
+	@Value("${telegram.bot.dedup.enabled:true}")
+	private boolean enabled;
+
+	@Value("${telegram.bot.dedup.window-size:4096}")
+	private int windowSize;
+
+	@Value("${telegram.bot.dedup.persistent:false}")
+	private boolean persistent;
+
+	@Value("${telegram.bot.dedup.restart-idle-minutes:1440}")
+	private long restartIdleMinutes;
+
+	private UpdateIdWindow window;
+
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong claims = new AtomicLong();
+	private final AtomicLong stale = new AtomicLong();
+	/** When the last new update was accepted, since start if none. */
+	private final AtomicLong lastAcceptedAt = new AtomicLong(System.currentTimeMillis());
+
+	@PostConstruct
+	private void init() {
+		window = new UpdateIdWindow(windowSize);
+		if (enabled && persistent) {
+			long highWaterMark = processedUpdateRepository.findHighWaterMark();
+			window.advanceTo(highWaterMark);
+			logger.info("Persistent update deduplication enabled, high-water mark is {}", highWaterMark);
+		}
+	}
+
+	/**
+	 * Checks whether the update is seen for the first time and marks it as seen.
+	 *
+	 * @param updateId
+	 *            The Telegram update ID
+	 * @return True if the update should be processed, false if it is a replay
+	 */
+	public boolean isNew(Integer updateId) {
+		if (!enabled || updateId == null) {
+			return true;
+		}
+		if (window.isBelowWindow(updateId) && !restartIfIdle(updateId)) {
+			stale.incrementAndGet();
+			duplicates.incrementAndGet();
+			return false;
+		}
+		if (!window.markSeen(updateId)) {
+			duplicates.incrementAndGet();
+			return false;
+		}
+		if (persistent) {
+			if (!processedUpdateRepository.claim(updateId)) {
+				duplicates.incrementAndGet();
+				return false;
+			}
+			if (claims.incrementAndGet() % PRUNE_EVERY == 0) {
+				processedUpdateRepository.deleteOlderThan(window.getHighest() - windowSize);
+			}
+		}
+		lastAcceptedAt.set(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Re-seeds the window from the ID below it if no update was accepted for long.
+	 * Telegram keeps undelivered updates for 24 hours, so after such a pause it
+	 * can't be a redelivery.
+	 */
+	private synchronized boolean restartIfIdle(long updateId) {
+		if (!window.isBelowWindow(updateId)) {
+			// Re-seeded by a concurrent call.
+			return true;
+		}
+		if (System.currentTimeMillis() - lastAcceptedAt.get() < restartIdleMinutes * 60_000) {
+			return false;
+		}
+		logger.warn("Update ID {} is far below the window after a pause, update IDs are restarted", updateId);
+		window.restartAt(updateId);
+		if (persistent) {
+			// Claims of the old sequence would drop new updates once IDs reach them.
+			processedUpdateRepository.deleteNewerThan(updateId - 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Forgets the update so Telegram redelivery of it will be processed. Used when
+	 * processing failed.
+	 *
+	 * @param updateId
+	 *            The Telegram update ID
+	 */
+	public void release(Integer updateId) {
+		if (!enabled || updateId == null) {
+			return;
+		}
+		window.forget(updateId);
+		if (persistent) {
+			processedUpdateRepository.release(updateId);
+		}
+	}
+
+	@Override
+	public String getStatsName() {
+		return "dedup";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", enabled);
+		stats.put("persistent", persistent);
+		stats.put("highestUpdateId", window.getHighest());
+		stats.put("duplicates", duplicates.get());
+		stats.put("stale", stale.get());
+		stats.put("resets", window.getResets());
+		return stats;
+	}
+}
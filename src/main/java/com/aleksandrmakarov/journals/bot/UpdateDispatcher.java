@@ -0,0 +1,230 @@
+package com.aleksandrmakarov.journals.bot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+
+import com.aleksandrmakarov.journals.service.StatsProvider;
+import com.aleksandrmakarov.journals.util.KeyedSerialExecutor;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * In-process dispatcher of Telegram updates. Updates of the same Telegram user
+ * are processed strictly one-by-one (otherwise two fast messages may read the
+ * same conversation state), updates of different users run in parallel.
+ *
+ * In asynchronous webhook mode controller puts updates into a bounded queue and
+ * acknowledges them right away, workers run the command handler and send the
+ * response to Telegram. In synchronous mode controller waits for the result.
+ */
+@Service
+public class UpdateDispatcher implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(UpdateDispatcher.class);
+
+	@Autowired
+	private JournalsBot bot;
+
+	@Value("${telegram.bot.webhook.async:false}")
+	private boolean enabled;
+
+	@Value("${telegram.bot.dispatcher.queue-capacity:1000}")
+	private int queueCapacity;
+
+	@Value("${telegram.bot.dispatcher.workers:4}")
+	private int workers;
+
+	@Value("${telegram.bot.dispatcher.max-backlog-per-user:16}")
+	private int maxBacklogPerUser;
+
+	private ExecutorService executor;
+	private KeyedSerialExecutor keyedExecutor;
+
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	@PostConstruct
+	private void init() {
+		if (enabled) {
+			// Queue is unbounded because number of pending updates is limited by
+			// `queueCapacity` before they reach the executor.
+			AtomicInteger threadCounter = new AtomicInteger();
+			executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+					r -> new Thread(r, "update-dispatcher-" + threadCounter.incrementAndGet()));
+			logger.info("Asynchronous update dispatching enabled with {} workers and queue capacity {}", workers,
+					queueCapacity);
+		} else {
+			// Request threads wait for the result, so cheap virtual threads are enough.
+			executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("update-", 0).factory());
+		}
+		keyedExecutor = new KeyedSerialExecutor(executor, maxBacklogPerUser);
+	}
+
+	/**
+	 * Whether webhook updates should be dispatched asynchronously.
+	 *
+	 * @return True if asynchronous mode is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Puts the update into the dispatch queue.
+	 *
+	 * @param update
+	 *            The Telegram update to process
+	 * @return True if the update was accepted, false if the queue or the user
+	 *         backlog is full
+	 */
+	public boolean dispatch(IncomingUpdate update) {
+		if (pending.incrementAndGet() > queueCapacity) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			logger.warn("Dispatch queue is full, rejecting update {}", update.updateId());
+			return false;
+		}
+		long enqueuedAt = System.nanoTime();
+		boolean isAccepted = keyedExecutor.execute(keyOf(update), new KeyedSerialExecutor.DroppableTask() {
+			@Override
+			public void run() {
+				try {
+					process(update, enqueuedAt);
+				} finally {
+					pending.decrementAndGet();
+				}
+			}
+
+			@Override
+			public void drop(RejectedExecutionException cause) {
+				pending.decrementAndGet();
+				rejected.incrementAndGet();
+				logger.warn("Dispatcher is shutting down, dropped update {}", update.updateId());
+			}
+		});
+		if (!isAccepted) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			logger.warn("Backlog of user is full, rejecting update {}", update.updateId());
+			return false;
+		}
+		accepted.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Processes the update in the calling thread context, waiting for previously
+	 * received updates of the same user.
+	 *
+	 * @param update
+	 *            The Telegram update to process
+	 * @return Response method or {@code null}
+	 * @throws java.util.concurrent.RejectedExecutionException
+	 *             if the user backlog is full
+	 */
+	public BotApiMethod<?> processNow(IncomingUpdate update) {
+		try {
+			return keyedExecutor.submit(keyOf(update), () -> bot.consumeUpdate(update)).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+	private void process(IncomingUpdate update, long enqueuedAt) {
+		long waitNanos = System.nanoTime() - enqueuedAt;
+		totalWaitNanos.addAndGet(waitNanos);
+		maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+		try {
+			BotApiMethod<?> response = bot.consumeUpdate(update);
+			if (response != null) {
+				bot.send(response);
+			} else {
+				logger.warn("Null response generated for update id={}", update.updateId());
+			}
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			logger.error("Error processing dispatched update {}: {}", update.updateId(), e.getMessage(), e);
+		} finally {
+			processed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns key to serialize update processing by: Telegram ID of the user,
+	 * because conversation state is stored per user.
+	 */
+	private static long keyOf(IncomingUpdate update) {
+		if (update.fromId() != null) {
+			return update.fromId();
+		}
+		if (update.chatId() != null) {
+			return update.chatId();
+		}
+		// Nothing to serialize by - updates of this kind are independent.
+		return Long.MIN_VALUE + (update.updateId() != null ? update.updateId() : 0);
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+				logger.warn("Dispatch queue was not drained in time, {} updates dropped", pending.get());
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public String getStatsName() {
+		return "dispatcher";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("async", enabled);
+		stats.put("activeUsers", keyedExecutor.getActiveKeys());
+		stats.put("userBacklogRejected", keyedExecutor.getRejectedCount());
+		if (enabled) {
+			long processedCount = processed.get();
+			stats.put("queueDepth", pending.get());
+			stats.put("queueCapacity", queueCapacity);
+			stats.put("accepted", accepted.get());
+			stats.put("rejected", rejected.get());
+			stats.put("processed", processedCount);
+			stats.put("failed", failed.get());
+			stats.put("avgWaitMs", processedCount > 0 ? totalWaitNanos.get() / processedCount / 1_000_000.0 : 0.0);
+			stats.put("maxWaitMs", maxWaitNanos.get() / 1_000_000.0);
+		}
+		return stats;
+	}
+}
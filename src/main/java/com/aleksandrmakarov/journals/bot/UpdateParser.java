@@ -0,0 +1,191 @@
+package com.aleksandrmakarov.journals.bot;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streaming parser of Telegram update JSON. Reads only fields used by the bot
+ * into {@link IncomingUpdate} and skips everything else (photos, entities,
+ * reply chains, etc.) token by token, without building an object graph for it.
+ */
+@Component
+public class UpdateParser {
+
+	private final JsonFactory jsonFactory;
+
+	public UpdateParser(ObjectMapper objectMapper) {
+		this.jsonFactory = objectMapper.getFactory();
+	}
+
+	/**
+	 * Parses Telegram update.
+	 *
+	 * @param input
+	 *            Stream with update JSON
+	 * @return Parsed update
+	 * @throws IOException
+	 *             if JSON is malformed or is not an object
+	 */
+	public IncomingUpdate parse(InputStream input) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(input)) {
+			return parse(parser);
+		}
+	}
+
+	/**
+	 * Parses Telegram update.
+	 *
+	 * @param json
+	 *            Update JSON bytes
+	 * @return Parsed update
+	 * @throws IOException
+	 *             if JSON is malformed or is not an object
+	 */
+	public IncomingUpdate parse(byte[] json) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(json)) {
+			return parse(parser);
+		}
+	}
+
+	private IncomingUpdate parse(JsonParser parser) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException(parser, "Telegram update must be a JSON object");
+		}
+		Fields fields = new Fields();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			JsonToken token = parser.nextToken();
+			switch (name) {
+				case "update_id" -> {
+					if (token == JsonToken.VALUE_NUMBER_INT) {
+						fields.updateId = parser.getIntValue();
+					}
+				}
+				case "message" -> readMessage(parser, token, fields);
+				case "edited_message" -> {
+					fields.editedMessage = token == JsonToken.START_OBJECT;
+					parser.skipChildren();
+				}
+				case "callback_query" -> readCallbackQuery(parser, token, fields);
+				default -> parser.skipChildren();
+			}
+		}
+		return new IncomingUpdate(fields.updateId, fields.chatId, fields.fromId, fields.username, fields.firstName,
+				fields.lastName, fields.languageCode, fields.text, fields.callbackQueryId, fields.callbackData,
+				fields.editedMessage);
+	}
+
+	private static void readMessage(JsonParser parser, JsonToken token, Fields fields) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			JsonToken valueToken = parser.nextToken();
+			switch (name) {
+				case "from" -> readUser(parser, valueToken, fields);
+				case "chat" -> readChat(parser, valueToken, fields);
+				case "text" -> fields.text = parser.getValueAsString();
+				default -> parser.skipChildren();
+			}
+		}
+	}
+
+	private static void readCallbackQuery(JsonParser parser, JsonToken token, Fields fields) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			JsonToken valueToken = parser.nextToken();
+			switch (name) {
+				case "id" -> fields.callbackQueryId = parser.getValueAsString();
+				case "from" -> readUser(parser, valueToken, fields);
+				case "message" -> readCallbackMessage(parser, valueToken, fields);
+				case "data" -> fields.callbackData = parser.getValueAsString();
+				default -> parser.skipChildren();
+			}
+		}
+	}
+
+	/** Reads only chat of the message with the pressed inline keyboard. */
+	private static void readCallbackMessage(JsonParser parser, JsonToken token, Fields fields) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			JsonToken valueToken = parser.nextToken();
+			if ("chat".equals(name)) {
+				readChat(parser, valueToken, fields);
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private static void readUser(JsonParser parser, JsonToken token, Fields fields) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			JsonToken valueToken = parser.nextToken();
+			switch (name) {
+				case "id" -> {
+					if (valueToken == JsonToken.VALUE_NUMBER_INT) {
+						fields.fromId = parser.getLongValue();
+					}
+				}
+				case "username" -> fields.username = parser.getValueAsString();
+				case "first_name" -> fields.firstName = parser.getValueAsString();
+				case "last_name" -> fields.lastName = parser.getValueAsString();
+				case "language_code" -> fields.languageCode = parser.getValueAsString();
+				default -> parser.skipChildren();
+			}
+		}
+	}
+
+	private static void readChat(JsonParser parser, JsonToken token, Fields fields) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			JsonToken valueToken = parser.nextToken();
+			if ("id".equals(name) && valueToken == JsonToken.VALUE_NUMBER_INT) {
+				fields.chatId = parser.getLongValue();
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/** Mutable holder of fields found so far, JSON field order is arbitrary. */
+	private static class Fields {
+		Integer updateId;
+		Long chatId;
+		Long fromId;
+		String username;
+		String firstName;
+		String lastName;
+		String languageCode;
+		String text;
+		String callbackQueryId;
+		String callbackData;
+		boolean editedMessage;
+	}
+}
@@ -0,0 +1,272 @@
+package com.aleksandrmakarov.journals.bot;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.updates.DeleteWebhook;
+import org.telegram.telegrambots.meta.api.methods.updates.GetUpdates;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.generics.TelegramClient;
+
+import com.aleksandrmakarov.journals.service.StatsProvider;
+import com.aleksandrmakarov.journals.service.UpdateBatchContext;
+import com.aleksandrmakarov.journals.service.UserService;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Long polling alternative to the webhook, for local load testing and
+ * deployments without a public URL. Enabled with `telegram.bot.mode=polling`.
+ *
+ * Fetches updates with `getUpdates` and processes each fetched batch in the
+ * poller thread and in one transaction: users of the batch are loaded with one
+ * query, each update is handled under a savepoint (a failed one is rolled back
+ * alone), answers are written with one multi-row upsert, then the transaction
+ * is committed and replies are sent. Only after that the offset is moved past
+ * the batch, which confirms the updates to Telegram, so a batch failed to
+ * persist is fetched and processed again from the same state.
+ */
+@Service
+public class UpdatePoller implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(UpdatePoller.class);
+
+	private static final long MAX_BACKOFF_MS = 30_000;
+
+	@Autowired
+	private JournalsBot bot;
+
+	@Autowired
+	private UserService userService;
+
+	@Autowired
+	private UpdateBatchContext batchContext;
+
+	@Value("${telegram.bot.mode:webhook}")
+	private String mode;
+
+	@Value("${telegram.bot.token}")
+	private String botToken;
+
+	@Value("${telegram.bot.api-url:https://api.telegram.org}")
+	private String apiUrl;
+
+	@Value("${telegram.bot.polling.limit:100}")
+	private int limit;
+
+	@Value("${telegram.bot.polling.timeout-seconds:30}")
+	private int timeoutSeconds;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate batchTransaction;
+	private TransactionTemplate updateTransaction;
+	private TelegramClient client;
+	private Thread poller;
+	private volatile boolean running;
+	private volatile int offset;
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong updatesProcessed = new AtomicLong();
+	private final AtomicLong failedPolls = new AtomicLong();
+	private final AtomicLong totalBatchNanos = new AtomicLong();
+
+	/** Starts polling when the application is ready to handle updates. */
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if (!isEnabled()) {
+			return;
+		}
+		// Long poll holds the request up to `timeoutSeconds`, default OkHttp read
+		// timeout is shorter.
+		OkHttpClient httpClient = new OkHttpClient.Builder().readTimeout(Duration.ofSeconds(timeoutSeconds + 10))
+				.build();
+		batchTransaction = new TransactionTemplate(transactionManager);
+		updateTransaction = new TransactionTemplate(transactionManager);
+		updateTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+		client = new OkHttpTelegramClient(httpClient, botToken, JournalsBot.parseTelegramUrl(apiUrl));
+		running = true;
+		poller = Thread.ofPlatform().name("update-poller").start(this::poll);
+		logger.info("Long polling started against {} with batches of up to {} updates", apiUrl, limit);
+	}
+
+	/**
+	 * Whether updates are received by long polling instead of the webhook.
+	 *
+	 * @return True in polling mode
+	 */
+	public boolean isEnabled() {
+		return "polling".equals(mode);
+	}
+
+	private void poll() {
+		// Telegram doesn't return updates while a webhook is set.
+		try {
+			client.execute(DeleteWebhook.builder().build());
+		} catch (TelegramApiException e) {
+			logger.warn("Failed to delete webhook: {}", e.getMessage());
+		}
+		long backoffMs = 0;
+		while (running) {
+			try {
+				List<Update> updates = client
+						.execute(GetUpdates.builder().offset(offset).limit(limit).timeout(timeoutSeconds).build());
+				if (!updates.isEmpty()) {
+					processBatch(updates);
+					offset = updates.get(updates.size() - 1).getUpdateId() + 1;
+				}
+				backoffMs = 0;
+			} catch (Exception e) {
+				if (!running) {
+					break;
+				}
+				failedPolls.incrementAndGet();
+				backoffMs = Math.min(MAX_BACKOFF_MS, Math.max(1000, backoffMs * 2));
+				logger.error("Polling updates failed, retrying in {} ms: {}", backoffMs, e.getMessage(), e);
+				try {
+					Thread.sleep(backoffMs);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
+	private void processBatch(List<Update> updates) {
+		long startedAt = System.nanoTime();
+		List<IncomingUpdate> incoming = updates.stream().map(IncomingUpdate::from).toList();
+		List<BotApiMethod<?>> responses;
+		try {
+			responses = batchTransaction.execute(status -> handleBatch(incoming));
+		} catch (DataIntegrityViolationException e) {
+			// E.g. question was deleted after the answer. Nothing of the batch is saved,
+			// save what still can be saved, other errors are thrown to retry the batch.
+			logger.warn("Batch of {} updates failed, handling one-by-one: {}", incoming.size(), e.getMessage());
+			responses = handleOneByOne(incoming);
+		}
+
+		// Reply only after the batch is committed, so a retried batch doesn't reply
+		// twice and no reply confirms an answer which wasn't saved.
+		for (BotApiMethod<?> response : responses) {
+			try {
+				bot.send(response);
+			} catch (RuntimeException e) {
+				logger.error("Failed to send reply: {}", e.getMessage());
+			}
+		}
+		batches.incrementAndGet();
+		updatesProcessed.addAndGet(updates.size());
+		totalBatchNanos.addAndGet(System.nanoTime() - startedAt);
+	}
+
+	private List<BotApiMethod<?>> handleBatch(List<IncomingUpdate> incoming) {
+		List<BotApiMethod<?>> responses = new ArrayList<>(incoming.size());
+		try (UpdateBatchContext.Batch batch = batchContext.open()) {
+			Set<Long> telegramIds = new HashSet<>();
+			for (IncomingUpdate update : incoming) {
+				if (update.fromId() != null) {
+					telegramIds.add(update.fromId());
+				}
+			}
+			userService.preloadUsers(telegramIds);
+
+			// Updates are handled in order, so updates of one user don't race.
+			for (IncomingUpdate update : incoming) {
+				batch.beginUpdate();
+				try {
+					BotApiMethod<?> response = updateTransaction.execute(status -> {
+						BotApiMethod<?> result = bot.consumeUpdate(update);
+						// Failed update is rolled back to its savepoint, the batch goes on.
+						if (status.isRollbackOnly()) {
+							status.setRollbackOnly();
+							batch.rollbackUpdate();
+						}
+						return result;
+					});
+					if (response != null) {
+						responses.add(response);
+					}
+				} catch (RuntimeException e) {
+					batch.rollbackUpdate();
+					logger.error("Error processing polled update {}: {}", update.updateId(), e.getMessage(), e);
+				}
+			}
+			batchContext.flush();
+		}
+		return responses;
+	}
+
+	private List<BotApiMethod<?>> handleOneByOne(List<IncomingUpdate> incoming) {
+		List<BotApiMethod<?>> responses = new ArrayList<>(incoming.size());
+		for (IncomingUpdate update : incoming) {
+			try {
+				BotApiMethod<?> response = bot.consumeUpdate(update);
+				if (response != null) {
+					responses.add(response);
+				}
+			} catch (RuntimeException e) {
+				logger.error("Error processing polled update {}: {}", update.updateId(), e.getMessage(), e);
+			}
+		}
+		return responses;
+	}
+
+	@PreDestroy
+	private void stop() {
+		if (poller == null) {
+			return;
+		}
+		running = false;
+		poller.interrupt();
+		try {
+			poller.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String getStatsName() {
+		return "poller";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", isEnabled());
+		if (isEnabled()) {
+			long batchCount = batches.get();
+			stats.put("offset", offset);
+			stats.put("batches", batchCount);
+			stats.put("updates", updatesProcessed.get());
+			stats.put("avgBatchSize", batchCount > 0 ? (double) updatesProcessed.get() / batchCount : 0.0);
+			stats.put("avgBatchMs", batchCount > 0 ? totalBatchNanos.get() / batchCount / 1_000_000.0 : 0.0);
+			stats.put("failedPolls", failedPolls.get());
+		}
+		return stats;
+	}
+}
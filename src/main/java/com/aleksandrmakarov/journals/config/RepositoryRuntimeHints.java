@@ -1,6 +1,8 @@
 package com.aleksandrmakarov.journals.config;
 
+import com.aleksandrmakarov.journals.repository.HistoryImportRepository;
 import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.ProcessedUpdateRepository;
 import com.aleksandrmakarov.journals.repository.QuestionRepository;
 import com.aleksandrmakarov.journals.repository.SessionRepository;
 import com.aleksandrmakarov.journals.repository.UserRepository;
@@ -24,5 +26,11 @@ public class RepositoryRuntimeHints implements RuntimeHintsRegistrar {
 		proxyHints.registerJdkProxy(JournalRepository.class, SpringProxy.class, Advised.class, DecoratingProxy.class);
 
 		proxyHints.registerJdkProxy(QuestionRepository.class, SpringProxy.class, Advised.class, DecoratingProxy.class);
+
+		proxyHints.registerJdkProxy(ProcessedUpdateRepository.class, SpringProxy.class, Advised.class,
+				DecoratingProxy.class);
+
+		proxyHints.registerJdkProxy(HistoryImportRepository.class, SpringProxy.class, Advised.class,
+				DecoratingProxy.class);
 	}
 }
@@ -23,8 +23,11 @@ public class TelegramBotConfig {
 	@Value("${telegram.bot.webhook.path:/webhook}")
 	private String webhookPath;
 
+	@Value("${telegram.bot.api-url:https://api.telegram.org}")
+	private String apiUrl;
+
 	@Bean
 	public JournalsBot journalsBot() {
-		return new JournalsBot(botToken, botUsername, webhookPath);
+		return new JournalsBot(botToken, botUsername, webhookPath, apiUrl);
 	}
 }
@@ -0,0 +1,162 @@
+package com.aleksandrmakarov.journals.controller;
+
+import com.aleksandrmakarov.journals.model.ImportResult;
+import com.aleksandrmakarov.journals.service.HistoryImportService;
+import com.aleksandrmakarov.journals.service.JournalExportService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.TransactionException;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Administrative endpoints, authorized by the `X-Admin-Token` header equal to
+ * `telegram.bot.admin.token`. Disabled while the token isn't configured.
+ */
+@RestController
+@RequestMapping("/admin")
+@Tag(name = "Admin", description = "Administrative endpoints, require X-Admin-Token header")
+public class AdminController {
+
+	private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
+
+	@Autowired
+	private HistoryImportService importService;
+
+	@Autowired
+	private JournalExportService exportService;
+
+	@Value("${telegram.bot.admin.token:}")
+	private String adminToken;
+
+	/**
+	 * Imports historical journals from the request body, streamed to the database.
+	 * Progress is visible in `/health` under "import".
+	 *
+	 * @param token
+	 *            Admin token
+	 * @param format
+	 *            "csv" (with header line), "jsonl" or its alias "ndjson"
+	 * @param request
+	 *            The HTTP request with the file in the body
+	 * @return ResponseEntity with numbers of skipped and created rows
+	 */
+	@Operation(summary = "Import history", description = "Imports historical users, sessions, questions and answers from CSV or JSON lines in the request body.")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Imported"),
+			@ApiResponse(responseCode = "400", description = "Malformed file"),
+			@ApiResponse(responseCode = "401", description = "Missing or invalid admin token"),
+			@ApiResponse(responseCode = "409", description = "Another import is running")})
+	@PostMapping("/import")
+	public ResponseEntity<?> importHistory(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+			@RequestParam(defaultValue = "csv") String format, HttpServletRequest request) {
+		if (!isAuthorized(token)) {
+			logger.warn("Unauthorized admin request from IP: {}", request.getRemoteAddr());
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Unauthorized");
+		}
+		HistoryImportService.Format importFormat;
+		try {
+			importFormat = HistoryImportService.Format.of(format);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body("Unknown format: " + format);
+		}
+		try {
+			ImportResult result = importService.importHistory(request.getInputStream(), importFormat,
+					"HTTP " + request.getRemoteAddr());
+			return ResponseEntity.ok(result);
+		} catch (IllegalStateException e) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+		} catch (IOException | DataAccessException | TransactionException e) {
+			logger.warn("Import from {} failed: {}", request.getRemoteAddr(), e.getMessage());
+			return ResponseEntity.badRequest().body("Import failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Exports journals as a gzip-compressed file in the import format, streamed
+	 * from a DB cursor to the response.
+	 *
+	 * @param token
+	 *            Admin token
+	 * @param format
+	 *            "csv" (with header line) or "ndjson"
+	 * @param telegramId
+	 *            Only journals of the user with this Telegram ID
+	 * @param sessionId
+	 *            Only journals of the session
+	 * @param from
+	 *            Only journals created at or after, ISO date-time
+	 * @param to
+	 *            Only journals created before, ISO date-time
+	 * @param request
+	 *            The HTTP request
+	 * @param response
+	 *            The HTTP response to write the file to
+	 */
+	@Operation(summary = "Export journals", description = "Streams journals with their users, sessions and questions as gzip-compressed CSV or NDJSON, in the format accepted by the import.")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Gzip-compressed file"),
+			@ApiResponse(responseCode = "400", description = "Unknown format"),
+			@ApiResponse(responseCode = "401", description = "Missing or invalid admin token")})
+	@GetMapping("/export")
+	public void exportJournals(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+			@RequestParam(defaultValue = "csv") String format, @RequestParam(required = false) Long telegramId,
+			@RequestParam(required = false) Long sessionId,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!isAuthorized(token)) {
+			logger.warn("Unauthorized admin request from IP: {}", request.getRemoteAddr());
+			response.sendError(HttpStatus.UNAUTHORIZED.value(), "Unauthorized");
+			return;
+		}
+		JournalExportService.Format exportFormat;
+		try {
+			exportFormat = JournalExportService.Format.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpStatus.BAD_REQUEST.value(), "Unknown format: " + format);
+			return;
+		}
+		response.setContentType("application/gzip");
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+				"attachment; filename=\"journals." + exportFormat.name().toLowerCase() + ".gz\"");
+		try {
+			exportService.export(response.getOutputStream(), exportFormat, telegramId, sessionId, from, to);
+		} catch (IOException | DataAccessException | TransactionException e) {
+			logger.warn("Export to {} failed: {}", request.getRemoteAddr(), e.getMessage());
+			// Once part of the file is sent the client can only get an incomplete one.
+			if (!response.isCommitted()) {
+				response.reset();
+				response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Export failed");
+			}
+		}
+	}
+
+	private boolean isAuthorized(String token) {
+		if (!StringUtils.hasText(adminToken) || !StringUtils.hasText(token)) {
+			return false;
+		}
+		return MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8),
+				token.getBytes(StandardCharsets.UTF_8));
+	}
+}
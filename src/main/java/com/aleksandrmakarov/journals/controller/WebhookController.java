@@ -1,15 +1,24 @@
 package com.aleksandrmakarov.journals.controller;
 
+import com.aleksandrmakarov.journals.bot.IncomingUpdate;
 import com.aleksandrmakarov.journals.bot.JournalsBot;
+import com.aleksandrmakarov.journals.bot.UpdateDeduplicator;
+import com.aleksandrmakarov.journals.bot.UpdateDispatcher;
+import com.aleksandrmakarov.journals.bot.UpdateParser;
 import com.aleksandrmakarov.journals.security.WebhookSecurityService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
@@ -29,19 +38,45 @@ public class WebhookController {
 	private JournalsBot bot;
 	@Autowired
 	private WebhookSecurityService webhookSecurityService;
+	@Autowired
+	private UpdateDispatcher updateDispatcher;
+	@Autowired
+	private UpdateDeduplicator updateDeduplicator;
+	@Autowired
+	private WebhookStats webhookStats;
+	@Autowired
+	private UpdateParser updateParser;
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	/**
+	 * How to read update JSON: "streaming" reads only fields used by the bot,
+	 * "databind" builds full telegrambots {@link Update} object.
+	 */
+	@Value("${telegram.bot.webhook.parser:streaming}")
+	private String parser;
+
+	/**
+	 * Whether to return the reply method as webhook response body instead of
+	 * calling Telegram API. Applies to synchronous processing only.
+	 */
+	@Value("${telegram.bot.webhook.reply-in-response:false}")
+	private boolean replyInResponse;
 
 	/**
 	 * Handles incoming webhook updates from Telegram. Validates the request using
-	 * webhook secret token for security.
+	 * webhook secret token for security. In asynchronous mode only puts the update
+	 * into the dispatch queue and acknowledges it right away. Otherwise processes
+	 * the update and either sends the reply through Telegram API or returns it as
+	 * the response body (Telegram executes such method itself).
 	 *
-	 * @param update
-	 *            The Telegram update object
 	 * @param request
-	 *            The HTTP request for security validation
+	 *            The HTTP request with the Telegram update in the body
 	 * @return ResponseEntity with the bot's response or OK status
 	 */
 	@PostMapping
-	public ResponseEntity<?> webhook(@RequestBody Update update, HttpServletRequest request) {
+	public ResponseEntity<?> webhook(HttpServletRequest request) {
+		long startedAt = System.nanoTime();
 
 		// Validate webhook security
 		var validationResult = webhookSecurityService.validateWebhookRequest(request);
@@ -51,44 +86,93 @@ public class WebhookController {
 			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Unauthorized");
 		}
 
+		IncomingUpdate update;
+		try {
+			update = readUpdate(request);
+		} catch (IOException e) {
+			logger.warn("Malformed webhook request from IP: {} - {}", request.getRemoteAddr(), e.getMessage());
+			return ResponseEntity.badRequest().body("Error processing webhook: " + e.getMessage());
+		}
+
+		// Drop updates redelivered by Telegram, they are already handled.
+		if (!updateDeduplicator.isNew(update.updateId())) {
+			logger.info("Skipping already received update {}", update.updateId());
+			return ResponseEntity.ok("OK");
+		}
+
 		// Log update details.
 		StringBuilder details = new StringBuilder();
-		var message = update.getMessage();
-		if (message != null) {
-			details.append("messageId=").append(message.getMessageId()).append(", ");
-			var from = message.getFrom();
-			if (from != null) {
-				details.append("fromId=").append(from.getId()).append(", ");
-				details.append("fromUsername=").append(from.getUserName()).append(", ");
-				details.append("fromFirstName=").append(from.getFirstName()).append(", ");
-				details.append("fromLastName=").append(from.getLastName()).append(", ");
-			}
-			var chat = message.getChat();
-			if (chat != null) {
-				details.append("chatId=").append(chat.getId()).append(", ");
-			}
-			details.append("text=").append(message.getText()).append(", ");
+		if (update.fromId() != null) {
+			details.append("fromId=").append(update.fromId()).append(", ");
+			details.append("fromUsername=").append(update.username()).append(", ");
+			details.append("fromFirstName=").append(update.firstName()).append(", ");
+			details.append("fromLastName=").append(update.lastName()).append(", ");
+		}
+		if (update.chatId() != null) {
+			details.append("chatId=").append(update.chatId()).append(", ");
+		}
+		if (update.isCallbackQuery()) {
+			details.append("callbackData=").append(update.callbackData());
+		} else if (update.text() != null) {
+			details.append("text=").append(update.text());
 		} else {
-			details.append("no message");
+			details.append("no text");
+		}
+		logger.info("Processing update {}: {}", update.updateId(), details.toString());
+
+		// In asynchronous mode hand the update over to dispatcher workers. If the
+		// queue is full ask Telegram to redeliver the update later.
+		if (updateDispatcher.isEnabled()) {
+			if (!updateDispatcher.dispatch(update)) {
+				updateDeduplicator.release(update.updateId());
+				return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Busy");
+			}
+			return ResponseEntity.ok("OK");
 		}
-		logger.info("Processing update {}: {}", update.getUpdateId(), details.toString());
 
 		try {
-			// Process the webhook update through the bot
-			BotApiMethod<?> response = bot.consumeUpdate(update);
+			// Process the webhook update through the bot, after earlier updates of the
+			// same user.
+			BotApiMethod<?> response = updateDispatcher.processNow(update);
 
-			if (response != null) {
-				// Send the response to Telegram using the bot's API.
-				bot.execute(response);
+			if (response != null && replyInResponse) {
+				// Let Telegram execute the method from the response body, it needs
+				// "method" field to know what to do.
+				ObjectNode body = objectMapper.valueToTree(response);
+				body.put("method", response.getMethod());
+				webhookStats.recordResponseReply(System.nanoTime() - startedAt);
+				return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+			} else if (response != null) {
+				// Send the response to Telegram using the bot's API. With the send
+				// pipeline it is only queued here, so measure until it is sent.
+				long sendStartedAt = System.nanoTime();
+				bot.send(response).whenComplete((ignored, error) -> {
+					if (error == null) {
+						long finishedAt = System.nanoTime();
+						webhookStats.recordApiReply(finishedAt - startedAt, finishedAt - sendStartedAt);
+					}
+				});
 			} else {
-				logger.warn("Null response generated for update id={}", update.getUpdateId());
+				logger.warn("Null response generated for update id={}", update.updateId());
 			}
 
 			// Always return OK to Telegram.
 			return ResponseEntity.ok("OK");
+		} catch (RejectedExecutionException e) {
+			logger.warn("Too many pending updates from the same user, rejecting update {}", update.updateId());
+			updateDeduplicator.release(update.updateId());
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Busy");
 		} catch (Exception e) {
-			logger.error("Error processing webhook update {}: {}", update.getUpdateId(), e.getMessage(), e);
+			logger.error("Error processing webhook update {}: {}", update.updateId(), e.getMessage(), e);
+			updateDeduplicator.release(update.updateId());
 			return ResponseEntity.badRequest().body("Error processing webhook: " + e.getMessage());
 		}
 	}
+
+	private IncomingUpdate readUpdate(HttpServletRequest request) throws IOException {
+		if ("databind".equals(parser)) {
+			return IncomingUpdate.from(objectMapper.readValue(request.getInputStream(), Update.class));
+		}
+		return updateParser.parse(request.getInputStream());
+	}
 }
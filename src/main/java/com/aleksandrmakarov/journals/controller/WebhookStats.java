@@ -0,0 +1,73 @@
+package com.aleksandrmakarov.journals.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+import com.aleksandrmakarov.journals.service.StatsProvider;
+
+/**
+ * Latency statistics of synchronous webhook processing. Allows to compare
+ * replies sent through a separate Telegram API call with replies returned in
+ * the webhook HTTP response.
+ */
+@Component
+public class WebhookStats implements StatsProvider {
+
+	private final AtomicLong apiReplies = new AtomicLong();
+	private final AtomicLong apiReplyTotalNanos = new AtomicLong();
+	private final AtomicLong apiSendNanos = new AtomicLong();
+	private final AtomicLong responseReplies = new AtomicLong();
+	private final AtomicLong responseReplyTotalNanos = new AtomicLong();
+
+	/**
+	 * Records update answered with a separate Telegram API call, once the call
+	 * completes.
+	 *
+	 * @param totalNanos
+	 *            Time from receiving the update until the reply is sent
+	 * @param sendNanos
+	 *            Part of it spent on the Telegram API call, including waiting in
+	 *            the send pipeline
+	 */
+	public void recordApiReply(long totalNanos, long sendNanos) {
+		apiReplies.incrementAndGet();
+		apiReplyTotalNanos.addAndGet(totalNanos);
+		apiSendNanos.addAndGet(sendNanos);
+	}
+
+	/**
+	 * Records update answered in the webhook HTTP response.
+	 *
+	 * @param totalNanos
+	 *            Time of the whole webhook request processing
+	 */
+	public void recordResponseReply(long totalNanos) {
+		responseReplies.incrementAndGet();
+		responseReplyTotalNanos.addAndGet(totalNanos);
+	}
+
+	@Override
+	public String getStatsName() {
+		return "webhook";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		long apiCount = apiReplies.get();
+		long responseCount = responseReplies.get();
+		double avgApiSendMs = apiCount > 0 ? apiSendNanos.get() / apiCount / 1_000_000.0 : 0.0;
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("apiReplies", apiCount);
+		stats.put("apiReplyAvgMs", apiCount > 0 ? apiReplyTotalNanos.get() / apiCount / 1_000_000.0 : 0.0);
+		stats.put("apiSendAvgMs", avgApiSendMs);
+		stats.put("responseReplies", responseCount);
+		stats.put("responseReplyAvgMs",
+				responseCount > 0 ? responseReplyTotalNanos.get() / responseCount / 1_000_000.0 : 0.0);
+		// Each reply in the response saves one outbound API call of average duration.
+		stats.put("estimatedSavedMs", Math.round(responseCount * avgApiSendMs));
+		return stats;
+	}
+}
@@ -0,0 +1,34 @@
+package com.aleksandrmakarov.journals.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Journal with its user, session and question, as exported and imported.
+ *
+ * @param telegramId
+ *            Telegram ID of the user.
+ * @param username
+ *            Telegram username of the user.
+ * @param firstName
+ *            First name of the user.
+ * @param lastName
+ *            Last name of the user.
+ * @param sessionName
+ *            The name of the session.
+ * @param sessionDate
+ *            The date of the session.
+ * @param questionType
+ *            The type of the question.
+ * @param questionOrder
+ *            The order of the question in the session.
+ * @param questionText
+ *            The text of the question.
+ * @param answer
+ *            The answer.
+ * @param answeredAt
+ *            When the answer was given.
+ */
+public record ExportedJournal(Long telegramId, String username, String firstName, String lastName,
+		String sessionName, LocalDateTime sessionDate, QuestionType questionType, int questionOrder,
+		String questionText, String answer, LocalDateTime answeredAt) {
+}
@@ -0,0 +1,21 @@
+package com.aleksandrmakarov.journals.model;
+
+/**
+ * Outcome of a history import.
+ *
+ * @param stagedRows
+ *            Number of rows read from the file.
+ * @param invalidRows
+ *            Number of rows skipped because of missing or invalid fields.
+ * @param users
+ *            Number of created users.
+ * @param sessions
+ *            Number of created sessions.
+ * @param questions
+ *            Number of created questions.
+ * @param journals
+ *            Number of created journals.
+ */
+public record ImportResult(long stagedRows, long invalidRows, long users, long sessions, long questions,
+		long journals) {
+}
@@ -0,0 +1,65 @@
+package com.aleksandrmakarov.journals.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Conversational state of a user, as stored in `state_*` columns of the user.
+ *
+ * @param userId
+ *            DB ID of the user.
+ * @param stateType
+ *            State or {@code null} if the user isn't in any flow.
+ * @param sessionId
+ *            Session of the flow.
+ * @param questionIndex
+ *            Index of the question (or page), {@code null} to keep the stored
+ *            one.
+ * @param updatedAt
+ *            When the state was set.
+ * @param payload
+ *            Flow specific data.
+ */
+public record UserState(Long userId, StateType stateType, Long sessionId, Integer questionIndex,
+		LocalDateTime updatedAt, String payload) {
+
+	/**
+	 * State of answering questions of the session.
+	 *
+	 * @param userId
+	 *            DB ID of the user
+	 * @param sessionId
+	 *            Session of the questions
+	 * @param questionIndex
+	 *            Index of the asked question
+	 * @return New state
+	 */
+	public static UserState questionFlow(Long userId, Long sessionId, int questionIndex) {
+		return new UserState(userId, StateType.QA_FLOW, sessionId, questionIndex, LocalDateTime.now(), null);
+	}
+
+	/**
+	 * State out of any flow.
+	 *
+	 * @param userId
+	 *            DB ID of the user
+	 * @param isClearQuestionIndex
+	 *            Whether to reset the question index or keep it, e.g. for `/after`
+	 * @return New state
+	 */
+	public static UserState cleared(Long userId, boolean isClearQuestionIndex) {
+		return new UserState(userId, null, null, isClearQuestionIndex ? 0 : null, null, null);
+	}
+
+	/**
+	 * Returns the user with this state.
+	 *
+	 * @param user
+	 *            User to apply state to
+	 * @return User with state fields replaced
+	 */
+	public User applyTo(User user) {
+		return new User(user.id(), user.telegramId(), user.username(), user.firstName(), user.lastName(), user.role(),
+				user.createdAt(), stateType, sessionId, questionIndex != null ? questionIndex : user.stateQuestionIndex(),
+				updatedAt, payload);
+	}
+}
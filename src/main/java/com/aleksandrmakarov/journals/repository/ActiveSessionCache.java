@@ -0,0 +1,222 @@
+package com.aleksandrmakarov.journals.repository;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.aleksandrmakarov.journals.model.Session;
+import com.aleksandrmakarov.journals.service.StatsProvider;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * In-process cache of the active session, which changes only by admin commands.
+ * Changes made by {@link PostgresSessionRepository} invalidate it locally and
+ * are announced by `NOTIFY` on {@value #CHANNEL}, so other instances invalidate
+ * their caches too.
+ *
+ * Notifications are received on a background thread by a dedicated connection
+ * to `telegram.bot.session-cache.listener-url`, which must reach Postgres
+ * directly or through a session-mode pooler: `LISTEN` does not survive a
+ * transaction pooler. Without that URL the cache is disabled, and while the
+ * connection is down the cache is bypassed. Cached reads take no locks.
+ */
+@Component
+public class ActiveSessionCache implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(ActiveSessionCache.class);
+
+	static final String CHANNEL = "journals_active_session";
+	private static final long RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+	private static final long VALIDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+	private static final int POLL_TIMEOUT_MILLIS = 1000;
+
+	@Value("${telegram.bot.session-cache.enabled:true}")
+	private boolean isEnabled;
+
+	@Value("${telegram.bot.session-cache.listener-url:}")
+	private String listenerUrl;
+
+	@Value("${spring.datasource.username:}")
+	private String username;
+
+	@Value("${spring.datasource.password:}")
+	private String password;
+
+	private record Cached(long generation, Optional<Session> session) {
+	}
+
+	private final AtomicLong generation = new AtomicLong();
+	private volatile Cached cached;
+
+	private volatile boolean running;
+	private volatile boolean listening;
+	private Thread listener;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong bypassed = new AtomicLong();
+	private final AtomicLong notifications = new AtomicLong();
+
+	@PostConstruct
+	private void start() {
+		if (!isEnabled) {
+			return;
+		}
+		if (listenerUrl.isBlank()) {
+			logger.info("Active session cache disabled: telegram.bot.session-cache.listener-url is not set");
+			isEnabled = false;
+			return;
+		}
+		running = true;
+		listener = Thread.ofPlatform().name("active-session-listener").daemon().start(this::listen);
+	}
+
+	/**
+	 * Returns the cached active session or loads it.
+	 *
+	 * @param loader
+	 *            Loads the active session from DB
+	 * @return Active session
+	 */
+	public Optional<Session> get(Supplier<Optional<Session>> loader) {
+		if (!isEnabled) {
+			return loader.get();
+		}
+		if (!listening) {
+			bypassed.incrementAndGet();
+			return loader.get();
+		}
+		long currentGeneration = generation.get();
+		Cached current = cached;
+		if (current != null && current.generation() == currentGeneration) {
+			hits.incrementAndGet();
+			return current.session();
+		}
+		misses.incrementAndGet();
+		Optional<Session> session = loader.get();
+		// Stored value is ignored if the generation has changed during the load.
+		cached = new Cached(currentGeneration, session);
+		return session;
+	}
+
+	/**
+	 * Drops the cached session after the change of sessions. If the change is made
+	 * in a transaction, drops it once more after the transaction completes, in
+	 * case the old session was cached meanwhile.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					generation.incrementAndGet();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the statement notifying other instances about the change. It is
+	 * delivered on commit of the transaction it is executed in.
+	 *
+	 * @return SQL statement
+	 */
+	public String notifyStatement() {
+		return "NOTIFY " + CHANNEL;
+	}
+
+	/** Receives notifications, reconnects after failures until stopped. */
+	private void listen() {
+		while (running) {
+			try (Connection connection = DriverManager.getConnection(listenerUrl, username, password)) {
+				try (Statement statement = connection.createStatement()) {
+					statement.execute("LISTEN " + CHANNEL);
+				}
+				PGConnection pgConnection = connection.unwrap(PGConnection.class);
+				// Changes made while not listening are unknown.
+				generation.incrementAndGet();
+				listening = true;
+				long nextValidateAt = System.nanoTime() + VALIDATE_INTERVAL_NANOS;
+				while (running) {
+					PGNotification[] received = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+					if (received != null && received.length > 0) {
+						notifications.addAndGet(received.length);
+						generation.incrementAndGet();
+					}
+					if (System.nanoTime() - nextValidateAt >= 0) {
+						nextValidateAt = System.nanoTime() + VALIDATE_INTERVAL_NANOS;
+						if (!connection.isValid(2)) {
+							throw new SQLException("Listener connection is not valid");
+						}
+					}
+				}
+			} catch (SQLException e) {
+				if (running) {
+					logger.warn("Active session listener failed, bypassing cache: {}", e.getMessage());
+				}
+			} finally {
+				listening = false;
+			}
+			if (!running) {
+				break;
+			}
+			try {
+				Thread.sleep(RECONNECT_DELAY_MILLIS);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	@PreDestroy
+	private void stop() {
+		if (listener == null) {
+			return;
+		}
+		running = false;
+		listener.interrupt();
+		try {
+			listener.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String getStatsName() {
+		return "sessionCache";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", isEnabled);
+		if (isEnabled) {
+			stats.put("listening", listening);
+			stats.put("hits", hits.get());
+			stats.put("misses", misses.get());
+			stats.put("bypassed", bypassed.get());
+			stats.put("notifications", notifications.get());
+		}
+		return stats;
+	}
+}
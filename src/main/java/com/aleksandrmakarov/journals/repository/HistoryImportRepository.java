@@ -0,0 +1,20 @@
+package com.aleksandrmakarov.journals.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.aleksandrmakarov.journals.model.ImportResult;
+
+/**
+ * Bulk import of historical journals. Rows are staged in temporary tables which
+ * live until the end of the transaction, so all methods must be called in one
+ * transaction.
+ */
+public interface HistoryImportRepository {
+
+	long stageCsv(InputStream csv) throws IOException;
+
+	long stageJsonLines(InputStream jsonLines) throws IOException;
+
+	ImportResult merge(long stagedRows);
+}
@@ -1,9 +1,13 @@
 package com.aleksandrmakarov.journals.repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Consumer;
 
+import com.aleksandrmakarov.journals.model.ExportedJournal;
 import com.aleksandrmakarov.journals.model.Journal;
 import com.aleksandrmakarov.journals.model.SessionJournals;
+import com.aleksandrmakarov.journals.model.UserState;
 
 /** Journal repository interface. */
 public interface JournalRepository {
@@ -11,6 +15,10 @@ public interface JournalRepository {
 
 	Journal upsertJournal(String answer, Long userId, Long sessionId, Long questionId);
 
+	Journal saveAnswer(String answer, Long sessionId, Long questionId, UserState nextState);
+
+	List<Journal> upsertJournals(List<Journal> journals);
+
 	List<Long> saveBatch(List<Journal> journals);
 
 	List<Journal> findByUserIdOrderByCreatedAtDesc(Long userId, int limit);
@@ -21,6 +29,9 @@ public interface JournalRepository {
 
 	Long countByUserId(Long userId);
 
+	void forEachJournal(Long telegramId, Long sessionId, LocalDateTime from, LocalDateTime to,
+			Consumer<ExportedJournal> consumer);
+
 	long count();
 
 	void deleteAll();
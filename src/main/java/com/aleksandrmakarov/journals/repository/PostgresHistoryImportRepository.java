@@ -0,0 +1,200 @@
+package com.aleksandrmakarov.journals.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.aleksandrmakarov.journals.model.ImportResult;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Postgres history import. Files are streamed with COPY into the temporary
+ * `import_rows` table (one row per answer), then merged into `users`,
+ * `sessions`, `question_templates`, `questions` and `journals` by a few
+ * set-based statements, so neither the application nor the number of
+ * round-trips grows with the file size.
+ *
+ * <p>
+ * Columns of a row, in CSV order: `telegram_id`, `username`, `first_name`,
+ * `last_name`, `session_name`, `session_date`, `question_type` (BEFORE or
+ * AFTER), `question_order`, `question_text`, `answer`, `answered_at`. JSON
+ * lines use the same keys. Sessions are matched by name and date, new ones are
+ * created finished with their own question template. Existing users, sessions,
+ * questions and journals are kept as is, so a file may be imported again.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PostgresHistoryImportRepository implements HistoryImportRepository {
+
+	private static final Logger logger = LoggerFactory.getLogger(PostgresHistoryImportRepository.class);
+
+	private static final String CREATE_IMPORT_ROWS = """
+			CREATE TEMP TABLE IF NOT EXISTS import_rows (
+			    telegram_id BIGINT,
+			    username TEXT,
+			    first_name TEXT,
+			    last_name TEXT,
+			    session_name TEXT,
+			    session_date TIMESTAMP,
+			    question_type TEXT,
+			    question_order INTEGER,
+			    question_text TEXT,
+			    answer TEXT,
+			    answered_at TIMESTAMP
+			) ON COMMIT DROP
+			""";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * Stages CSV rows with a header line.
+	 *
+	 * @param csv
+	 *            CSV file content, read until the end
+	 * @return Number of staged rows
+	 */
+	public long stageCsv(InputStream csv) throws IOException {
+		jdbcTemplate.execute(CREATE_IMPORT_ROWS);
+		return copyIn("COPY import_rows FROM STDIN WITH (FORMAT csv, HEADER true)", csv);
+	}
+
+	/**
+	 * Stages JSON lines, one JSON object per line. Lines are copied as is and
+	 * parsed by Postgres.
+	 *
+	 * @param jsonLines
+	 *            File content, read until the end
+	 * @return Number of staged rows
+	 */
+	public long stageJsonLines(InputStream jsonLines) throws IOException {
+		jdbcTemplate.execute(CREATE_IMPORT_ROWS);
+		jdbcTemplate.execute("CREATE TEMP TABLE IF NOT EXISTS import_lines (doc TEXT) ON COMMIT DROP");
+		// CSV with quote and delimiter characters which can't appear in JSON takes
+		// each line verbatim, unlike the text format which unescapes backslashes.
+		copyIn("COPY import_lines FROM STDIN WITH (FORMAT csv, QUOTE E'\\x01', DELIMITER E'\\x02')", jsonLines);
+		int staged = jdbcTemplate.update("""
+				INSERT INTO import_rows
+				SELECT (d->>'telegram_id')::bigint, d->>'username', d->>'first_name', d->>'last_name',
+				    d->>'session_name', (d->>'session_date')::timestamp, d->>'question_type',
+				    (d->>'question_order')::integer, d->>'question_text', d->>'answer', (d->>'answered_at')::timestamp
+				FROM (SELECT doc::jsonb AS d FROM import_lines WHERE btrim(doc) <> '') lines
+				""");
+		jdbcTemplate.execute("TRUNCATE import_lines");
+		return staged;
+	}
+
+	private long copyIn(String sql, InputStream in) throws IOException {
+		try {
+			return jdbcTemplate.execute((ConnectionCallback<Long>) con -> {
+				try {
+					return con.unwrap(PGConnection.class).getCopyAPI().copyIn(sql, in);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Merges staged rows into the journal tables.
+	 *
+	 * @param stagedRows
+	 *            Number of staged rows, for the result
+	 * @return Numbers of skipped and created rows
+	 */
+	public ImportResult merge(long stagedRows) {
+		int invalid = jdbcTemplate.update("""
+				DELETE FROM import_rows
+				WHERE telegram_id IS NULL OR session_name IS NULL OR session_date IS NULL
+				    OR question_text IS NULL OR answer IS NULL
+				    OR upper(btrim(question_type)) NOT IN ('BEFORE', 'AFTER') OR question_type IS NULL
+				""");
+		jdbcTemplate.update("UPDATE import_rows SET question_type = upper(btrim(question_type))");
+		// Temporary tables aren't analyzed automatically, the planner needs numbers.
+		jdbcTemplate.execute("ANALYZE import_rows");
+
+		int users = jdbcTemplate.update("""
+				INSERT INTO users (telegram_id, username, first_name, last_name, role, created_at)
+				SELECT telegram_id, max(username), max(first_name), max(last_name), 'PLAYER',
+				    min(COALESCE(answered_at, session_date))
+				FROM import_rows
+				GROUP BY telegram_id
+				ON CONFLICT (telegram_id) DO NOTHING
+				""");
+		logger.info("Import: {} users created", users);
+
+		// New sessions get IDs and templates up front, so rows can be joined to them.
+		jdbcTemplate.execute("""
+				CREATE TEMP TABLE import_sessions ON COMMIT DROP AS
+				SELECT s.name, s.created_at, s.finished_at, existing.id AS session_id,
+				    existing.template_id, existing.id IS NULL AS is_new
+				FROM (
+				    SELECT session_name AS name, session_date AS created_at,
+				        GREATEST(max(answered_at), session_date) AS finished_at
+				    FROM import_rows
+				    GROUP BY session_name, session_date
+				) s
+				LEFT JOIN LATERAL (
+				    SELECT id, template_id FROM sessions
+				    WHERE name = s.name AND created_at = s.created_at
+				    ORDER BY id LIMIT 1
+				) existing ON true
+				""");
+		jdbcTemplate.update("""
+				UPDATE import_sessions
+				SET session_id = nextval(pg_get_serial_sequence('sessions', 'id')),
+				    template_id = nextval(pg_get_serial_sequence('question_templates', 'id'))
+				WHERE is_new
+				""");
+		jdbcTemplate.execute("ANALYZE import_sessions");
+		jdbcTemplate.update("""
+				INSERT INTO question_templates (id, created_at)
+				SELECT template_id, created_at FROM import_sessions WHERE is_new
+				""");
+		int sessions = jdbcTemplate.update("""
+				INSERT INTO sessions (id, name, created_at, finished_at, template_id)
+				SELECT session_id, name, created_at, finished_at, template_id FROM import_sessions WHERE is_new
+				""");
+		logger.info("Import: {} sessions created", sessions);
+
+		// Only new sessions get questions, templates of existing ones may be shared.
+		int questions = jdbcTemplate.update("""
+				INSERT INTO questions (text, type, order_index, template_id)
+				SELECT r.question_text, r.question_type,
+				    row_number() OVER (PARTITION BY s.template_id
+				        ORDER BY min(r.question_order) NULLS LAST, r.question_type, r.question_text),
+				    s.template_id
+				FROM import_rows r
+				JOIN import_sessions s ON s.name = r.session_name AND s.created_at = r.session_date
+				WHERE s.is_new
+				GROUP BY s.template_id, r.question_type, r.question_text
+				""");
+		logger.info("Import: {} questions created", questions);
+
+		int journals = jdbcTemplate.update("""
+				INSERT INTO journals (answer, created_at, user_id, session_id, question_id)
+				SELECT DISTINCT ON (u.id, s.session_id, q.id)
+				    r.answer, COALESCE(r.answered_at, r.session_date), u.id, s.session_id, q.id
+				FROM import_rows r
+				JOIN users u ON u.telegram_id = r.telegram_id
+				JOIN import_sessions s ON s.name = r.session_name AND s.created_at = r.session_date
+				JOIN questions q ON q.template_id = s.template_id AND q.type = r.question_type
+				    AND q.text = r.question_text
+				ORDER BY u.id, s.session_id, q.id, r.answered_at DESC NULLS LAST
+				ON CONFLICT (user_id, session_id, question_id) DO NOTHING
+				""");
+		logger.info("Import: {} journals created", journals);
+
+		return new ImportResult(stagedRows, invalid, users, sessions, questions, journals);
+	}
+}
@@ -1,24 +1,47 @@
 package com.aleksandrmakarov.journals.repository;
 
+import com.aleksandrmakarov.journals.model.ExportedJournal;
 import com.aleksandrmakarov.journals.model.Journal;
 import com.aleksandrmakarov.journals.model.JournalWithQuestion;
 import com.aleksandrmakarov.journals.model.QuestionType;
 import com.aleksandrmakarov.journals.model.SessionJournals;
+import com.aleksandrmakarov.journals.model.UserState;
 import com.aleksandrmakarov.journals.util.TimestampUtils;
 import jakarta.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 import lombok.RequiredArgsConstructor;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 @Repository
 @RequiredArgsConstructor
 public class PostgresJournalRepository implements JournalRepository {
 
 	private final JdbcTemplate jdbcTemplate;
+	private final UserCache userCache;
+
+	@Value("${telegram.bot.bulk-insert.copy-threshold:5000}")
+	private int copyThreshold;
+
+	@Value("${telegram.bot.export.fetch-size:1000}")
+	private int exportFetchSize;
+
+	private static final int COPY_CHUNK_CHARS = 64 * 1024;
 
 	private RowMapper<Journal> journalRowMapper;
 
@@ -50,49 +73,246 @@ public class PostgresJournalRepository implements JournalRepository {
 		}
 	}
 
+	/**
+	 * Inserts or updates the answer if the session is still active.
+	 *
+	 * @param answer
+	 *            Answer text
+	 * @param userId
+	 *            DB ID of the user
+	 * @param sessionId
+	 *            Session expected to be active
+	 * @param questionId
+	 *            Answered question
+	 * @return Saved journal or {@code null} if the session isn't active
+	 */
 	public Journal upsertJournal(String answer, Long userId, Long sessionId, Long questionId) {
 		String sql = """
 				INSERT INTO journals (answer, created_at, user_id, session_id, question_id)
-				VALUES (?, CURRENT_TIMESTAMP, ?, ?, ?)
+				SELECT ?, CURRENT_TIMESTAMP, ?, s.id, ? FROM sessions s WHERE s.id = ? AND s.finished_at IS NULL
 				ON CONFLICT (user_id, session_id, question_id)
 				DO UPDATE SET answer = EXCLUDED.answer, created_at = CURRENT_TIMESTAMP
 				RETURNING id, answer, created_at, user_id, session_id, question_id
 				""";
-		Journal result = jdbcTemplate.queryForObject(sql, journalRowMapper, answer, userId, sessionId, questionId);
-		return result;
+		List<Journal> saved = jdbcTemplate.query(sql, journalRowMapper, answer, userId, questionId, sessionId);
+		return saved.isEmpty() ? null : saved.get(0);
 	}
 
-	public List<Long> saveBatch(List<Journal> journals) {
+	/**
+	 * Saves the answer of the user and sets the user's next state in one
+	 * statement. Nothing is changed if the session isn't active anymore.
+	 *
+	 * @param answer
+	 *            Answer text
+	 * @param sessionId
+	 *            Session expected to be active
+	 * @param questionId
+	 *            Answered question
+	 * @param nextState
+	 *            State of the user after the answer, {@code null} question index
+	 *            keeps the stored one
+	 * @return Saved journal or {@code null} if the session isn't active
+	 */
+	public Journal saveAnswer(String answer, Long sessionId, Long questionId, UserState nextState) {
+		String sql = """
+				WITH active AS (
+				    SELECT id FROM sessions WHERE id = ? AND finished_at IS NULL
+				), journal AS (
+				    INSERT INTO journals (answer, created_at, user_id, session_id, question_id)
+				    SELECT ?, CURRENT_TIMESTAMP, ?, a.id, ? FROM active a
+				    ON CONFLICT (user_id, session_id, question_id)
+				    DO UPDATE SET answer = EXCLUDED.answer, created_at = CURRENT_TIMESTAMP
+				    RETURNING id, answer, created_at, user_id, session_id, question_id
+				), state AS (
+				    UPDATE user_state SET type = ?::text, session_id = ?::bigint,
+				        question_index = COALESCE(?::integer, question_index), updated_at = ?::timestamp, payload = ?::text
+				    WHERE user_id = ? AND EXISTS (SELECT 1 FROM journal)
+				)
+				SELECT * FROM journal
+				""";
+		List<Journal> saved = jdbcTemplate.query(sql, journalRowMapper, sessionId, answer, nextState.userId(),
+				questionId, nextState.stateType() != null ? nextState.stateType().name() : null, nextState.sessionId(),
+				nextState.questionIndex(), TimestampUtils.toTimestamp(nextState.updatedAt()), nextState.payload(),
+				nextState.userId());
+		userCache.invalidate(nextState.userId());
+		return saved.isEmpty() ? null : saved.get(0);
+	}
+
+	/**
+	 * Inserts or updates answers with one statement. Journals must have distinct
+	 * (user, session, question) keys. Answers to sessions which aren't active
+	 * anymore are skipped.
+	 *
+	 * @param journals
+	 *            Journals to upsert, only answer and IDs of user, session and
+	 *            question are used.
+	 * @return Saved journals, in no particular order
+	 */
+	public List<Journal> upsertJournals(List<Journal> journals) {
 		if (journals == null || journals.isEmpty()) {
-			return java.util.Collections.emptyList();
+			return List.of();
 		}
 
-		StringBuilder sql = new StringBuilder(
-				"INSERT INTO journals (answer, created_at, user_id, session_id, question_id) VALUES ");
-		String sep = "";
+		// One statement text for any batch size, with 4 array parameters.
+		String[] answers = new String[journals.size()];
+		long[] userIds = new long[journals.size()];
+		long[] sessionIds = new long[journals.size()];
+		long[] questionIds = new long[journals.size()];
 		for (int i = 0; i < journals.size(); i++) {
-			sql.append(sep).append("(?, ?, ?, ?, ?)");
-			sep = ", ";
+			Journal j = journals.get(i);
+			answers[i] = j.answer();
+			userIds[i] = j.userId();
+			sessionIds[i] = j.sessionId();
+			questionIds[i] = j.questionId();
+		}
+		String sql = """
+				INSERT INTO journals (answer, created_at, user_id, session_id, question_id)
+				SELECT t.answer, CURRENT_TIMESTAMP, t.user_id, t.session_id, t.question_id
+				FROM unnest(?::text[], ?::bigint[], ?::bigint[], ?::bigint[])
+				    AS t(answer, user_id, session_id, question_id)
+				JOIN sessions s ON s.id = t.session_id AND s.finished_at IS NULL
+				ON CONFLICT (user_id, session_id, question_id)
+				DO UPDATE SET answer = EXCLUDED.answer, created_at = CURRENT_TIMESTAMP
+				RETURNING id, answer, created_at, user_id, session_id, question_id
+				""";
+		return jdbcTemplate.query(sql, ps -> {
+			ps.setObject(1, answers);
+			ps.setObject(2, userIds);
+			ps.setObject(3, sessionIds);
+			ps.setObject(4, questionIds);
+		}, journalRowMapper);
+	}
+
+	/**
+	 * Inserts journals. Up to `telegram.bot.bulk-insert.copy-threshold` rows are
+	 * inserted by one statement with array parameters, larger batches are
+	 * streamed with COPY.
+	 *
+	 * @param journals
+	 *            Journals to insert
+	 * @return IDs of inserted journals, in the order of the given ones
+	 */
+	@Transactional
+	public List<Long> saveBatch(List<Journal> journals) {
+		if (journals == null || journals.isEmpty()) {
+			return Collections.emptyList();
 		}
-		sql.append(" RETURNING id");
-
-		java.util.List<Object> params = new java.util.ArrayList<>(journals.size() * 5);
-		for (Journal j : journals) {
-			params.add(j.answer());
-			params.add(TimestampUtils.toTimestamp(j.createdAt()));
-			params.add(j.userId());
-			params.add(j.sessionId());
-			params.add(j.questionId());
+		if (journals.size() >= copyThreshold) {
+			return copyBatch(journals);
 		}
 
-		return jdbcTemplate.query(sql.toString(), ps -> {
-			Object[] arr = params.toArray();
-			for (int i = 0; i < arr.length; i++) {
-				ps.setObject(i + 1, arr[i]);
-			}
+		// One statement text for any batch size, with 5 array parameters.
+		String[] answers = new String[journals.size()];
+		Timestamp[] createdAts = new Timestamp[journals.size()];
+		long[] userIds = new long[journals.size()];
+		long[] sessionIds = new long[journals.size()];
+		long[] questionIds = new long[journals.size()];
+		for (int i = 0; i < journals.size(); i++) {
+			Journal j = journals.get(i);
+			answers[i] = j.answer();
+			createdAts[i] = TimestampUtils.toTimestamp(j.createdAt());
+			userIds[i] = j.userId();
+			sessionIds[i] = j.sessionId();
+			questionIds[i] = j.questionId();
+		}
+		String sql = """
+				INSERT INTO journals (answer, created_at, user_id, session_id, question_id)
+				SELECT answer, created_at, user_id, session_id, question_id
+				FROM unnest(?::text[], ?::timestamp[], ?::bigint[], ?::bigint[], ?::bigint[])
+				    WITH ORDINALITY AS t(answer, created_at, user_id, session_id, question_id, ord)
+				ORDER BY ord
+				RETURNING id
+				""";
+		return jdbcTemplate.query(sql, ps -> {
+			ps.setObject(1, answers);
+			ps.setArray(2, ps.getConnection().createArrayOf("timestamp", createdAts));
+			ps.setObject(3, userIds);
+			ps.setObject(4, sessionIds);
+			ps.setObject(5, questionIds);
 		}, (rs, rowNum) -> rs.getLong("id"));
 	}
 
+	/**
+	 * Streams journals with COPY into a temporary table of the connection and
+	 * moves them into `journals` by one INSERT, to get their IDs. Runs in the
+	 * transaction of {@link #saveBatch}, the table is dropped on commit.
+	 */
+	private List<Long> copyBatch(List<Journal> journals) {
+		return jdbcTemplate.execute((ConnectionCallback<List<Long>>) con -> {
+			try (Statement statement = con.createStatement()) {
+				statement.execute("""
+						CREATE TEMP TABLE IF NOT EXISTS journals_copy (ord INTEGER, answer TEXT,
+						    created_at TIMESTAMP, user_id BIGINT, session_id BIGINT, question_id BIGINT)
+						    ON COMMIT DROP
+						""");
+				statement.execute("TRUNCATE journals_copy");
+			}
+
+			CopyIn copyIn = con.unwrap(PGConnection.class).getCopyAPI().copyIn("COPY journals_copy FROM STDIN");
+			try {
+				StringBuilder rows = new StringBuilder(COPY_CHUNK_CHARS + 1024);
+				for (int i = 0; i < journals.size(); i++) {
+					Journal j = journals.get(i);
+					rows.append(i).append('\t');
+					appendCopyText(rows, j.answer());
+					rows.append('\t');
+					Timestamp createdAt = TimestampUtils.toTimestamp(j.createdAt());
+					appendCopyText(rows, createdAt != null ? createdAt.toString() : null);
+					rows.append('\t').append(j.userId()).append('\t').append(j.sessionId()).append('\t')
+							.append(j.questionId()).append('\n');
+					if (rows.length() >= COPY_CHUNK_CHARS) {
+						writeToCopy(copyIn, rows);
+					}
+				}
+				writeToCopy(copyIn, rows);
+				copyIn.endCopy();
+			} finally {
+				if (copyIn.isActive()) {
+					copyIn.cancelCopy();
+				}
+			}
+
+			List<Long> ids = new ArrayList<>(journals.size());
+			try (Statement statement = con.createStatement()) {
+				try (ResultSet rs = statement.executeQuery("""
+						INSERT INTO journals (answer, created_at, user_id, session_id, question_id)
+						SELECT answer, created_at, user_id, session_id, question_id FROM journals_copy
+						ORDER BY ord
+						RETURNING id
+						""")) {
+					while (rs.next()) {
+						ids.add(rs.getLong(1));
+					}
+				}
+			}
+			return ids;
+		});
+	}
+
+	private static void writeToCopy(CopyIn copyIn, StringBuilder rows) throws SQLException {
+		byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+		copyIn.writeToCopy(bytes, 0, bytes.length);
+		rows.setLength(0);
+	}
+
+	/** Appends the value escaped for the text format of COPY. */
+	private static void appendCopyText(StringBuilder row, String value) {
+		if (value == null) {
+			row.append("\\N");
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '\\' -> row.append("\\\\");
+				case '\n' -> row.append("\\n");
+				case '\r' -> row.append("\\r");
+				case '\t' -> row.append("\\t");
+				default -> row.append(c);
+			}
+		}
+	}
+
 	public List<Journal> findByUserIdOrderByCreatedAtDesc(Long userId, int limit) {
 		return jdbcTemplate.query("SELECT * FROM journals WHERE user_id = ? ORDER BY created_at DESC LIMIT ?",
 				journalRowMapper, userId, limit);
@@ -173,6 +393,75 @@ public class PostgresJournalRepository implements JournalRepository {
 		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM journals WHERE user_id = ?", Long.class, userId);
 	}
 
+	/**
+	 * Reads journals matching the filters through a server-side cursor, by
+	 * `telegram.bot.export.fetch-size` rows at a time, so any number of journals
+	 * can be read in constant memory. Must be called in a transaction. Filters use
+	 * indexes on `users.telegram_id`, `journals.session_id` and
+	 * `journals.created_at`.
+	 *
+	 * @param telegramId
+	 *            Telegram ID of the user, or {@code null} for all users
+	 * @param sessionId
+	 *            Session ID, or {@code null} for all sessions
+	 * @param from
+	 *            Earliest answer time, inclusive, or {@code null}
+	 * @param to
+	 *            Latest answer time, exclusive, or {@code null}
+	 * @param consumer
+	 *            Receives journals in the order of creation
+	 */
+	public void forEachJournal(Long telegramId, Long sessionId, LocalDateTime from, LocalDateTime to,
+			Consumer<ExportedJournal> consumer) {
+		List<String> conditions = new ArrayList<>();
+		List<Object> params = new ArrayList<>();
+		if (telegramId != null) {
+			conditions.add("u.telegram_id = ?");
+			params.add(telegramId);
+		}
+		if (sessionId != null) {
+			conditions.add("j.session_id = ?");
+			params.add(sessionId);
+		}
+		if (from != null) {
+			conditions.add("j.created_at >= ?");
+			params.add(TimestampUtils.toTimestamp(from));
+		}
+		if (to != null) {
+			conditions.add("j.created_at < ?");
+			params.add(TimestampUtils.toTimestamp(to));
+		}
+		// An explicit cursor because fetch size of the driver is ignored in simple
+		// query mode, the whole result would be read into memory.
+		String sql = """
+				DECLARE journals_export NO SCROLL CURSOR FOR
+				SELECT u.telegram_id, u.username, u.first_name, u.last_name, s.name AS session_name,
+				    s.created_at AS session_date, q.type AS question_type, q.order_index AS question_order,
+				    q.text AS question_text, j.answer, j.created_at AS answered_at
+				FROM journals j
+				JOIN users u ON u.id = j.user_id
+				JOIN sessions s ON s.id = j.session_id
+				JOIN questions q ON q.id = j.question_id
+				""" + (conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + "\n")
+				+ "ORDER BY j.created_at, j.id";
+		jdbcTemplate.update(sql, params.toArray());
+		RowMapper<ExportedJournal> mapper = (rs, rowNum) -> new ExportedJournal(rs.getLong("telegram_id"),
+				rs.getString("username"), rs.getString("first_name"), rs.getString("last_name"),
+				rs.getString("session_name"), TimestampUtils.fromTimestamp(rs.getTimestamp("session_date")),
+				QuestionType.valueOf(rs.getString("question_type")), rs.getInt("question_order"),
+				rs.getString("question_text"), rs.getString("answer"),
+				TimestampUtils.fromTimestamp(rs.getTimestamp("answered_at")));
+		String fetch = "FETCH FORWARD " + exportFetchSize + " FROM journals_export";
+		int[] fetched = new int[1];
+		do {
+			fetched[0] = 0;
+			jdbcTemplate.query(fetch, rs -> {
+				consumer.accept(mapper.mapRow(rs, fetched[0]++));
+			});
+		} while (fetched[0] == exportFetchSize);
+		jdbcTemplate.execute("CLOSE journals_export");
+	}
+
 	/**
 	 * Counts the total number of journals in the database.
 	 *
@@ -0,0 +1,69 @@
+package com.aleksandrmakarov.journals.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Postgres repository of processed Telegram update IDs. Used to drop redelivered
+ * updates across restarts and between multiple bot instances.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PostgresProcessedUpdateRepository implements ProcessedUpdateRepository {
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * Marks the update as processed.
+	 *
+	 * @param updateId
+	 *            The Telegram update ID
+	 * @return True if the update wasn't claimed before, false if it is a replay
+	 */
+	public boolean claim(long updateId) {
+		return jdbcTemplate.update("INSERT INTO processed_updates (update_id) VALUES (?) ON CONFLICT DO NOTHING",
+				updateId) == 1;
+	}
+
+	/**
+	 * Removes the claim so the update could be processed again.
+	 *
+	 * @param updateId
+	 *            The Telegram update ID
+	 */
+	public void release(long updateId) {
+		jdbcTemplate.update("DELETE FROM processed_updates WHERE update_id = ?", updateId);
+	}
+
+	/**
+	 * Finds the highest processed update ID.
+	 *
+	 * @return The highest processed update ID or -1 if there are none
+	 */
+	public long findHighWaterMark() {
+		Long result = jdbcTemplate.queryForObject("SELECT MAX(update_id) FROM processed_updates", Long.class);
+		return result != null ? result : -1L;
+	}
+
+	/**
+	 * Deletes claims of updates older than the given one.
+	 *
+	 * @param updateId
+	 *            The oldest update ID to keep
+	 */
+	public void deleteOlderThan(long updateId) {
+		jdbcTemplate.update("DELETE FROM processed_updates WHERE update_id < ?", updateId);
+	}
+
+	/**
+	 * Deletes claims of updates newer than the given one, left from before the
+	 * update IDs were restarted.
+	 *
+	 * @param updateId
+	 *            The newest update ID to keep
+	 */
+	public void deleteNewerThan(long updateId) {
+		jdbcTemplate.update("DELETE FROM processed_updates WHERE update_id > ?", updateId);
+	}
+}
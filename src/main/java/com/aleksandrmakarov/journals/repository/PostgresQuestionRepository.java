@@ -1,11 +1,12 @@
 package com.aleksandrmakarov.journals.repository;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
@@ -13,47 +14,105 @@ import org.springframework.stereotype.Repository;
 import com.aleksandrmakarov.journals.model.Question;
 import com.aleksandrmakarov.journals.model.QuestionType;
 
+import jakarta.annotation.PostConstruct;
+
 /**
- * Postgres question repository implementation.
+ * Postgres question repository implementation. Questions belong to question
+ * templates which are shared by sessions, a session links to its template. A
+ * template shared with other sessions is copied before it is changed for a
+ * session, so changes never affect other sessions. Questions of a session are
+ * served from {@link QuestionCache}, all changes invalidate it.
  */
 @Repository
 public class PostgresQuestionRepository implements QuestionRepository {
 
+	private static final Logger logger = LoggerFactory.getLogger(PostgresQuestionRepository.class);
+
 	private final JdbcTemplate jdbcTemplate;
+	private final QuestionCache questionCache;
 
-	public PostgresQuestionRepository(JdbcTemplate jdbcTemplate) {
+	public PostgresQuestionRepository(JdbcTemplate jdbcTemplate, QuestionCache questionCache) {
 		this.jdbcTemplate = jdbcTemplate;
+		this.questionCache = questionCache;
 	}
 
 	private static final RowMapper<Question> QUESTION_ROW_MAPPER = (rs, rowNum) -> new Question(rs.getLong("id"),
 			rs.getString("text"), QuestionType.valueOf(rs.getString("type")), rs.getInt("order_index"),
 			rs.getLong("session_id"));
 
+	/** Template of a session and number of sessions using it. */
+	private record TemplateLink(Long templateId, long sessions) {
+
+		boolean isShared() {
+			return sessions > 1;
+		}
+	}
+
+	/** Template which may be changed for the session, with new IDs of copied questions. */
+	private record WritableTemplate(long id, Map<Long, Long> copiedIds) {
+
+		Long questionId(Long storedId) {
+			return copiedIds.getOrDefault(storedId, storedId);
+		}
+	}
+
+	/** Loads questions of the active session, so the first updates don't wait for them. */
+	@PostConstruct
+	private void preloadActiveSession() {
+		List<Long> activeSessionIds = jdbcTemplate.queryForList("SELECT id FROM sessions WHERE finished_at IS NULL",
+				Long.class);
+		for (Long sessionId : activeSessionIds) {
+			int count = findBySessionIdOrderByOrderIndex(sessionId).size();
+			logger.info("Preloaded {} questions of active session {}", count, sessionId);
+		}
+	}
+
+	/**
+	 * Finds questions of the session ordered by index.
+	 *
+	 * @param sessionId
+	 *            Session ID
+	 * @return Immutable list of questions, shared between callers
+	 */
 	public List<Question> findBySessionIdOrderByOrderIndex(Long sessionId) {
-		return jdbcTemplate.query("SELECT * FROM questions WHERE session_id = ? ORDER BY order_index",
-				QUESTION_ROW_MAPPER, sessionId);
+		return questionCache.get(sessionId,
+				() -> jdbcTemplate.query(
+						"SELECT q.id, q.text, q.type, q.order_index, s.id AS session_id FROM sessions s "
+								+ "JOIN questions q ON q.template_id = s.template_id WHERE s.id = ? ORDER BY q.order_index, q.id",
+						QUESTION_ROW_MAPPER, sessionId));
 	}
 
 	public List<Question> findBySessionIdAndQuestionTypeOrderByOrderIndex(Long sessionId, QuestionType type) {
-		return jdbcTemplate.query("SELECT * FROM questions WHERE session_id = ? ORDER BY order_index",
-				QUESTION_ROW_MAPPER, sessionId);
+		return findBySessionIdOrderByOrderIndex(sessionId).stream().filter(q -> q.type() == type).toList();
 	}
 
+	/**
+	 * Saves a question to the template of its session. A template shared with
+	 * other sessions is copied first, so they keep their questions, and an
+	 * existing question gets the ID of its copy.
+	 *
+	 * @param question
+	 *            The question to save
+	 * @return The saved question with generated or copied ID
+	 */
 	@Override
 	public Question save(Question question) {
+		WritableTemplate template = writableTemplate(question.sessionId());
+		Long id;
 		if (question.id() == null) {
 			// Insert new question
-			Long id = jdbcTemplate.queryForObject(
-					"INSERT INTO questions (text, type, order_index, session_id) VALUES (?, ?, ?, ?) RETURNING id",
-					Long.class, question.text(), question.type().name(), question.orderIndex(), question.sessionId());
-			return new Question(id, question.text(), question.type(), question.orderIndex(), question.sessionId());
+			id = jdbcTemplate.queryForObject(
+					"INSERT INTO questions (text, type, order_index, template_id) VALUES (?, ?, ?, ?) RETURNING id",
+					Long.class, question.text(), question.type().name(), question.orderIndex(), template.id());
 		} else {
 			// Update existing question
-			jdbcTemplate.update("UPDATE questions SET text = ?, type = ?, order_index = ?, session_id = ? WHERE id = ?",
-					question.text(), question.type().name(), question.orderIndex(), question.sessionId(),
-					question.id());
-			return question;
+			id = template.questionId(question.id());
+			jdbcTemplate.update(
+					"UPDATE questions SET text = ?, type = ?, order_index = ? WHERE id = ? AND template_id = ?",
+					question.text(), question.type().name(), question.orderIndex(), id, template.id());
 		}
+		questionCache.invalidate(question.sessionId());
+		return new Question(id, question.text(), question.type(), question.orderIndex(), question.sessionId());
 	}
 
 	@Override
@@ -62,25 +121,195 @@ public class PostgresQuestionRepository implements QuestionRepository {
 			return Collections.emptyList();
 		}
 
-		String placeholders = IntStream.range(0, questions.size()).mapToObj(i -> "(?, ?, ?, ?)")
-				.collect(Collectors.joining(", "));
-		String sql = "INSERT INTO questions (text, type, order_index, session_id) VALUES " + placeholders
-				+ " RETURNING id";
+		Map<Long, Long> templateIds = new HashMap<>();
+		for (Question q : questions) {
+			templateIds.computeIfAbsent(q.sessionId(), sessionId -> writableTemplate(sessionId).id());
+		}
 
-		List<Object> params = questions.stream()
-				.flatMap(q -> Stream.of(q.text(), q.type().name(), q.orderIndex(), q.sessionId()))
-				.collect(Collectors.toList());
+		// One statement text for any batch size, with 4 array parameters.
+		String[] texts = new String[questions.size()];
+		String[] types = new String[questions.size()];
+		int[] orderIndexes = new int[questions.size()];
+		long[] questionTemplateIds = new long[questions.size()];
+		for (int i = 0; i < questions.size(); i++) {
+			Question q = questions.get(i);
+			texts[i] = q.text();
+			types[i] = q.type().name();
+			orderIndexes[i] = q.orderIndex();
+			questionTemplateIds[i] = templateIds.get(q.sessionId());
+		}
+		String sql = """
+				INSERT INTO questions (text, type, order_index, template_id)
+				SELECT text, type, order_index, template_id
+				FROM unnest(?::text[], ?::text[], ?::integer[], ?::bigint[])
+				    WITH ORDINALITY AS t(text, type, order_index, template_id, ord)
+				ORDER BY ord
+				RETURNING id
+				""";
 
-		return jdbcTemplate.query(sql, (rs, rowNum) -> rs.getLong("id"), params.toArray());
+		List<Long> ids = jdbcTemplate.query(sql, ps -> {
+			ps.setObject(1, texts);
+			ps.setObject(2, types);
+			ps.setObject(3, orderIndexes);
+			ps.setObject(4, questionTemplateIds);
+		}, (rs, rowNum) -> rs.getLong("id"));
+		templateIds.keySet().forEach(questionCache::invalidate);
+		return ids;
 	}
 
+	/**
+	 * Applies changes of session questions in one statement.
+	 *
+	 * @param sessionId
+	 *            Session of the questions
+	 * @param updated
+	 *            Questions to update by ID
+	 * @param inserted
+	 *            Questions to insert
+	 * @param deletedIds
+	 *            IDs of questions to delete, with their answers
+	 */
+	@Override
+	public void applyChanges(Long sessionId, List<Question> updated, List<Question> inserted, List<Long> deletedIds) {
+		if (updated.isEmpty() && inserted.isEmpty() && deletedIds.isEmpty()) {
+			return;
+		}
+		WritableTemplate template = writableTemplate(sessionId);
+		long[] deleted = deletedIds.stream().mapToLong(template::questionId).toArray();
+		long[] updatedIds = updated.stream().mapToLong(q -> template.questionId(q.id())).toArray();
+		String[] updatedTexts = updated.stream().map(Question::text).toArray(String[]::new);
+		String[] updatedTypes = updated.stream().map(q -> q.type().name()).toArray(String[]::new);
+		int[] updatedOrderIndexes = updated.stream().mapToInt(Question::orderIndex).toArray();
+		String[] insertedTexts = inserted.stream().map(Question::text).toArray(String[]::new);
+		String[] insertedTypes = inserted.stream().map(q -> q.type().name()).toArray(String[]::new);
+		int[] insertedOrderIndexes = inserted.stream().mapToInt(Question::orderIndex).toArray();
+		// One statement text for any number of changes, empty arrays change nothing.
+		String sql = """
+				WITH deleted AS (
+				    DELETE FROM questions WHERE template_id = ? AND id = ANY(?::bigint[])
+				), updated AS (
+				    UPDATE questions q SET text = v.text, type = v.type, order_index = v.order_index
+				    FROM unnest(?::bigint[], ?::text[], ?::text[], ?::integer[]) AS v(id, text, type, order_index)
+				    WHERE q.id = v.id AND q.template_id = ?
+				)
+				INSERT INTO questions (text, type, order_index, template_id)
+				SELECT text, type, order_index, ?::bigint
+				FROM unnest(?::text[], ?::text[], ?::integer[]) AS t(text, type, order_index)
+				""";
+		jdbcTemplate.update(sql, ps -> {
+			ps.setLong(1, template.id());
+			ps.setObject(2, deleted);
+			ps.setObject(3, updatedIds);
+			ps.setObject(4, updatedTexts);
+			ps.setObject(5, updatedTypes);
+			ps.setObject(6, updatedOrderIndexes);
+			ps.setLong(7, template.id());
+			ps.setLong(8, template.id());
+			ps.setObject(9, insertedTexts);
+			ps.setObject(10, insertedTypes);
+			ps.setObject(11, insertedOrderIndexes);
+		});
+		questionCache.invalidate(sessionId);
+	}
+
+	/**
+	 * Deletes questions of the session with answers to them. A template shared
+	 * with other sessions is kept for them.
+	 *
+	 * @param sessionId
+	 *            Session ID
+	 */
 	@Override
 	public void deleteBySessionId(Long sessionId) {
-		jdbcTemplate.update("DELETE FROM questions WHERE session_id = ?", sessionId);
+		TemplateLink link = templateLink(sessionId);
+		if (link.templateId() != null) {
+			if (!link.isShared()) {
+				jdbcTemplate.update("DELETE FROM question_templates WHERE id = ?", link.templateId());
+			} else {
+				jdbcTemplate.update("UPDATE sessions SET template_id = NULL WHERE id = ?", sessionId);
+				jdbcTemplate.update("DELETE FROM journals WHERE session_id = ?", sessionId);
+			}
+		}
+		questionCache.invalidate(sessionId);
 	}
 
 	@Override
 	public void deleteAll() {
-		jdbcTemplate.update("DELETE FROM questions");
+		jdbcTemplate.update("DELETE FROM question_templates");
+		questionCache.clear();
+	}
+
+	/**
+	 * Returns template of the session which may be changed: creates it if the
+	 * session has none, copies it if it is shared with other sessions. Answers
+	 * given in the session are moved to the copied questions.
+	 */
+	private WritableTemplate writableTemplate(Long sessionId) {
+		TemplateLink link = templateLink(sessionId);
+		Long templateId = link.templateId();
+		if (templateId != null && !link.isShared()) {
+			return new WritableTemplate(templateId, Map.of());
+		}
+
+		Long newTemplateId = jdbcTemplate.queryForObject("""
+				WITH template AS (
+				    INSERT INTO question_templates DEFAULT VALUES RETURNING id
+				)
+				UPDATE sessions SET template_id = (SELECT id FROM template) WHERE id = ?
+				RETURNING template_id
+				""", Long.class, sessionId);
+		if (templateId == null) {
+			return new WritableTemplate(newTemplateId, Map.of());
+		}
+
+		List<Question> stored = jdbcTemplate.query(
+				"SELECT id, text, type, order_index, ?::bigint AS session_id FROM questions "
+						+ "WHERE template_id = ? ORDER BY order_index, id",
+				QUESTION_ROW_MAPPER, sessionId, templateId);
+		if (stored.isEmpty()) {
+			return new WritableTemplate(newTemplateId, Map.of());
+		}
+		String[] texts = stored.stream().map(Question::text).toArray(String[]::new);
+		String[] types = stored.stream().map(q -> q.type().name()).toArray(String[]::new);
+		int[] orderIndexes = stored.stream().mapToInt(Question::orderIndex).toArray();
+		List<Long> copiedIds = jdbcTemplate.query("""
+				INSERT INTO questions (text, type, order_index, template_id)
+				SELECT text, type, order_index, ?::bigint
+				FROM unnest(?::text[], ?::text[], ?::integer[]) WITH ORDINALITY AS t(text, type, order_index, ord)
+				ORDER BY ord
+				RETURNING id
+				""", ps -> {
+			ps.setLong(1, newTemplateId);
+			ps.setObject(2, texts);
+			ps.setObject(3, types);
+			ps.setObject(4, orderIndexes);
+		}, (rs, rowNum) -> rs.getLong("id"));
+
+		Map<Long, Long> copies = new HashMap<>();
+		long[] oldIds = new long[stored.size()];
+		long[] newIds = new long[stored.size()];
+		for (int i = 0; i < stored.size(); i++) {
+			copies.put(stored.get(i).id(), copiedIds.get(i));
+			oldIds[i] = stored.get(i).id();
+			newIds[i] = copiedIds.get(i);
+		}
+		jdbcTemplate.update("""
+				UPDATE journals j SET question_id = m.new_id
+				FROM unnest(?::bigint[], ?::bigint[]) AS m(old_id, new_id)
+				WHERE j.question_id = m.old_id AND j.session_id = ?
+				""", ps -> {
+			ps.setObject(1, oldIds);
+			ps.setObject(2, newIds);
+			ps.setLong(3, sessionId);
+		});
+		return new WritableTemplate(newTemplateId, copies);
+	}
+
+	private TemplateLink templateLink(Long sessionId) {
+		return jdbcTemplate.queryForObject("SELECT s.template_id, "
+				+ "(SELECT COUNT(*) FROM sessions o WHERE o.template_id = s.template_id) AS sessions "
+				+ "FROM sessions s WHERE s.id = ?",
+				(rs, rowNum) -> new TemplateLink(rs.getObject("template_id", Long.class), rs.getLong("sessions")),
+				sessionId);
 	}
 }
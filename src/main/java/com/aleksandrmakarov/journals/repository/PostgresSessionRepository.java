@@ -3,6 +3,7 @@ package com.aleksandrmakarov.journals.repository;
 import com.aleksandrmakarov.journals.model.Session;
 import com.aleksandrmakarov.journals.util.TimestampUtils;
 import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import lombok.RequiredArgsConstructor;
@@ -19,6 +20,8 @@ import org.springframework.stereotype.Repository;
 public class PostgresSessionRepository implements SessionRepository {
 
 	private final JdbcTemplate jdbcTemplate;
+	private final ActiveSessionCache activeSessionCache;
+	private final QuestionCache questionCache;
 
 	private RowMapper<Session> sessionRowMapper;
 
@@ -39,9 +42,11 @@ public class PostgresSessionRepository implements SessionRepository {
 	 * @return Optional containing the active session if found, empty otherwise
 	 */
 	public Optional<Session> findActiveSession() {
-		List<Session> sessions = jdbcTemplate.query("SELECT * FROM sessions WHERE finished_at IS NULL",
-				sessionRowMapper);
-		return sessions.stream().findFirst();
+		return activeSessionCache.get(() -> {
+			List<Session> sessions = jdbcTemplate.query("SELECT * FROM sessions WHERE finished_at IS NULL",
+					sessionRowMapper);
+			return sessions.stream().findFirst();
+		});
 	}
 
 	/**
@@ -59,6 +64,7 @@ public class PostgresSessionRepository implements SessionRepository {
 					"INSERT INTO sessions (name, created_at, finished_at) VALUES (?, ?, ?) RETURNING id", Long.class,
 					session.name(), TimestampUtils.toTimestamp(session.createdAt()),
 					session.finishedAt() != null ? TimestampUtils.toTimestamp(session.finishedAt()) : null);
+			sessionsChanged();
 			return new Session(id, session.name(), session.createdAt(), session.finishedAt());
 		} else {
 			// Update existing session
@@ -66,16 +72,71 @@ public class PostgresSessionRepository implements SessionRepository {
 					session.name(), TimestampUtils.toTimestamp(session.createdAt()),
 					session.finishedAt() != null ? TimestampUtils.toTimestamp(session.finishedAt()) : null,
 					session.id());
+			sessionsChanged();
 			return session;
 		}
 	}
 
+	/**
+	 * Checks that the session is active and keeps it so until the transaction
+	 * ends: the row is locked, so finishing the session waits for the commit.
+	 *
+	 * @param sessionId
+	 *            Session ID
+	 * @return True if the session is active
+	 */
+	public boolean lockIfActive(Long sessionId) {
+		return !jdbcTemplate.queryForList("SELECT id FROM sessions WHERE id = ? AND finished_at IS NULL FOR SHARE",
+				Long.class, sessionId).isEmpty();
+	}
+
 	/**
 	 * Finishes all active sessions by setting finished_at timestamp. Used when
 	 * creating a new active session.
 	 */
 	public void finishAllActiveSessions() {
-		jdbcTemplate.update("UPDATE sessions SET finished_at = CURRENT_TIMESTAMP WHERE finished_at IS NULL");
+		if (jdbcTemplate.update("UPDATE sessions SET finished_at = CURRENT_TIMESTAMP WHERE finished_at IS NULL") > 0) {
+			sessionsChanged();
+		}
+	}
+
+	/**
+	 * Finishes active sessions and creates a new active session sharing the
+	 * question template of the latest previous session, in one statement. The
+	 * previous session is found by index and questions aren't copied, so the cost
+	 * doesn't depend on the number of sessions or questions.
+	 *
+	 * @param name
+	 *            Name of the new session
+	 * @param createdAt
+	 *            Creation time of the new session
+	 * @return The created session
+	 */
+	public Session rollover(String name, LocalDateTime createdAt) {
+		// Sub-statements see the snapshot before the update, so sessions finished here
+		// are taken from `finished` and the rest of finished ones from the table.
+		String sql = """
+				WITH finished AS (
+				    UPDATE sessions SET finished_at = CURRENT_TIMESTAMP WHERE finished_at IS NULL
+				    RETURNING created_at, template_id
+				), previous AS (
+				    SELECT template_id FROM (
+				        SELECT created_at, template_id FROM finished
+				        UNION ALL
+				        (SELECT created_at, template_id FROM sessions WHERE finished_at IS NOT NULL
+				         ORDER BY created_at DESC LIMIT 1)
+				    ) candidates
+				    ORDER BY created_at DESC LIMIT 1
+				)
+				INSERT INTO sessions (name, created_at, template_id)
+				VALUES (?, ?, (SELECT template_id FROM previous))
+				RETURNING id, name, created_at, finished_at
+				""";
+		Session session = jdbcTemplate.queryForObject(sql, sessionRowMapper, name,
+				TimestampUtils.toTimestamp(createdAt));
+		sessionsChanged();
+		questionCache.invalidate(session.id());
+		return session;
 	}
 
 	/**
@@ -101,5 +162,12 @@ public class PostgresSessionRepository implements SessionRepository {
 	/** Deletes all sessions from the database. Used primarily for testing. */
 	public void deleteAll() {
 		jdbcTemplate.update("DELETE FROM sessions");
+		sessionsChanged();
+	}
+
+	/** Invalidates the cached active session here and on other instances. */
+	private void sessionsChanged() {
+		activeSessionCache.invalidate();
+		jdbcTemplate.execute(activeSessionCache.notifyStatement());
 	}
 }
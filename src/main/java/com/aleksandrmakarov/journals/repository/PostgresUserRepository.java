@@ -1,6 +1,11 @@
 package com.aleksandrmakarov.journals.repository;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,20 +17,48 @@ import com.aleksandrmakarov.journals.model.Participant;
 import com.aleksandrmakarov.journals.model.StateType;
 import com.aleksandrmakarov.journals.model.User;
 import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.model.UserState;
 import com.aleksandrmakarov.journals.util.TimestampUtils;
 
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 
-/** Repository for managing User entities in the database. */
+/**
+ * Repository for managing User entities in the database. Lookups by Telegram ID
+ * go through {@link UserCache}, which is kept in sync by the methods below, as
+ * well as {@link RoleDirectory}.
+ *
+ * Conversation state is stored in the narrow `user_state` table, so frequent
+ * state changes don't rewrite user rows. It is joined only by queries which
+ * return users to work with, lists of users are returned without state.
+ */
 @Repository
 @RequiredArgsConstructor
 public class PostgresUserRepository implements UserRepository {
 
 	private final JdbcTemplate jdbcTemplate;
 
+	private final UserCache userCache;
+
+	private final RoleDirectory roleDirectory;
+
+	private static final String USER_COLUMNS = "u.id, u.telegram_id, u.username, u.first_name, u.last_name, u.role, u.created_at";
+
+	private static final String RETURNING_USER_COLUMNS = " RETURNING id, telegram_id, username, first_name, last_name, role, created_at";
+
+	/** Selects users from `u` (table or CTE) with their state. */
+	private static final String SELECT_WITH_STATE = "SELECT " + USER_COLUMNS + ", s.type AS state_type, "
+			+ "s.session_id AS state_session_id, s.question_index AS state_question_index, "
+			+ "s.updated_at AS state_updated_at, s.payload AS state_payload FROM ";
+
+	/** Users with their state, add WHERE with conditions on `u` or `s`. */
+	private static final String SELECT_USERS = SELECT_WITH_STATE
+			+ "users u LEFT JOIN user_state s ON s.user_id = u.id ";
+
 	private RowMapper<User> userRowMapper;
 
+	private RowMapper<User> userWithoutStateRowMapper;
+
 	private RowMapper<Participant> participantRowMapper;
 
 	@PostConstruct
@@ -40,8 +73,13 @@ public class PostgresUserRepository implements UserRepository {
 					TimestampUtils.fromTimestamp(rs.getTimestamp("state_updated_at")),
 					rs.getString("state_payload") != null ? rs.getString("state_payload") : null);
 		};
+		this.userWithoutStateRowMapper = (rs, rowNum) -> {
+			return new User(rs.getLong("id"), rs.getLong("telegram_id"), rs.getString("username"),
+					rs.getString("first_name"), rs.getString("last_name"), UserRole.valueOf(rs.getString("role")),
+					TimestampUtils.fromTimestamp(rs.getTimestamp("created_at")), null, null, 0, null, null);
+		};
 		this.participantRowMapper = (rs, rowNum) -> {
-			return new Participant(userRowMapper.mapRow(rs, rowNum), rs.getInt("session_count"));
+			return new Participant(userWithoutStateRowMapper.mapRow(rs, rowNum), rs.getInt("session_count"));
 		};
 	}
 
@@ -62,10 +100,92 @@ public class PostgresUserRepository implements UserRepository {
 	 * @return Optional containing the user if found, empty otherwise
 	 */
 	public Optional<User> findByTelegramId(Long telegramId) {
-		List<User> users = jdbcTemplate.query("SELECT * FROM users WHERE telegram_id = ?", userRowMapper, telegramId);
+		User cached = userCache.get(telegramId);
+		if (cached != null) {
+			return Optional.of(cached);
+		}
+		List<User> users = jdbcTemplate.query(SELECT_USERS + "WHERE u.telegram_id = ?", userRowMapper, telegramId);
+		users.forEach(userCache::put);
 		return users.stream().findFirst();
 	}
 
+	/**
+	 * Finds users by their Telegram IDs with one query.
+	 *
+	 * @param telegramIds
+	 *            The Telegram user IDs to search for
+	 * @return Found users in arbitrary order
+	 */
+	public List<User> findAllByTelegramIds(Collection<Long> telegramIds) {
+		List<User> users = new ArrayList<>(telegramIds.size());
+		List<Long> missing = new ArrayList<>();
+		for (Long telegramId : telegramIds) {
+			User cached = userCache.get(telegramId);
+			if (cached != null) {
+				users.add(cached);
+			} else {
+				missing.add(telegramId);
+			}
+		}
+		if (!missing.isEmpty()) {
+			List<User> loaded = jdbcTemplate.query(SELECT_USERS + "WHERE u.telegram_id = ANY(?)",
+					ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", missing.toArray())),
+					userRowMapper);
+			loaded.forEach(userCache::put);
+			users.addAll(loaded);
+		}
+		return users;
+	}
+
+	/**
+	 * Creates the user or updates their profile in one statement. Profile fields
+	 * which are {@code null} are kept. Row isn't written if nothing changes, so
+	 * repeated updates from the same user don't produce dead tuples and WAL.
+	 *
+	 * @param user
+	 *            User with Telegram ID, profile, role and creation time
+	 * @param isUpdateRole
+	 *            Whether to set role of an existing user, otherwise role is used
+	 *            only for a new user
+	 * @return The user as stored in DB
+	 */
+	public User upsertByTelegramId(User user, boolean isUpdateRole) {
+		User cached = userCache.get(user.telegramId());
+		if (cached != null && !isProfileChanged(cached, user, isUpdateRole)) {
+			return cached;
+		}
+		String role = isUpdateRole ? "EXCLUDED.role" : "users.role";
+		List<User> users = jdbcTemplate.query("WITH upserted AS ("
+				+ "INSERT INTO users (telegram_id, username, first_name, last_name, role, created_at) "
+				+ "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (telegram_id) DO UPDATE SET "
+				+ "username = COALESCE(EXCLUDED.username, users.username), "
+				+ "first_name = COALESCE(EXCLUDED.first_name, users.first_name), "
+				+ "last_name = COALESCE(EXCLUDED.last_name, users.last_name), role = " + role + " "
+				+ "WHERE (users.username, users.first_name, users.last_name, users.role) IS DISTINCT FROM "
+				+ "(COALESCE(EXCLUDED.username, users.username), COALESCE(EXCLUDED.first_name, users.first_name), "
+				+ "COALESCE(EXCLUDED.last_name, users.last_name), " + role + ")" + RETURNING_USER_COLUMNS + "), "
+				+ "u AS (SELECT * FROM upserted UNION ALL SELECT id, telegram_id, username, first_name, last_name, role, created_at "
+				+ "FROM users WHERE telegram_id = ? AND NOT EXISTS (SELECT 1 FROM upserted)) "
+				+ SELECT_WITH_STATE + "u LEFT JOIN user_state s ON s.user_id = u.id", userRowMapper,
+				user.telegramId(), user.username(), user.firstName(), user.lastName(), user.role().name(),
+				TimestampUtils.toTimestamp(user.createdAt()), user.telegramId());
+		if (users.isEmpty()) {
+			// Conflicting row was inserted concurrently after the statement snapshot.
+			users = jdbcTemplate.query(SELECT_USERS + "WHERE u.telegram_id = ?", userRowMapper, user.telegramId());
+		}
+		User saved = users.get(0);
+		userCache.put(saved);
+		roleDirectory.update(saved);
+		return saved;
+	}
+
+	private static boolean isProfileChanged(User existing, User user, boolean isUpdateRole) {
+		return user.username() != null && !user.username().equals(existing.username())
+				|| user.firstName() != null && !user.firstName().equals(existing.firstName())
+				|| user.lastName() != null && !user.lastName().equals(existing.lastName())
+				|| isUpdateRole && user.role() != existing.role();
+	}
+
 	/**
 	 * Finds a user by their username.
 	 *
@@ -74,7 +194,7 @@ public class PostgresUserRepository implements UserRepository {
 	 * @return Optional containing the user if found, empty otherwise
 	 */
 	public Optional<User> findByUsername(String username) {
-		List<User> users = jdbcTemplate.query("SELECT * FROM users WHERE username = ?", userRowMapper, username);
+		List<User> users = jdbcTemplate.query(SELECT_USERS + "WHERE u.username = ?", userRowMapper, username);
 		return users.stream().findFirst();
 	}
 
@@ -83,62 +203,137 @@ public class PostgresUserRepository implements UserRepository {
 	 *
 	 * @param role
 	 *            The role to search for
-	 * @return List of users with the given role
+	 * @return List of users with the given role, without state
 	 */
 	public List<User> findAllByRole(UserRole role) {
-		return jdbcTemplate.query("SELECT * FROM users WHERE role = ?", userRowMapper, role.name());
+		return jdbcTemplate.query("SELECT " + USER_COLUMNS + " FROM users u WHERE u.role = ?",
+				userWithoutStateRowMapper, role.name());
 	}
 
 	/** Sets the single state for user, overwriting any existing one. */
 	public void upsertState(Long userId, StateType stateType, Long sessionId, Integer questionIndex) {
-		jdbcTemplate.update(
-				"UPDATE users SET state_type = ?, state_session_id = ?, state_question_index = ?, state_updated_at = CURRENT_TIMESTAMP, state_payload = NULL WHERE id = ?",
-				stateType != null ? stateType.name() : null, sessionId, questionIndex, userId);
+		upsertStateWithPayload(userId, stateType, sessionId, questionIndex, null);
 	}
 
 	/** Sets user state with payload. */
 	public void upsertStateWithPayload(Long userId, StateType stateType, Long sessionId, Integer questionIndex,
 			String payload) {
 		jdbcTemplate.update(
-				"UPDATE users SET state_type = ?, state_session_id = ?, state_question_index = ?, state_updated_at = CURRENT_TIMESTAMP, state_payload = ? WHERE id = ?",
-				stateType != null ? stateType.name() : null, sessionId, questionIndex, payload, userId);
+				"INSERT INTO user_state (user_id, type, session_id, question_index, updated_at, payload) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP, ?) "
+						+ "ON CONFLICT (user_id) DO UPDATE SET type = EXCLUDED.type, session_id = EXCLUDED.session_id, "
+						+ "question_index = EXCLUDED.question_index, updated_at = EXCLUDED.updated_at, payload = EXCLUDED.payload",
+				userId, stateType != null ? stateType.name() : null, sessionId, questionIndex, payload);
+		userCache.invalidate(userId);
 	}
 
 	/** Clears any state for user. */
 	public void clearState(Long userId, boolean isClearQuestionIndex) {
 		if (isClearQuestionIndex) {
 			jdbcTemplate.update(
-					"UPDATE users SET state_type = NULL, state_session_id = NULL, state_question_index = 0, state_updated_at = NULL, state_payload = NULL WHERE id = ?",
+					"UPDATE user_state SET type = NULL, session_id = NULL, question_index = 0, updated_at = NULL, payload = NULL WHERE user_id = ?",
 					userId);
 		} else {
 			jdbcTemplate.update(
-					"UPDATE users SET state_type = NULL, state_session_id = NULL, state_updated_at = NULL, state_payload = NULL WHERE id = ?",
+					"UPDATE user_state SET type = NULL, session_id = NULL, updated_at = NULL, payload = NULL WHERE user_id = ?",
 					userId);
 		}
+		userCache.invalidate(userId);
+	}
+
+	/**
+	 * Writes states of several users with one statement.
+	 *
+	 * @param states
+	 *            States to write, one per user
+	 */
+	public void updateStates(List<UserState> states) {
+		// State with question index replaces the row, without it keeps the stored
+		// index (and there is nothing to keep or clear if there is no row).
+		List<UserState> replaced = states.stream().filter(state -> state.questionIndex() != null).toList();
+		List<UserState> kept = states.stream().filter(state -> state.questionIndex() == null).toList();
+		if (!replaced.isEmpty()) {
+			jdbcTemplate.update("INSERT INTO user_state (user_id, type, session_id, question_index, updated_at, payload) "
+					+ statesValues(replaced) + " ON CONFLICT (user_id) DO UPDATE SET type = EXCLUDED.type, session_id = EXCLUDED.session_id, "
+					+ "question_index = EXCLUDED.question_index, updated_at = EXCLUDED.updated_at, payload = EXCLUDED.payload",
+					ps -> bindStates(ps, replaced));
+		}
+		if (!kept.isEmpty()) {
+			jdbcTemplate.update("UPDATE user_state st SET type = s.type, session_id = s.session_id, "
+					+ "updated_at = s.updated_at, payload = s.payload FROM (" + statesValues(kept)
+					+ ") AS s(user_id, type, session_id, question_index, updated_at, payload) WHERE st.user_id = s.user_id",
+					ps -> bindStates(ps, kept));
+		}
+		states.forEach(state -> userCache.invalidate(state.userId()));
+	}
+
+	private static String statesValues(List<UserState> states) {
+		StringBuilder sql = new StringBuilder("VALUES ");
+		String sep = "";
+		for (int i = 0; i < states.size(); i++) {
+			sql.append(sep).append("(?::bigint, ?::text, ?::bigint, ?::integer, ?::timestamp, ?::text)");
+			sep = ", ";
+		}
+		return sql.toString();
+	}
+
+	private static void bindStates(PreparedStatement ps, List<UserState> states) throws SQLException {
+		int index = 1;
+		for (UserState state : states) {
+			ps.setLong(index++, state.userId());
+			ps.setObject(index++, state.stateType() != null ? state.stateType().name() : null, Types.VARCHAR);
+			ps.setObject(index++, state.sessionId(), Types.BIGINT);
+			ps.setObject(index++, state.questionIndex(), Types.INTEGER);
+			ps.setTimestamp(index++, TimestampUtils.toTimestamp(state.updatedAt()));
+			ps.setObject(index++, state.payload(), Types.VARCHAR);
+		}
+	}
+
+	/**
+	 * Finds all users in the given state.
+	 *
+	 * @param stateType
+	 *            State to search for
+	 * @return List of users in the state
+	 */
+	public List<User> findAllByStateType(StateType stateType) {
+		return jdbcTemplate.query(SELECT_USERS + "WHERE s.type = ?", userRowMapper, stateType.name());
 	}
 
 	/**
 	 * Saves a user to the database. If the user has no ID, creates a new record.
-	 * Otherwise, updates existing record.
+	 * Otherwise, updates existing record. State fields are not saved, use state
+	 * methods for them.
 	 *
 	 * @param user
 	 *            The user to save
-	 * @return The saved user with generated ID if new
+	 * @return The saved user with generated ID if new, or as stored in DB if
+	 *         updated
 	 */
 	public User save(User user) {
 		if (user.id() == null) {
 			// Insert new user
 			Long id = jdbcTemplate.queryForObject(
-					"INSERT INTO users (telegram_id, username, first_name, last_name, role, created_at, state_question_index) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING id",
+					"INSERT INTO users (telegram_id, username, first_name, last_name, role, created_at) VALUES (?, ?, ?, ?, ?, ?) RETURNING id",
 					Long.class, user.telegramId(), user.username(), user.firstName(), user.lastName(),
-					user.role().name(), TimestampUtils.toTimestamp(user.createdAt()), 0);
-			return new User(id, user.telegramId(), user.username(), user.firstName(), user.lastName(), user.role(),
-					user.createdAt(), null, null, user.stateQuestionIndex(), null, null);
+					user.role().name(), TimestampUtils.toTimestamp(user.createdAt()));
+			User saved = new User(id, user.telegramId(), user.username(), user.firstName(), user.lastName(),
+					user.role(), user.createdAt(), null, null, user.stateQuestionIndex(), null, null);
+			userCache.put(saved);
+			roleDirectory.update(saved);
+			return saved;
 		} else {
-			// Update existing user
-			jdbcTemplate.update("UPDATE users SET username = ?, first_name = ?, last_name = ?, role = ? WHERE id = ?",
-					user.username(), user.firstName(), user.lastName(), user.role().name(), user.id());
-			return user;
+			// Update existing user, returning the row to cache it with the actual state.
+			List<User> saved = jdbcTemplate.query(
+					"WITH u AS (UPDATE users SET username = ?, first_name = ?, last_name = ?, role = ? WHERE id = ?"
+							+ RETURNING_USER_COLUMNS + ") " + SELECT_WITH_STATE
+							+ "u LEFT JOIN user_state s ON s.user_id = u.id",
+					userRowMapper, user.username(), user.firstName(), user.lastName(), user.role().name(), user.id());
+			if (saved.isEmpty()) {
+				return user;
+			}
+			userCache.put(saved.get(0));
+			roleDirectory.update(saved.get(0));
+			return saved.get(0);
 		}
 	}
 
@@ -149,7 +344,7 @@ public class PostgresUserRepository implements UserRepository {
 	 * @return List of participants sorted by last journal date (most recent first).
 	 */
 	public List<Participant> findParticipantsOrderedByLastJournal() {
-		return jdbcTemplate.query("SELECT u.*, COUNT(DISTINCT j.session_id) as session_count FROM users u "
+		return jdbcTemplate.query("SELECT " + USER_COLUMNS + ", COUNT(DISTINCT j.session_id) as session_count FROM users u "
 				+ "LEFT JOIN journals j ON u.id = j.user_id " + "LEFT JOIN sessions s ON j.session_id = s.id "
 				+ "GROUP BY u.id " + "ORDER BY MAX(s.created_at) DESC NULLS LAST", participantRowMapper);
 	}
@@ -167,5 +362,7 @@ public class PostgresUserRepository implements UserRepository {
 	/** Deletes all users from the database. Used primarily for testing. */
 	public void deleteAll() {
 		jdbcTemplate.update("DELETE FROM users");
+		userCache.clear();
+		roleDirectory.clear();
 	}
 }
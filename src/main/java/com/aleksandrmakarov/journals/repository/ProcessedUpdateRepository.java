@@ -0,0 +1,15 @@
+package com.aleksandrmakarov.journals.repository;
+
+/** Repository of processed Telegram update IDs, shared by all bot instances. */
+public interface ProcessedUpdateRepository {
+
+	boolean claim(long updateId);
+
+	void release(long updateId);
+
+	long findHighWaterMark();
+
+	void deleteOlderThan(long updateId);
+
+	void deleteNewerThan(long updateId);
+}
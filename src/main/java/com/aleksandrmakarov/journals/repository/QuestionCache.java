@@ -0,0 +1,140 @@
+package com.aleksandrmakarov.journals.repository;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.service.StatsProvider;
+
+/**
+ * In-process cache of immutable question lists by session ID. Questions change
+ * only by admin commands, while the list is needed on every step of the
+ * question flow. Each session has a version which is bumped by changes made by
+ * {@link PostgresQuestionRepository}, a list loaded while the version changed
+ * isn't cached. Changes made inside a transaction are invalidated once more
+ * after it completes.
+ */
+@Component
+public class QuestionCache implements StatsProvider {
+
+	// Only a few recent sessions are read, drop everything if there are more.
+	private static final int MAX_SESSIONS = 64;
+
+	@Value("${telegram.bot.question-cache.enabled:true}")
+	private boolean isEnabled;
+
+	private record Entry(long epoch, long version, List<Question> questions) {
+	}
+
+	private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+	private final Map<Long, Long> versions = new ConcurrentHashMap<>();
+	private final AtomicLong nextVersion = new AtomicLong();
+	// Bumped when all questions are dropped, including sessions not cached yet.
+	private final AtomicLong epoch = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Returns cached questions of the session or loads them.
+	 *
+	 * @param sessionId
+	 *            Session ID
+	 * @param loader
+	 *            Loads questions of the session ordered by index
+	 * @return Immutable list of questions
+	 */
+	public List<Question> get(Long sessionId, Supplier<List<Question>> loader) {
+		if (!isEnabled || sessionId == null) {
+			return loader.get();
+		}
+		long currentEpoch = epoch.get();
+		long version = versions.getOrDefault(sessionId, 0L);
+		Entry entry = entries.get(sessionId);
+		if (entry != null && entry.epoch() == currentEpoch && entry.version() == version) {
+			hits.incrementAndGet();
+			return entry.questions();
+		}
+		misses.incrementAndGet();
+		List<Question> questions = List.copyOf(loader.get());
+		if (entries.size() >= MAX_SESSIONS) {
+			entries.clear();
+		}
+		entries.put(sessionId, new Entry(currentEpoch, version, questions));
+		// Changed while loading, the loaded list may be stale.
+		if (epoch.get() != currentEpoch || versions.getOrDefault(sessionId, 0L) != version) {
+			entries.remove(sessionId);
+		}
+		return questions;
+	}
+
+	/**
+	 * Drops cached questions of the session.
+	 *
+	 * @param sessionId
+	 *            Session ID
+	 */
+	public void invalidate(Long sessionId) {
+		if (sessionId == null) {
+			return;
+		}
+		bump(sessionId);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					bump(sessionId);
+				}
+			});
+		}
+	}
+
+	/** Drops all cached questions. */
+	public void clear() {
+		epoch.incrementAndGet();
+		entries.clear();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					epoch.incrementAndGet();
+					entries.clear();
+				}
+			});
+		}
+	}
+
+	private void bump(Long sessionId) {
+		versions.put(sessionId, nextVersion.incrementAndGet());
+		entries.remove(sessionId);
+		invalidations.incrementAndGet();
+	}
+
+	@Override
+	public String getStatsName() {
+		return "questionCache";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", isEnabled);
+		if (isEnabled) {
+			stats.put("sessions", entries.size());
+			stats.put("hits", hits.get());
+			stats.put("misses", misses.get());
+			stats.put("invalidations", invalidations.get());
+		}
+		return stats;
+	}
+}
@@ -16,6 +16,8 @@ public interface QuestionRepository {
 
 	List<Long> saveBatch(List<Question> questions);
 
+	void applyChanges(Long sessionId, List<Question> updated, List<Question> inserted, List<Long> deletedIds);
+
 	void deleteBySessionId(Long sessionId);
 
 	void deleteAll();
@@ -0,0 +1,195 @@
+package com.aleksandrmakarov.journals.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.service.StatsProvider;
+import com.aleksandrmakarov.journals.util.LongByteHashMap;
+import com.aleksandrmakarov.journals.util.TimestampUtils;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * In-memory directory of users with non-default roles (admins and banned), so
+ * banned users are rejected before any DB work and admins are listed without a
+ * query. Readers use an immutable snapshot, users saved by
+ * {@link PostgresUserRepository} replace it. The directory is reloaded from DB
+ * every `telegram.bot.roles.refresh-seconds` to pick up changes made by other
+ * instances.
+ */
+@Component
+public class RoleDirectory implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(RoleDirectory.class);
+
+	private static final UserRole[] ROLES = UserRole.values();
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Value("${telegram.bot.roles.refresh-seconds:60}")
+	private long refreshSeconds;
+
+	/** Users with non-default roles by Telegram ID, and lookup structures built from them. */
+	private record Snapshot(Map<Long, User> users, LongByteHashMap roles, List<User> admins, long loadedAt) {
+
+		static Snapshot of(Map<Long, User> users, long loadedAt) {
+			LongByteHashMap roles = new LongByteHashMap(users.size());
+			List<User> admins = new ArrayList<>();
+			for (User user : users.values()) {
+				roles.put(user.telegramId(), (byte) user.role().ordinal());
+				if (user.role() == UserRole.ADMIN) {
+					admins.add(user);
+				}
+			}
+			admins.sort(Comparator.comparing(User::id));
+			return new Snapshot(users, roles, List.copyOf(admins), loadedAt);
+		}
+	}
+
+	private volatile Snapshot snapshot;
+
+	@PostConstruct
+	private void load() {
+		reload(null);
+	}
+
+	/**
+	 * Returns role of the user by Telegram ID without DB access.
+	 *
+	 * @param telegramId
+	 *            Telegram user ID
+	 * @return Role, {@link UserRole#PLAYER} for unknown users
+	 */
+	public UserRole getRole(Long telegramId) {
+		if (telegramId == null) {
+			return UserRole.PLAYER;
+		}
+		byte role = current().roles().get(telegramId);
+		return role >= 0 ? ROLES[role] : UserRole.PLAYER;
+	}
+
+	/**
+	 * Whether the user is banned.
+	 *
+	 * @param telegramId
+	 *            Telegram user ID
+	 * @return True if banned
+	 */
+	public boolean isBanned(Long telegramId) {
+		return getRole(telegramId) == UserRole.BANNED;
+	}
+
+	/**
+	 * Returns all admins.
+	 *
+	 * @return Admins ordered by registration
+	 */
+	public List<User> getAdmins() {
+		return current().admins();
+	}
+
+	/**
+	 * Updates the directory after the user was saved, or after commit if saved
+	 * in a transaction.
+	 *
+	 * @param user
+	 *            User as stored in DB
+	 */
+	public void update(User user) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					apply(user);
+				}
+			});
+		} else {
+			apply(user);
+		}
+	}
+
+	private synchronized void apply(User user) {
+		// State isn't kept here, so don't rebuild the snapshot on its changes.
+		user = new User(user.id(), user.telegramId(), user.username(), user.firstName(), user.lastName(), user.role(),
+				user.createdAt(), null, null, 0, null, null);
+		Snapshot current = current();
+		User known = current.users().get(user.telegramId());
+		if (user.role() == UserRole.PLAYER ? known == null : user.equals(known)) {
+			return;
+		}
+		Map<Long, User> users = new HashMap<>(current.users());
+		if (user.role() == UserRole.PLAYER) {
+			users.remove(user.telegramId());
+		} else {
+			users.put(user.telegramId(), user);
+		}
+		snapshot = Snapshot.of(users, current.loadedAt());
+	}
+
+	/** Forgets all users, e.g. after they are deleted. */
+	public synchronized void clear() {
+		snapshot = Snapshot.of(Map.of(), System.nanoTime());
+	}
+
+	private Snapshot current() {
+		Snapshot current = snapshot;
+		if (current == null || System.nanoTime() - current.loadedAt() > refreshSeconds * 1_000_000_000L) {
+			current = reload(current);
+		}
+		return current;
+	}
+
+	private synchronized Snapshot reload(Snapshot stale) {
+		if (snapshot != stale) {
+			// Other thread has reloaded meanwhile.
+			return snapshot;
+		}
+		// Not through UserRepository, which updates this directory. State isn't needed.
+		Map<Long, User> users = new HashMap<>();
+		jdbcTemplate.query(
+				"SELECT id, telegram_id, username, first_name, last_name, role, created_at FROM users WHERE role <> ?",
+				rs -> {
+					User user = new User(rs.getLong("id"), rs.getLong("telegram_id"), rs.getString("username"),
+							rs.getString("first_name"), rs.getString("last_name"),
+							UserRole.valueOf(rs.getString("role")),
+							TimestampUtils.fromTimestamp(rs.getTimestamp("created_at")), null, null, 0, null, null);
+					users.put(user.telegramId(), user);
+				}, UserRole.PLAYER.name());
+		snapshot = Snapshot.of(users, System.nanoTime());
+		logger.debug("Loaded {} users with non-default roles", users.size());
+		return snapshot;
+	}
+
+	@Override
+	public String getStatsName() {
+		return "roles";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		Snapshot current = snapshot;
+		if (current != null) {
+			stats.put("admins", current.admins().size());
+			stats.put("banned", current.users().size() - current.admins().size());
+			stats.put("loadedSecondsAgo", (System.nanoTime() - current.loadedAt()) / 1_000_000_000L);
+		}
+		return stats;
+	}
+}
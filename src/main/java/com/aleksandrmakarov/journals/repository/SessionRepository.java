@@ -1,6 +1,7 @@
 package com.aleksandrmakarov.journals.repository;
 
 import com.aleksandrmakarov.journals.model.Session;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,8 +12,12 @@ public interface SessionRepository {
 
 	Session save(Session session);
 
+	boolean lockIfActive(Long sessionId);
+
 	void finishAllActiveSessions();
 
+	Session rollover(String name, LocalDateTime createdAt);
+
 	long count();
 
 	List<Session> findFinishedSessionsOrderedByCreatedAt();
@@ -0,0 +1,188 @@
+package com.aleksandrmakarov.journals.repository;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.service.StatsProvider;
+import com.aleksandrmakarov.journals.util.TinyLfuCache;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * In-process cache of users by Telegram ID, so identifying the sender of an
+ * update doesn't need a DB round-trip. Bounded by
+ * `telegram.bot.user-cache.size` entries with {@link TinyLfuCache} admission.
+ * Changes made by {@link PostgresUserRepository} are written through or
+ * invalidate the entry. Changes made inside a transaction which is rolled back
+ * are invalidated after the rollback.
+ */
+@Component
+public class UserCache implements StatsProvider {
+
+	@Value("${telegram.bot.user-cache.size:10000}")
+	private int size;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private TinyLfuCache<Long, User> cache;
+	// Telegram ID by DB ID, for changes made by DB ID.
+	private final Map<Long, Long> telegramIds = new HashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+
+	@PostConstruct
+	private void init() {
+		if (size > 0) {
+			cache = new TinyLfuCache<>(size, (telegramId, user) -> {
+				telegramIds.remove(user.id());
+				evictions.incrementAndGet();
+			});
+		}
+	}
+
+	/**
+	 * Returns cached user.
+	 *
+	 * @param telegramId
+	 *            Telegram user ID
+	 * @return User or {@code null} if not cached
+	 */
+	public User get(Long telegramId) {
+		if (cache == null) {
+			return null;
+		}
+		User user;
+		lock.lock();
+		try {
+			user = cache.get(telegramId);
+		} finally {
+			lock.unlock();
+		}
+		(user != null ? hits : misses).incrementAndGet();
+		return user;
+	}
+
+	/**
+	 * Caches the user as stored in DB.
+	 *
+	 * @param user
+	 *            User with ID
+	 */
+	public void put(User user) {
+		if (cache == null) {
+			return;
+		}
+		lock.lock();
+		try {
+			if (cache.put(user.telegramId(), user)) {
+				telegramIds.put(user.id(), user.telegramId());
+			} else {
+				rejections.incrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+		invalidateOnRollback(user.id());
+	}
+
+	/**
+	 * Drops the user after the change of their row. If the change is made in a
+	 * transaction, drops it once more after the transaction completes, in case
+	 * the old row was cached meanwhile.
+	 *
+	 * @param userId
+	 *            DB ID of the user
+	 */
+	public void invalidate(Long userId) {
+		if (cache == null) {
+			return;
+		}
+		remove(userId);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					remove(userId);
+				}
+			});
+		}
+	}
+
+	/** Drops all users, e.g. after they are deleted. */
+	public void clear() {
+		if (cache == null) {
+			return;
+		}
+		lock.lock();
+		try {
+			cache.clear();
+			telegramIds.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void invalidateOnRollback(Long userId) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					if (status != STATUS_COMMITTED) {
+						remove(userId);
+					}
+				}
+			});
+		}
+	}
+
+	private void remove(Long userId) {
+		lock.lock();
+		try {
+			Long telegramId = telegramIds.remove(userId);
+			if (telegramId != null) {
+				cache.remove(telegramId);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String getStatsName() {
+		return "userCache";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", cache != null);
+		if (cache != null) {
+			long hitCount = hits.get();
+			long lookups = hitCount + misses.get();
+			lock.lock();
+			try {
+				stats.put("size", cache.size());
+			} finally {
+				lock.unlock();
+			}
+			stats.put("capacity", cache.capacity());
+			stats.put("hits", hitCount);
+			stats.put("misses", misses.get());
+			stats.put("hitRate", lookups > 0 ? (double) hitCount / lookups : 0.0);
+			stats.put("evictions", evictions.get());
+			stats.put("rejections", rejections.get());
+		}
+		return stats;
+	}
+}
@@ -1,5 +1,6 @@
 package com.aleksandrmakarov.journals.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -7,12 +8,17 @@ import com.aleksandrmakarov.journals.model.Participant;
 import com.aleksandrmakarov.journals.model.StateType;
 import com.aleksandrmakarov.journals.model.User;
 import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.model.UserState;
 
 /** User repository interface. */
 public interface UserRepository {
 
 	Optional<User> findByTelegramId(Long telegramId);
 
+	List<User> findAllByTelegramIds(Collection<Long> telegramIds);
+
+	User upsertByTelegramId(User user, boolean isUpdateRole);
+
 	Optional<User> findByUsername(String username);
 
 	List<User> findAllByRole(UserRole role);
@@ -24,6 +30,10 @@ public interface UserRepository {
 
 	void clearState(Long userId, boolean isClearQuestionIndex);
 
+	void updateStates(List<UserState> states);
+
+	List<User> findAllByStateType(StateType stateType);
+
 	User save(User user);
 
 	List<Participant> findParticipantsOrderedByLastJournal();
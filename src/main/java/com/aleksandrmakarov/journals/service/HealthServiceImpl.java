@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -21,16 +22,18 @@ public class HealthServiceImpl implements HealthService {
 	private final UserRepository userRepository;
 	private final SessionRepository sessionRepository;
 	private final JournalRepository journalRepository;
+	private final ObjectProvider<StatsProvider> statsProviders;
 
 	private final AtomicReference<CachedCounts> cachedCounts = new AtomicReference<>();
 	private static final long CACHE_DURATION_SECONDS = 60;
 
 	@Autowired
 	public HealthServiceImpl(UserRepository userRepository, SessionRepository sessionRepository,
-			JournalRepository journalRepository) {
+			JournalRepository journalRepository, ObjectProvider<StatsProvider> statsProviders) {
 		this.userRepository = userRepository;
 		this.sessionRepository = sessionRepository;
 		this.journalRepository = journalRepository;
+		this.statsProviders = statsProviders;
 	}
 
 	@Override
@@ -46,6 +49,7 @@ public class HealthServiceImpl implements HealthService {
 			response.put("journals", counts.journalCount());
 			response.put("lastUpdated", Instant.ofEpochMilli(counts.lastUpdated()));
 			response.put("timestamp", Instant.now());
+			statsProviders.orderedStream().forEach(p -> response.put(p.getStatsName(), p.getStats()));
 
 			return response;
 		} catch (Exception e) {
@@ -0,0 +1,75 @@
+package com.aleksandrmakarov.journals.service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Command line import of history: runs when `telegram.bot.import.file` is set,
+ * e.g. `java -jar journals.jar --telegram.bot.import.file=history.csv.gz`, and
+ * exits after the import. The format is taken from `telegram.bot.import.format`
+ * or from the file extension (".jsonl"/".ndjson" or CSV), ".gz" files are
+ * decompressed on the fly. The web server, the update poller and the sender
+ * are not started in this mode, see `JournalsApplication`.
+ */
+@Component
+@ConditionalOnProperty(name = "telegram.bot.import.file")
+public class HistoryImportRunner implements ApplicationRunner {
+
+	private static final Logger logger = LoggerFactory.getLogger(HistoryImportRunner.class);
+
+	@Autowired
+	private HistoryImportService importService;
+
+	@Autowired
+	private ConfigurableApplicationContext context;
+
+	@Value("${telegram.bot.import.file}")
+	private Path file;
+
+	@Value("${telegram.bot.import.format:}")
+	private String format;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		int exitCode = 0;
+		String name = file.getFileName().toString().toLowerCase();
+		try (InputStream in = open(name)) {
+			importService.importHistory(in, format(name), file.toString());
+		} catch (Exception e) {
+			logger.error("Import from {} failed: {}", file, e.getMessage(), e);
+			exitCode = 1;
+		}
+		int code = exitCode;
+		System.exit(SpringApplication.exit(context, () -> code));
+	}
+
+	private InputStream open(String name) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+		return name.endsWith(".gz") ? new GZIPInputStream(in, 64 * 1024) : in;
+	}
+
+	private HistoryImportService.Format format(String name) {
+		if (!format.isBlank()) {
+			return HistoryImportService.Format.of(format);
+		}
+		String base = name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name;
+		return base.endsWith(".jsonl") || base.endsWith(".ndjson")
+				? HistoryImportService.Format.JSONL
+				: HistoryImportService.Format.CSV;
+	}
+}
@@ -0,0 +1,205 @@
+package com.aleksandrmakarov.journals.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.aleksandrmakarov.journals.model.ImportResult;
+import com.aleksandrmakarov.journals.repository.HistoryImportRepository;
+
+/**
+ * Imports historical journals from CSV or JSON lines files, see
+ * {@link com.aleksandrmakarov.journals.repository.PostgresHistoryImportRepository}
+ * for the row format. The file is streamed to Postgres, so memory use doesn't
+ * depend on its size. The whole import is one transaction, a failed one leaves
+ * nothing behind, and it times out after `telegram.bot.import.timeout-seconds`. Progress is exposed in stats under "import" and logged.
+ */
+@Service
+public class HistoryImportService implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(HistoryImportService.class);
+
+	private static final long LOG_EVERY_BYTES = 16L * 1024 * 1024;
+
+	/** Format of an import file. */
+	public enum Format {
+		CSV, JSONL;
+
+		/**
+		 * Parses the format name, ignoring case. "ndjson", the name used by the
+		 * export, is accepted for JSON lines.
+		 *
+		 * @param name
+		 *            Format name
+		 * @return Format
+		 * @throws IllegalArgumentException
+		 *             If the name is unknown
+		 */
+		public static Format of(String name) {
+			String upper = name.toUpperCase();
+			return "NDJSON".equals(upper) ? JSONL : valueOf(upper);
+		}
+	}
+
+	@Autowired
+	private HistoryImportRepository importRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${telegram.bot.import.timeout-seconds:3600}")
+	private int timeoutSeconds;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private volatile String source;
+	private volatile String phase = "idle";
+	private volatile long startedAt;
+	private volatile ImportResult lastResult;
+	private volatile String lastError;
+
+	/**
+	 * Imports the file. Only one import runs at a time.
+	 *
+	 * @param in
+	 *            File content, read until the end but not closed
+	 * @param format
+	 *            File format
+	 * @param source
+	 *            Name of the file or client, for progress and logs
+	 * @return Numbers of skipped and created rows
+	 * @throws IOException
+	 *             If the file can't be read
+	 * @throws IllegalStateException
+	 *             If another import is running
+	 */
+	public ImportResult importHistory(InputStream in, Format format, String source) throws IOException {
+		if (!running.compareAndSet(false, true)) {
+			throw new IllegalStateException("Another import is running");
+		}
+		this.source = source;
+		this.startedAt = System.currentTimeMillis();
+		this.lastError = null;
+		bytesRead.set(0);
+		logger.info("Importing {} history from {}", format, source);
+		try {
+			TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+			// Checked by each statement, the COPY itself runs until the file ends.
+			transaction.setTimeout(timeoutSeconds);
+			ImportResult result = transaction.execute(status -> {
+				try {
+					phase = "copying";
+					InputStream counted = new ProgressInputStream(in);
+					long staged = format == Format.CSV
+							? importRepository.stageCsv(counted)
+							: importRepository.stageJsonLines(counted);
+					logger.info("Import: {} rows ({} bytes) staged from {}", staged, bytesRead.get(), source);
+					phase = "merging";
+					return importRepository.merge(staged);
+				} catch (IOException e) {
+					throw new ImportReadException(e);
+				}
+			});
+			lastResult = result;
+			logger.info("Imported history from {} in {} ms: {}", source, System.currentTimeMillis() - startedAt,
+					result);
+			return result;
+		} catch (ImportReadException e) {
+			lastError = e.getCause().getMessage();
+			throw e.getCause();
+		} catch (RuntimeException e) {
+			lastError = e.getMessage();
+			throw e;
+		} finally {
+			phase = "idle";
+			running.set(false);
+		}
+	}
+
+	@Override
+	public String getStatsName() {
+		return "import";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("running", running.get());
+		stats.put("phase", phase);
+		if (source != null) {
+			stats.put("source", source);
+			stats.put("bytesRead", bytesRead.get());
+		}
+		if (running.get()) {
+			stats.put("elapsedMs", System.currentTimeMillis() - startedAt);
+		}
+		if (lastResult != null) {
+			stats.put("lastResult", lastResult);
+		}
+		if (lastError != null) {
+			stats.put("lastError", lastError);
+		}
+		return stats;
+	}
+
+	/** Carries a read failure of the file out of the transaction callback. */
+	private static class ImportReadException extends RuntimeException {
+
+		ImportReadException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	/** Counts bytes read for progress, logs every {@link #LOG_EVERY_BYTES}. */
+	private class ProgressInputStream extends FilterInputStream {
+
+		private long nextLogAt = LOG_EVERY_BYTES;
+
+		ProgressInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				counted(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				counted(n);
+			}
+			return n;
+		}
+
+		private void counted(int n) {
+			long total = bytesRead.addAndGet(n);
+			if (total >= nextLogAt) {
+				logger.info("Import: {} MB read from {}", total / (1024 * 1024), source);
+				nextLogAt = total + LOG_EVERY_BYTES;
+			}
+		}
+	}
+}
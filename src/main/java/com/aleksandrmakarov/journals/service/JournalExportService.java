@@ -0,0 +1,171 @@
+package com.aleksandrmakarov.journals.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.aleksandrmakarov.journals.model.ExportedJournal;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Exports journals as gzip-compressed CSV or NDJSON with the columns of
+ * {@link HistoryImportService}, so an export can be imported again. Rows are
+ * read through a cursor and written to the output as they come, memory use
+ * doesn't depend on the number of journals. The cursor keeps a pooled
+ * connection while the client reads, so an export is limited by
+ * `telegram.bot.export.timeout-seconds`.
+ */
+@Service
+public class JournalExportService {
+
+	private static final Logger logger = LoggerFactory.getLogger(JournalExportService.class);
+
+	private static final String[] COLUMNS = {"telegram_id", "username", "first_name", "last_name", "session_name",
+			"session_date", "question_type", "question_order", "question_text", "answer", "answered_at"};
+
+	/** Format of an export file. */
+	public enum Format {
+		CSV, NDJSON
+	}
+
+	@Autowired
+	private JournalRepository journalRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${telegram.bot.export.timeout-seconds:600}")
+	private int timeoutSeconds;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	/**
+	 * Writes journals matching the filters.
+	 *
+	 * @param out
+	 *            Output for the gzip-compressed file, not closed
+	 * @param format
+	 *            File format
+	 * @param telegramId
+	 *            Telegram ID of the user, or {@code null} for all users
+	 * @param sessionId
+	 *            Session ID, or {@code null} for all sessions
+	 * @param from
+	 *            Earliest answer time, inclusive, or {@code null}
+	 * @param to
+	 *            Latest answer time, exclusive, or {@code null}
+	 * @return Number of exported journals
+	 * @throws IOException
+	 *             If the output can't be written
+	 * @throws org.springframework.transaction.TransactionTimedOutException
+	 *             If the export takes longer than the timeout, checked before
+	 *             each fetch of rows
+	 */
+	public long export(OutputStream out, Format format, Long telegramId, Long sessionId, LocalDateTime from,
+			LocalDateTime to) throws IOException {
+		long startedAt = System.currentTimeMillis();
+		// Gzip is finished only on success, so a failed export is a broken file
+		// rather than a valid but truncated one.
+		GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024);
+		long[] rows = new long[1];
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		transaction.setReadOnly(true);
+		// Each fetch from the cursor checks the deadline, so a slow client can't keep
+		// the connection for longer, except while a write to it is blocked.
+		transaction.setTimeout(timeoutSeconds);
+		try {
+			if (format == Format.CSV) {
+				Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8));
+				writeCsvRow(writer, (Object[]) COLUMNS);
+				transaction.executeWithoutResult(status -> journalRepository.forEachJournal(telegramId, sessionId,
+						from, to, journal -> {
+							writeCsvRow(writer, journal.telegramId(), journal.username(), journal.firstName(),
+									journal.lastName(), journal.sessionName(), journal.sessionDate(),
+									journal.questionType(), journal.questionOrder(), journal.questionText(),
+									journal.answer(), journal.answeredAt());
+							rows[0]++;
+						}));
+				writer.flush();
+			} else {
+				JsonGenerator generator = jsonFactory.createGenerator(gzip);
+				generator.setRootValueSeparator(new SerializedString("\n"));
+				transaction.executeWithoutResult(status -> journalRepository.forEachJournal(telegramId, sessionId,
+						from, to, journal -> {
+							writeJson(generator, journal);
+							rows[0]++;
+						}));
+				generator.writeRaw('\n');
+				generator.flush();
+			}
+			gzip.finish();
+			out.flush();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		logger.info("Exported {} journals as {} in {} ms", rows[0], format, System.currentTimeMillis() - startedAt);
+		return rows[0];
+	}
+
+	private static void writeCsvRow(Writer writer, Object... values) {
+		try {
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				Object value = values[i];
+				if (value == null) {
+					continue;
+				}
+				String text = value instanceof LocalDateTime dateTime ? dateTime.toString() : value.toString();
+				if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0
+						|| text.indexOf('\r') >= 0 || text.isEmpty()) {
+					writer.write('"');
+					writer.write(text.replace("\"", "\"\""));
+					writer.write('"');
+				} else {
+					writer.write(text);
+				}
+			}
+			writer.write('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeJson(JsonGenerator generator, ExportedJournal journal) {
+		try {
+			generator.writeStartObject();
+			generator.writeNumberField("telegram_id", journal.telegramId());
+			generator.writeStringField("username", journal.username());
+			generator.writeStringField("first_name", journal.firstName());
+			generator.writeStringField("last_name", journal.lastName());
+			generator.writeStringField("session_name", journal.sessionName());
+			generator.writeStringField("session_date", journal.sessionDate().toString());
+			generator.writeStringField("question_type", journal.questionType().name());
+			generator.writeNumberField("question_order", journal.questionOrder());
+			generator.writeStringField("question_text", journal.questionText());
+			generator.writeStringField("answer", journal.answer());
+			generator.writeStringField("answered_at", journal.answeredAt().toString());
+			generator.writeEndObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
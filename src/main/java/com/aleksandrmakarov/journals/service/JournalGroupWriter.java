@@ -0,0 +1,264 @@
+package com.aleksandrmakarov.journals.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.aleksandrmakarov.journals.model.Journal;
+import com.aleksandrmakarov.journals.model.UserState;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Group commit of answers. When enabled by
+ * `telegram.bot.journal-writer.enabled`, answers saved concurrently (e.g. the
+ * whole team answering `/after` questions at once) are collected for up to
+ * `telegram.bot.journal-writer.linger-ms` or
+ * `telegram.bot.journal-writer.max-batch` rows and written by one multi-row
+ * upsert, together with the next states of the users, in one transaction. Each
+ * caller gets its own saved row, or {@code null} if the session isn't active
+ * anymore, and then its state isn't changed.
+ *
+ * <p>
+ * Callers must not wait for the result inside a transaction: the writer needs a
+ * pool connection of its own, which waiting callers would be holding.
+ */
+@Component
+public class JournalGroupWriter implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(JournalGroupWriter.class);
+
+	@Autowired
+	private JournalRepository journalRepository;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${telegram.bot.journal-writer.enabled:false}")
+	private boolean isEnabled;
+
+	@Value("${telegram.bot.journal-writer.max-batch:64}")
+	private int maxBatch;
+
+	@Value("${telegram.bot.journal-writer.linger-ms:5}")
+	private long lingerMs;
+
+	private record Key(long userId, long sessionId, long questionId) {
+	}
+
+	private record Pending(Journal journal, UserState nextState, CompletableFuture<Journal> result) {
+
+		Key key() {
+			return new Key(journal.userId(), journal.sessionId(), journal.questionId());
+		}
+	}
+
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+	private TransactionTemplate transaction;
+	private Thread writer;
+	private volatile boolean running;
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong failedRows = new AtomicLong();
+	private final AtomicLong totalFlushNanos = new AtomicLong();
+	private final AtomicLong maxFlushNanos = new AtomicLong();
+
+	@PostConstruct
+	private void start() {
+		if (!isEnabled) {
+			return;
+		}
+		transaction = new TransactionTemplate(transactionManager);
+		running = true;
+		writer = Thread.ofPlatform().name("journal-writer").daemon().start(this::runWriter);
+	}
+
+	/**
+	 * Whether answers are written in groups.
+	 *
+	 * @return True if {@link #submit} should be used instead of direct writes
+	 */
+	public boolean isEnabled() {
+		return isEnabled;
+	}
+
+	/**
+	 * Queues the answer for the next group write.
+	 *
+	 * @param answer
+	 *            Answer text
+	 * @param userId
+	 *            DB ID of the user
+	 * @param sessionId
+	 *            Session ID
+	 * @param questionId
+	 *            Question ID
+	 * @param nextState
+	 *            State of the user to write with the answer, or {@code null}
+	 * @return Future completed with the saved journal once it is committed, or
+	 *         with {@code null} if the session isn't active
+	 */
+	public CompletableFuture<Journal> submit(String answer, Long userId, Long sessionId, Long questionId,
+			UserState nextState) {
+		CompletableFuture<Journal> result = new CompletableFuture<>();
+		if (!running) {
+			result.completeExceptionally(new IllegalStateException("Journal writer is not running"));
+			return result;
+		}
+		queue.add(new Pending(new Journal(null, answer, null, userId, sessionId, questionId), nextState, result));
+		return result;
+	}
+
+	private void runWriter() {
+		List<Pending> batch = new ArrayList<>(maxBatch);
+		while (running || !queue.isEmpty()) {
+			try {
+				Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+				while (batch.size() < maxBatch) {
+					long left = deadline - System.nanoTime();
+					Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// Write what is collected and drain the queue on shutdown.
+				running = false;
+			}
+			if (!batch.isEmpty()) {
+				write(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(List<Pending> batch) {
+		long startedAt = System.nanoTime();
+		// One statement can't change a row twice, the latest answer wins.
+		Map<Key, Journal> latest = new LinkedHashMap<>();
+		for (Pending pending : batch) {
+			latest.put(pending.key(), pending.journal());
+		}
+		try {
+			Map<Key, Journal> saved = transaction.execute(status -> {
+				Map<Key, Journal> rows = new HashMap<>();
+				for (Journal journal : journalRepository.upsertJournals(new ArrayList<>(latest.values()))) {
+					rows.put(new Key(journal.userId(), journal.sessionId(), journal.questionId()), journal);
+				}
+				// Only users whose answers were saved move on.
+				Map<Long, UserState> states = new LinkedHashMap<>();
+				for (Pending pending : batch) {
+					if (pending.nextState() != null && rows.containsKey(pending.key())) {
+						states.put(pending.nextState().userId(), pending.nextState());
+					}
+				}
+				if (!states.isEmpty()) {
+					userRepository.updateStates(new ArrayList<>(states.values()));
+				}
+				return rows;
+			});
+			for (Pending pending : batch) {
+				pending.result().complete(saved.get(pending.key()));
+			}
+		} catch (DataIntegrityViolationException e) {
+			// E.g. question was deleted, fail only answers which can't be saved.
+			logger.warn("Group upsert of {} journals failed, saving one-by-one: {}", latest.size(), e.getMessage());
+			writeOneByOne(batch);
+		} catch (RuntimeException e) {
+			logger.error("Group upsert of {} journals failed: {}", latest.size(), e.getMessage(), e);
+			failedRows.addAndGet(batch.size());
+			batch.forEach(pending -> pending.result().completeExceptionally(e));
+		}
+		long elapsed = System.nanoTime() - startedAt;
+		batches.incrementAndGet();
+		rows.addAndGet(latest.size());
+		totalFlushNanos.addAndGet(elapsed);
+		maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+	}
+
+	private void writeOneByOne(List<Pending> batch) {
+		for (Pending pending : batch) {
+			Journal journal = pending.journal();
+			try {
+				pending.result().complete(transaction.execute(status -> {
+					Journal saved = journalRepository.upsertJournal(journal.answer(), journal.userId(),
+							journal.sessionId(), journal.questionId());
+					if (saved != null && pending.nextState() != null) {
+						userRepository.updateStates(List.of(pending.nextState()));
+					}
+					return saved;
+				}));
+			} catch (RuntimeException e) {
+				failedRows.incrementAndGet();
+				pending.result().completeExceptionally(e);
+			}
+		}
+	}
+
+	@PreDestroy
+	private void stop() {
+		if (writer == null) {
+			return;
+		}
+		running = false;
+		writer.interrupt();
+		try {
+			writer.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String getStatsName() {
+		return "journalWriter";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("enabled", isEnabled);
+		if (isEnabled) {
+			long batchCount = batches.get();
+			stats.put("maxBatch", maxBatch);
+			stats.put("lingerMs", lingerMs);
+			stats.put("queued", queue.size());
+			stats.put("batches", batchCount);
+			stats.put("rows", rows.get());
+			stats.put("failedRows", failedRows.get());
+			stats.put("avgBatchSize", batchCount > 0 ? (double) rows.get() / batchCount : 0.0);
+			stats.put("avgFlushMs", batchCount > 0 ? totalFlushNanos.get() / batchCount / 1_000_000.0 : 0.0);
+			stats.put("maxFlushMs", maxFlushNanos.get() / 1_000_000.0);
+		}
+		return stats;
+	}
+}
@@ -4,6 +4,7 @@ import com.aleksandrmakarov.journals.model.Journal;
 import com.aleksandrmakarov.journals.model.Question;
 import com.aleksandrmakarov.journals.model.Session;
 import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserState;
 import java.util.List;
 
 /** Journal service interface. */
@@ -11,6 +12,8 @@ public interface JournalService {
 
 	Journal saveJournal(String answer, User user, Session session, Question question);
 
+	Journal saveAnswer(String answer, User user, Session session, Question question, UserState nextState);
+
 	List<Journal> getUserJournals(User user, int limit);
 
 	List<Journal> getUserJournalsForSession(User user, Session session);
@@ -1,16 +1,22 @@
 package com.aleksandrmakarov.journals.service;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.aleksandrmakarov.journals.model.Journal;
 import com.aleksandrmakarov.journals.model.Question;
 import com.aleksandrmakarov.journals.model.Session;
 import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserState;
 import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
 
 @Service
 @Transactional
@@ -19,19 +25,124 @@ public class JournalServiceImpl implements JournalService {
 	@Autowired
 	private JournalRepository journalRepository;
 
+	@Autowired
+	private SessionRepository sessionRepository;
+
+	@Autowired
+	private UpdateBatchContext batchContext;
+
+	@Autowired
+	private UserService userService;
+
+	@Autowired
+	private UserStateStore stateStore;
+
+	@Autowired
+	private JournalGroupWriter groupWriter;
+
+	/**
+	 * Saves the answer. Joins the caller's transaction if there is one, otherwise
+	 * runs without a transaction, so the group writer can be awaited without
+	 * holding a pool connection. Answers to a session which isn't active anymore
+	 * aren't saved, except buffered in a batch: they are skipped on flush.
+	 *
+	 * @return Saved journal or {@code null} if the session isn't active
+	 */
+	@Transactional(propagation = Propagation.SUPPORTS)
 	public Journal saveJournal(String answer, User user, Session session, Question question) {
+		UpdateBatchContext.Batch batch = batchContext.current();
+		if (batch != null) {
+			return batch.bufferJournal(answer, user.id(), session.id(), question.id());
+		}
+		if (isGroupWrite()) {
+			return await(groupWriter.submit(answer, user.id(), session.id(), question.id(), null));
+		}
 		return journalRepository.upsertJournal(answer, user.id(), session.id(), question.id());
 	}
 
+	/**
+	 * Saves the answer and sets the next state of the user if the session is still
+	 * active. Without update batch, group writer and write-behind state it is one
+	 * DB statement. The group writer commits the answer and the state together.
+	 *
+	 * @param answer
+	 *            Answer text
+	 * @param user
+	 *            User answering
+	 * @param session
+	 *            Active session
+	 * @param question
+	 *            Answered question
+	 * @param nextState
+	 *            State of the user after the answer
+	 * @return Saved journal or {@code null} if the session isn't active anymore
+	 */
+	@Transactional(propagation = Propagation.SUPPORTS)
+	public Journal saveAnswer(String answer, User user, Session session, Question question, UserState nextState) {
+		if (batchContext.current() != null) {
+			// Buffered answers are written later, the lock keeps the session active
+			// until the batch commits.
+			if (!sessionRepository.lockIfActive(session.id())) {
+				return null;
+			}
+			Journal journal = saveJournal(answer, user, session, question);
+			userService.setState(nextState);
+			return journal;
+		}
+		if (isGroupWrite()) {
+			if (stateStore.isEnabled()) {
+				// State goes to the write-behind store, not to DB.
+				Journal journal = await(groupWriter.submit(answer, user.id(), session.id(), question.id(), null));
+				if (journal != null) {
+					userService.setState(nextState);
+				}
+				return journal;
+			}
+			return await(groupWriter.submit(answer, user.id(), session.id(), question.id(), nextState));
+		}
+		if (stateStore.isEnabled()) {
+			Journal journal = journalRepository.upsertJournal(answer, user.id(), session.id(), question.id());
+			if (journal != null) {
+				userService.setState(nextState);
+			}
+			return journal;
+		}
+		return journalRepository.saveAnswer(answer, session.id(), question.id(), nextState);
+	}
+
+	/**
+	 * Whether to write through the group writer. Not inside a transaction (e.g. the
+	 * unit of work of an update): the transaction would hold a pool connection
+	 * while waiting for the writer, which needs one too, and the answer would
+	 * commit apart from the rest of the transaction.
+	 */
+	private boolean isGroupWrite() {
+		return groupWriter.isEnabled() && !TransactionSynchronizationManager.isActualTransactionActive();
+	}
+
+	private static Journal await(CompletableFuture<Journal> result) {
+		try {
+			return result.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
 	public List<Journal> getUserJournals(User user, int limit) {
+		batchContext.flush();
 		return journalRepository.findByUserIdOrderByCreatedAtDesc(user.id(), limit);
 	}
 
 	public List<Journal> getUserJournalsForSession(User user, Session session) {
+		batchContext.flush();
 		return journalRepository.findByUserIdAndSessionIdOrderByCreatedAtDesc(user.id(), session.id());
 	}
 
 	public Long getUserJournalCount(User user) {
+		batchContext.flush();
 		return journalRepository.countByUserId(user.id());
 	}
 }
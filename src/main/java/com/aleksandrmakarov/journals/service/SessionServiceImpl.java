@@ -9,12 +9,12 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.aleksandrmakarov.journals.model.Question;
-import com.aleksandrmakarov.journals.model.QuestionType;
 import com.aleksandrmakarov.journals.model.Session;
 import com.aleksandrmakarov.journals.model.SessionJournals;
 import com.aleksandrmakarov.journals.repository.JournalRepository;
 import com.aleksandrmakarov.journals.repository.QuestionRepository;
 import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.util.QuestionDiff;
 
 @Service
 @Transactional
@@ -29,22 +29,23 @@ public class SessionServiceImpl implements SessionService {
 	@Autowired
 	private QuestionRepository questionRepository;
 
+	@Autowired
+	private UpdateBatchContext batchContext;
+
 	public Session getActiveSession() {
 		return sessionRepository.findActiveSession().orElse(null);
 	}
 
+	/**
+	 * Finishes the active session and creates a new one with questions of the most
+	 * recent previous session.
+	 *
+	 * @param name
+	 *            Name of the new session
+	 * @return The created session
+	 */
 	public Session createNewSession(String name) {
-		// Finish current active session
-		sessionRepository.finishAllActiveSessions();
-
-		// Create new session
-		Session newSession = new Session(null, name, LocalDateTime.now(), null);
-		Session savedSession = sessionRepository.save(newSession);
-
-		// Copy questions from the most recent finished session
-		copyQuestionsFromLastSession(savedSession);
-
-		return savedSession;
+		return sessionRepository.rollover(name, LocalDateTime.now());
 	}
 
 	/**
@@ -62,19 +63,29 @@ public class SessionServiceImpl implements SessionService {
 		return null;
 	}
 
+	/**
+	 * Replaces questions of the session with the given ones. Only changed
+	 * questions are written: unchanged and edited questions keep their IDs and
+	 * answers, see {@link QuestionDiff}.
+	 *
+	 * @param session
+	 *            Session to update
+	 * @param questions
+	 *            New questions in the desired order
+	 */
 	public void updateSessionQuestions(Session session, List<Question> questions) {
-		questionRepository.deleteBySessionId(session.id());
-		if (questions == null || questions.isEmpty()) {
-			return;
-		}
-		List<Question> toSave = new ArrayList<>();
-		for (Question q : questions) {
-			if (q == null)
-				continue;
-			toSave.add(new Question(null, q.text(), q.type(), q.orderIndex(), session.id()));
+		List<Question> desired = new ArrayList<>();
+		if (questions != null) {
+			for (Question q : questions) {
+				if (q == null)
+					continue;
+				desired.add(new Question(null, q.text(), q.type(), q.orderIndex(), session.id()));
+			}
 		}
-		if (!toSave.isEmpty()) {
-			questionRepository.saveBatch(toSave);
+		List<Question> existing = questionRepository.findBySessionIdOrderByOrderIndex(session.id());
+		QuestionDiff.Result diff = QuestionDiff.diff(existing, desired);
+		if (!diff.isEmpty()) {
+			questionRepository.applyChanges(session.id(), diff.updated(), diff.inserted(), diff.deletedIds());
 		}
 	}
 
@@ -83,22 +94,7 @@ public class SessionServiceImpl implements SessionService {
 	}
 
 	public List<SessionJournals> getJournalsForLastSessions(Long userId, int limitLastSessions) {
+		batchContext.flush();
 		return journalRepository.findLastNJournalsPerUser(userId, limitLastSessions);
 	}
-
-	private void copyQuestionsFromLastSession(Session newSession) {
-		// Find the most recent finished session
-		List<Session> finishedSessions = sessionRepository.findFinishedSessionsOrderedByCreatedAt();
-		if (!finishedSessions.isEmpty()) {
-			Session lastSession = finishedSessions.get(0);
-			// Copy all questions from the last session
-			List<Question> questions = questionRepository
-					.findBySessionIdAndQuestionTypeOrderByOrderIndex(lastSession.id(), QuestionType.BEFORE);
-			for (Question question : questions) {
-				Question newQuestion = new Question(null, question.text(), question.type(), question.orderIndex(),
-						newSession.id());
-				questionRepository.save(newQuestion);
-			}
-		}
-	}
 }
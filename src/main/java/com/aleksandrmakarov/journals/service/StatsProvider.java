@@ -0,0 +1,24 @@
+package com.aleksandrmakarov.journals.service;
+
+import java.util.Map;
+
+/**
+ * Source of runtime statistics (queue depths, latencies, counters) which are
+ * exposed alongside health status via `/health` and `/status`.
+ */
+public interface StatsProvider {
+
+	/**
+	 * Name of the statistics group, used as a key in the health status map.
+	 *
+	 * @return Short camelCase name of the group
+	 */
+	String getStatsName();
+
+	/**
+	 * Returns a snapshot of current statistics values.
+	 *
+	 * @return Map of statistic name to its current value
+	 */
+	Map<String, Object> getStats();
+}
@@ -0,0 +1,202 @@
+package com.aleksandrmakarov.journals.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.aleksandrmakarov.journals.model.Journal;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+
+/**
+ * Context of a batch of Telegram updates processed together by one thread (see
+ * long polling mode). While a batch is open services take users from the batch
+ * instead of querying them per update and buffer journal upserts to write them
+ * with one statement on {@link #flush()}. The batch is expected to run in one
+ * transaction, with a savepoint per update.
+ */
+@Component
+public class UpdateBatchContext {
+
+	private static final Logger logger = LoggerFactory.getLogger(UpdateBatchContext.class);
+
+	@Autowired
+	private JournalRepository journalRepository;
+
+	private final ThreadLocal<Batch> current = new ThreadLocal<>();
+
+	/**
+	 * Opens batch in the current thread.
+	 *
+	 * @return Batch to close when processing is finished
+	 */
+	public Batch open() {
+		Batch batch = new Batch();
+		current.set(batch);
+		return batch;
+	}
+
+	/**
+	 * Returns batch opened in the current thread.
+	 *
+	 * @return Batch or {@code null} if updates are processed one-by-one
+	 */
+	public Batch current() {
+		return current.get();
+	}
+
+	/**
+	 * Writes buffered changes of the current batch, if any. Called before reads
+	 * which should see them and at the end of the batch. The batch runs in one
+	 * transaction, so a failed write fails the whole batch: the error is thrown
+	 * again by following flushes, including the one at the end of the batch.
+	 */
+	public void flush() {
+		Batch batch = current.get();
+		if (batch == null) {
+			return;
+		}
+		if (batch.flushError != null) {
+			throw batch.flushError;
+		}
+		if (!batch.journals.isEmpty()) {
+			List<Journal> journals = new ArrayList<>(batch.journals.values());
+			batch.journals.clear();
+			try {
+				journalRepository.upsertJournals(journals);
+			} catch (RuntimeException e) {
+				logger.warn("Batch upsert of {} journals failed: {}", journals.size(), e.getMessage());
+				batch.flushError = e;
+				throw e;
+			}
+		}
+	}
+
+	/** Batch of updates, accessed only by the thread which opened it. */
+	public class Batch implements AutoCloseable {
+
+		private final Set<Long> loadedTelegramIds = new HashSet<>();
+		private final Map<Long, User> usersByTelegramId = new HashMap<>();
+		private final Map<JournalKey, Journal> journals = new LinkedHashMap<>();
+		private RuntimeException flushError;
+
+		// State of the batch before the current update, to undo its changes.
+		private Set<Long> savedTelegramIds;
+		private Map<Long, User> savedUsers;
+		private Map<JournalKey, Journal> savedJournals;
+
+		/**
+		 * Remembers users loaded for the batch.
+		 *
+		 * @param telegramIds
+		 *            Telegram IDs which were looked up
+		 * @param users
+		 *            Found users
+		 */
+		public void addUsers(Collection<Long> telegramIds, Collection<User> users) {
+			loadedTelegramIds.addAll(telegramIds);
+			users.forEach(this::putUser);
+		}
+
+		/**
+		 * Whether the user with the Telegram ID was looked up for the batch.
+		 *
+		 * @param telegramId
+		 *            Telegram user ID
+		 * @return True if {@link #getUser} result is authoritative
+		 */
+		public boolean isLoaded(Long telegramId) {
+			return loadedTelegramIds.contains(telegramId);
+		}
+
+		/**
+		 * Returns the user as of the latest change made in the batch.
+		 *
+		 * @param telegramId
+		 *            Telegram user ID
+		 * @return User or {@code null} if it doesn't exist
+		 */
+		public User getUser(Long telegramId) {
+			return usersByTelegramId.get(telegramId);
+		}
+
+		/**
+		 * Puts created or changed user.
+		 *
+		 * @param user
+		 *            User to remember
+		 */
+		public void putUser(User user) {
+			loadedTelegramIds.add(user.telegramId());
+			usersByTelegramId.put(user.telegramId(), user);
+		}
+
+		/**
+		 * Applies a change written to DB to the batch copy of the user.
+		 *
+		 * @param userId
+		 *            Database ID of the user
+		 * @param change
+		 *            Function making changed user
+		 */
+		public void updateUser(Long userId, UnaryOperator<User> change) {
+			usersByTelegramId.replaceAll((telegramId, user) -> userId.equals(user.id()) ? change.apply(user) : user);
+		}
+
+		/**
+		 * Buffers the answer until {@link UpdateBatchContext#flush()}. Later answer to
+		 * the same question replaces earlier one.
+		 *
+		 * @return Journal without ID
+		 */
+		public Journal bufferJournal(String answer, Long userId, Long sessionId, Long questionId) {
+			Journal journal = new Journal(null, answer, LocalDateTime.now(), userId, sessionId, questionId);
+			journals.put(new JournalKey(userId, sessionId, questionId), journal);
+			return journal;
+		}
+
+		/**
+		 * Remembers the state of the batch before handling the next update, see
+		 * {@link #rollbackUpdate()}.
+		 */
+		public void beginUpdate() {
+			savedTelegramIds = new HashSet<>(loadedTelegramIds);
+			savedUsers = new HashMap<>(usersByTelegramId);
+			savedJournals = new LinkedHashMap<>(journals);
+		}
+
+		/**
+		 * Undoes changes of the update since {@link #beginUpdate()}, when its DB
+		 * changes are rolled back. Answers flushed by the update are buffered again,
+		 * their rows are rolled back too.
+		 */
+		public void rollbackUpdate() {
+			loadedTelegramIds.clear();
+			loadedTelegramIds.addAll(savedTelegramIds);
+			usersByTelegramId.clear();
+			usersByTelegramId.putAll(savedUsers);
+			journals.clear();
+			journals.putAll(savedJournals);
+		}
+
+		@Override
+		public void close() {
+			current.remove();
+		}
+	}
+
+	private record JournalKey(Long userId, Long sessionId, Long questionId) {
+	}
+}
@@ -1,14 +1,23 @@
 package com.aleksandrmakarov.journals.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.aleksandrmakarov.journals.model.Participant;
 import com.aleksandrmakarov.journals.model.User;
 import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.model.UserState;
 
 /** User service interface. */
 public interface UserService {
 
+	/**
+	 * Loads users of the current update batch with one query, so
+	 * {@link #findOrCreateUser} doesn't query them one-by-one. Does nothing if no
+	 * batch is open.
+	 */
+	void preloadUsers(Collection<Long> telegramIds);
+
 	User findOrCreateUser(Long telegramId, String username, String firstName, String lastName);
 
 	User findUserByUsername(String username);
@@ -27,5 +36,7 @@ public interface UserService {
 
 	void clearUserState(Long userId, boolean isClearQuestionIndex);
 
+	void setState(UserState state);
+
 	void setParticipantSelectState(Long userId, String payload, int pageIndex);
 }
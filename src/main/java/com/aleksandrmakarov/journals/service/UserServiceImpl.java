@@ -1,8 +1,9 @@
 package com.aleksandrmakarov.journals.service;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
+import java.util.function.UnaryOperator;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -12,6 +13,8 @@ import com.aleksandrmakarov.journals.model.Participant;
 import com.aleksandrmakarov.journals.model.StateType;
 import com.aleksandrmakarov.journals.model.User;
 import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.model.UserState;
+import com.aleksandrmakarov.journals.repository.RoleDirectory;
 import com.aleksandrmakarov.journals.repository.UserRepository;
 
 @Service
@@ -21,41 +24,60 @@ public class UserServiceImpl implements UserService {
 	@Autowired
 	private UserRepository userRepository;
 
+	@Autowired
+	private UpdateBatchContext batchContext;
+
+	@Autowired
+	private UserStateStore stateStore;
+
+	@Autowired
+	private RoleDirectory roleDirectory;
+
+	@Override
+	public void preloadUsers(Collection<Long> telegramIds) {
+		UpdateBatchContext.Batch batch = batchContext.current();
+		if (batch != null) {
+			batch.addUsers(telegramIds, userRepository.findAllByTelegramIds(telegramIds));
+		}
+	}
+
 	@Override
 	public User findOrCreateUser(Long telegramId, String username, String firstName, String lastName) {
-		Optional<User> existingUser = userRepository.findByTelegramId(telegramId);
-		if (existingUser.isPresent()) {
-			User user = existingUser.get();
-			// Update user info if changed.
-			if (username != null && !username.equals(user.username())
-					|| firstName != null && !firstName.equals(user.firstName())
-					|| lastName != null && !lastName.equals(user.lastName())) {
-				User updatedUser = new User(user.id(), user.telegramId(), username, firstName, lastName, user.role(),
-						user.createdAt(), user.stateType(), user.stateSessionId(), user.stateQuestionIndex(),
-						user.stateUpdatedAt(), user.statePayload());
-				return userRepository.save(updatedUser);
+		UpdateBatchContext.Batch batch = batchContext.current();
+		if (batch != null && batch.isLoaded(telegramId)) {
+			User user = batch.getUser(telegramId);
+			if (user != null && !isProfileChanged(user, username, firstName, lastName)) {
+				return stateStore.apply(user);
 			}
-			return user;
-		} else {
-			// Create new user as a player.
-			User newUser = new User(null, telegramId, username, firstName, lastName, UserRole.PLAYER,
-					LocalDateTime.now(), null, null, 0, null, null);
-			return userRepository.save(newUser);
 		}
+		// Create new user as a player, or update user info if changed.
+		User user = userRepository.upsertByTelegramId(new User(null, telegramId, username, firstName, lastName,
+				UserRole.PLAYER, LocalDateTime.now(), null, null, 0, null, null), false);
+		if (batch != null) {
+			batch.putUser(user);
+		}
+		return stateStore.apply(user);
+	}
+
+	private static boolean isProfileChanged(User user, String username, String firstName, String lastName) {
+		return username != null && !username.equals(user.username())
+				|| firstName != null && !firstName.equals(user.firstName())
+				|| lastName != null && !lastName.equals(user.lastName());
 	}
 
 	@Override
 	public User findUserByUsername(String username) {
-		return userRepository.findByUsername(username).orElse(null);
+		return stateStore.apply(userRepository.findByUsername(username).orElse(null));
 	}
 
 	@Override
 	public List<User> getAdmins() {
-		return userRepository.findAllByRole(UserRole.ADMIN);
+		return roleDirectory.getAdmins();
 	}
 
 	@Override
 	public List<Participant> getParticipantsOrderedByLastJournal() {
+		batchContext.flush();
 		return userRepository.findParticipantsOrderedByLastJournal();
 	}
 
@@ -66,49 +88,70 @@ public class UserServiceImpl implements UserService {
 					user.lastName(), newRole, user.createdAt(), user.stateType(), user.stateSessionId(),
 					user.stateQuestionIndex(), user.stateUpdatedAt(), user.statePayload());
 			userRepository.save(updatedUser);
+			updateBatchUser(user.id(), u -> new User(u.id(), u.telegramId(), u.username(), u.firstName(),
+					u.lastName(), newRole, u.createdAt(), u.stateType(), u.stateSessionId(), u.stateQuestionIndex(),
+					u.stateUpdatedAt(), u.statePayload()));
 		}
 	}
 
 	@Override
 	public User findOrCreateUserWithRole(Long telegramId, String username, String firstName, String lastName,
 			UserRole role) {
-		Optional<User> existingUser = userRepository.findByTelegramId(telegramId);
-		if (existingUser.isPresent()) {
-			User user = existingUser.get();
-			// Update user info and role if changed
-			if (!username.equals(user.username()) || !firstName.equals(user.firstName())
-					|| !lastName.equals(user.lastName()) || !role.equals(user.role())) {
-				User updatedUser = new User(user.id(), user.telegramId(), username, firstName, lastName, role,
-						user.createdAt(), user.stateType(), user.stateSessionId(), user.stateQuestionIndex(),
-						user.stateUpdatedAt(), user.statePayload());
-				return userRepository.save(updatedUser);
-			}
-			return user;
-		} else {
-			// Create new user with specified role
-			User newUser = new User(null, telegramId, username, firstName, lastName, role, LocalDateTime.now(), null,
-					null, 0, null, null);
-			return userRepository.save(newUser);
-		}
+		User user = userRepository.upsertByTelegramId(new User(null, telegramId, username, firstName, lastName, role,
+				LocalDateTime.now(), null, null, 0, null, null), true);
+		updateBatchUser(user.id(), u -> user);
+		return stateStore.apply(user);
 	}
 
 	@Override
 	public void setQuestionFlowState(Long userId, Long sessionId, int questionIndex) {
-		userRepository.upsertState(userId, StateType.QA_FLOW, sessionId, questionIndex);
+		writeState(UserState.questionFlow(userId, sessionId, questionIndex),
+				() -> userRepository.upsertState(userId, StateType.QA_FLOW, sessionId, questionIndex));
 	}
 
 	@Override
 	public void setQuestionsUpdateMode(Long userId, Long sessionId) {
-		userRepository.upsertState(userId, StateType.QUESTIONS_UPDATE, sessionId, -1);
+		writeState(new UserState(userId, StateType.QUESTIONS_UPDATE, sessionId, -1, LocalDateTime.now(), null),
+				() -> userRepository.upsertState(userId, StateType.QUESTIONS_UPDATE, sessionId, -1));
 	}
 
 	@Override
 	public void clearUserState(Long userId, boolean isClearQuestionIndex) {
-		userRepository.clearState(userId, isClearQuestionIndex);
+		writeState(new UserState(userId, null, null, isClearQuestionIndex ? 0 : null, null, null),
+				() -> userRepository.clearState(userId, isClearQuestionIndex));
+	}
+
+	@Override
+	public void setState(UserState state) {
+		writeState(state, () -> userRepository.updateStates(List.of(state)));
 	}
 
 	@Override
 	public void setParticipantSelectState(Long userId, String payload, int pageIndex) {
-		userRepository.upsertStateWithPayload(userId, StateType.PARTICIPANT_SELECT, null, pageIndex, payload);
+		writeState(
+				new UserState(userId, StateType.PARTICIPANT_SELECT, null, pageIndex, LocalDateTime.now(), payload),
+				() -> userRepository.upsertStateWithPayload(userId, StateType.PARTICIPANT_SELECT, null, pageIndex,
+						payload));
+	}
+
+	/**
+	 * Writes the state to DB or to the write-behind store and keeps the copy of
+	 * the user in the current update batch in sync.
+	 */
+	private void writeState(UserState state, Runnable directWrite) {
+		if (stateStore.isEnabled()) {
+			stateStore.put(state);
+		} else {
+			directWrite.run();
+		}
+		updateBatchUser(state.userId(), state::applyTo);
+	}
+
+	/** Keeps the copy of the user in the current update batch in sync with DB. */
+	private void updateBatchUser(Long userId, UnaryOperator<User> change) {
+		UpdateBatchContext.Batch batch = batchContext.current();
+		if (batch != null) {
+			batch.updateUser(userId, change);
+		}
 	}
 }
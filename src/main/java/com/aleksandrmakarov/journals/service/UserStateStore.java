@@ -0,0 +1,258 @@
+package com.aleksandrmakarov.journals.service;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.aleksandrmakarov.journals.model.Journal;
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.model.QuestionType;
+import com.aleksandrmakarov.journals.model.StateType;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserState;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Write-behind store of conversational user state. When enabled by
+ * `telegram.bot.state-store.write-behind`, state changes are kept in memory,
+ * served to readers on top of the stored user and written to DB in one
+ * statement every `telegram.bot.state-store.flush-interval-ms`. Several changes
+ * of one user between flushes result in a single row update.
+ *
+ * Changes not flushed before a crash are lost. Answers are saved immediately
+ * though, so on startup users in question flow are moved past the questions
+ * they have already answered, see {@link #reconcile()}.
+ */
+@Component
+public class UserStateStore implements StatsProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(UserStateStore.class);
+
+	// Flushed states are kept for a while, so readers which got the user before the
+	// flush and apply state after it still see the latest state.
+	private static final long KEEP_FLUSHED_NANOS = 60_000_000_000L;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private QuestionRepository questionRepository;
+
+	@Autowired
+	private JournalRepository journalRepository;
+
+	@Value("${telegram.bot.state-store.write-behind:false}")
+	private boolean isWriteBehind;
+
+	@Value("${telegram.bot.state-store.flush-interval-ms:200}")
+	private long flushIntervalMs;
+
+	/**
+	 * State with the version of the change, to detect changes made during flush,
+	 * and time of the flush or 0 if not flushed yet.
+	 */
+	private record Pending(UserState state, long version, long flushedAt) {
+
+		boolean isDirty() {
+			return flushedAt == 0;
+		}
+	}
+
+	private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+	private final AtomicLong versions = new AtomicLong();
+	private Thread flusher;
+	private volatile boolean running;
+
+	private final AtomicLong changes = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong rowsWritten = new AtomicLong();
+	private final AtomicLong failedFlushes = new AtomicLong();
+
+	@PostConstruct
+	private void start() {
+		if (!isWriteBehind) {
+			return;
+		}
+		reconcile();
+		running = true;
+		flusher = Thread.ofPlatform().name("user-state-flusher").daemon().start(this::runFlusher);
+	}
+
+	/**
+	 * Whether state changes are written behind.
+	 *
+	 * @return True if {@link #put} should be used instead of direct DB writes
+	 */
+	public boolean isEnabled() {
+		return isWriteBehind;
+	}
+
+	/**
+	 * Remembers new state of the user to write it later.
+	 *
+	 * @param state
+	 *            New state, with {@code null} question index to keep the current
+	 *            one
+	 */
+	public void put(UserState state) {
+		long version = versions.incrementAndGet();
+		pending.compute(state.userId(), (userId, previous) -> {
+			UserState merged = state;
+			if (state.questionIndex() == null && previous != null) {
+				merged = new UserState(userId, state.stateType(), state.sessionId(), previous.state().questionIndex(),
+						state.updatedAt(), state.payload());
+			}
+			return new Pending(merged, version, 0);
+		});
+		changes.incrementAndGet();
+	}
+
+	/**
+	 * Returns the user with the state kept by the store applied.
+	 *
+	 * @param user
+	 *            User as stored in DB, may be {@code null}
+	 * @return User with the latest state
+	 */
+	public User apply(User user) {
+		if (user == null || pending.isEmpty()) {
+			return user;
+		}
+		Pending change = pending.get(user.id());
+		return change != null ? change.state().applyTo(user) : user;
+	}
+
+	/** Writes all pending changes to DB. Failed changes are kept for the next flush. */
+	public synchronized void flush() {
+		List<Pending> snapshot = pending.values().stream().filter(Pending::isDirty).toList();
+		if (snapshot.isEmpty()) {
+			return;
+		}
+		try {
+			userRepository.updateStates(snapshot.stream().map(Pending::state).toList());
+		} catch (RuntimeException e) {
+			failedFlushes.incrementAndGet();
+			logger.error("Failed to write {} user states: {}", snapshot.size(), e.getMessage(), e);
+			return;
+		}
+		// Keep changes made during the write, they are newer than the written ones.
+		long now = System.nanoTime();
+		for (Pending written : snapshot) {
+			pending.replace(written.state().userId(), written,
+					new Pending(written.state(), written.version(), now));
+		}
+		flushes.incrementAndGet();
+		rowsWritten.addAndGet(snapshot.size());
+	}
+
+	private void runFlusher() {
+		while (running) {
+			try {
+				Thread.sleep(flushIntervalMs);
+			} catch (InterruptedException e) {
+				break;
+			}
+			flush();
+			long now = System.nanoTime();
+			pending.values().removeIf(p -> !p.isDirty() && now - p.flushedAt() > KEEP_FLUSHED_NANOS);
+		}
+	}
+
+	/**
+	 * Moves users in question flow past questions they have answered, in case
+	 * their state changes were lost. Applies the same transitions as answering
+	 * the last answered question.
+	 */
+	void reconcile() {
+		int fixed = 0;
+		for (User user : userRepository.findAllByStateType(StateType.QA_FLOW)) {
+			if (user.stateSessionId() == null) {
+				continue;
+			}
+			List<Question> questions = questionRepository.findBySessionIdOrderByOrderIndex(user.stateSessionId());
+			// Only answers given after the stored state was set, older ones may be from a
+			// previous pass of the flow.
+			Set<Long> answered = new HashSet<>();
+			for (Journal journal : journalRepository.findByUserIdAndSessionIdOrderByCreatedAtDesc(user.id(),
+					user.stateSessionId())) {
+				if (user.stateUpdatedAt() == null || !journal.createdAt().isBefore(user.stateUpdatedAt())) {
+					answered.add(journal.questionId());
+				}
+			}
+			int lastAnswered = -1;
+			for (int i = Math.max(0, user.stateQuestionIndex()); i < questions.size(); i++) {
+				if (answered.contains(questions.get(i).id())) {
+					lastAnswered = i;
+				}
+			}
+			if (lastAnswered < 0) {
+				continue;
+			}
+			int next = lastAnswered + 1;
+			QuestionType answeredType = questions.get(lastAnswered).type();
+			if (next < questions.size() && questions.get(next).type() == answeredType) {
+				userRepository.upsertState(user.id(), StateType.QA_FLOW, user.stateSessionId(), next);
+			} else if (next < questions.size() && questions.get(next).type() == QuestionType.AFTER) {
+				// Before questions are done, keep the index for `/after`.
+				userRepository.upsertState(user.id(), null, null, lastAnswered);
+			} else {
+				userRepository.clearState(user.id(), true);
+			}
+			fixed++;
+		}
+		if (fixed > 0) {
+			logger.info("Reconciled question flow state of {} users with saved answers", fixed);
+		}
+	}
+
+	@PreDestroy
+	private void stop() {
+		if (flusher == null) {
+			return;
+		}
+		running = false;
+		flusher.interrupt();
+		try {
+			flusher.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	@Override
+	public String getStatsName() {
+		return "stateStore";
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("writeBehind", isWriteBehind);
+		if (isWriteBehind) {
+			long flushCount = flushes.get();
+			stats.put("pending", pending.values().stream().filter(Pending::isDirty).count());
+			stats.put("changes", changes.get());
+			stats.put("flushes", flushCount);
+			stats.put("rowsWritten", rowsWritten.get());
+			stats.put("avgRowsPerFlush", flushCount > 0 ? (double) rowsWritten.get() / flushCount : 0.0);
+			stats.put("failedFlushes", failedFlushes.get());
+		}
+		return stats;
+	}
+}
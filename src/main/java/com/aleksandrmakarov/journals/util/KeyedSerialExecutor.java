@@ -0,0 +1,187 @@
+package com.aleksandrmakarov.journals.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes tasks strictly one-by-one per key while tasks for different keys run
+ * in parallel on the underlying executor. Each key has a mailbox with a bounded
+ * backlog which exists only while the key has pending work, so memory doesn't
+ * grow with the number of distinct keys seen.
+ */
+public class KeyedSerialExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+	private final Executor executor;
+	private final int maxBacklogPerKey;
+
+	/**
+	 * Mailboxes of keys being processed. Presence of a mailbox means that a drain
+	 * task for the key is running or scheduled. Mailboxes are accessed only inside
+	 * map compute methods, which serializes access per key.
+	 */
+	private final ConcurrentHashMap<Long, ArrayDeque<Runnable>> mailboxes = new ConcurrentHashMap<>();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Task which is told when it won't run: it was queued for a key, but the
+	 * underlying executor rejected the drain loop of the key.
+	 */
+	public interface DroppableTask extends Runnable {
+
+		/**
+		 * Called instead of {@link #run()} when the task is dropped.
+		 *
+		 * @param cause
+		 *            Rejection by the underlying executor
+		 */
+		void drop(RejectedExecutionException cause);
+	}
+
+	/**
+	 * Creates executor.
+	 *
+	 * @param executor
+	 *            Executor to run per-key drain loops on.
+	 * @param maxBacklogPerKey
+	 *            Maximum number of tasks waiting for a single key.
+	 */
+	public KeyedSerialExecutor(Executor executor, int maxBacklogPerKey) {
+		this.executor = executor;
+		this.maxBacklogPerKey = maxBacklogPerKey;
+	}
+
+	/**
+	 * Schedules the task after all previously scheduled tasks for the same key.
+	 *
+	 * @param key
+	 *            Key to serialize tasks by.
+	 * @param task
+	 *            Task to run.
+	 * @return True if the task was accepted, false if the key backlog is full or
+	 *         the underlying executor rejected it. An accepted
+	 *         {@link DroppableTask} may still be dropped if the executor rejects
+	 *         the key before the task runs.
+	 */
+	public boolean execute(long key, Runnable task) {
+		boolean[] startDrain = new boolean[1];
+		boolean[] accepted = new boolean[]{true};
+		mailboxes.compute(key, (k, mailbox) -> {
+			if (mailbox == null) {
+				startDrain[0] = true;
+				return new ArrayDeque<>();
+			}
+			if (mailbox.size() >= maxBacklogPerKey) {
+				accepted[0] = false;
+			} else {
+				mailbox.add(task);
+			}
+			return mailbox;
+		});
+		if (!accepted[0]) {
+			rejected.incrementAndGet();
+			return false;
+		}
+		if (startDrain[0]) {
+			try {
+				executor.execute(() -> drain(key, task));
+			} catch (RejectedExecutionException e) {
+				// Tasks queued meanwhile were accepted, tell them they won't run.
+				ArrayDeque<Runnable> abandoned = mailboxes.remove(key);
+				int dropped = 0;
+				if (abandoned != null) {
+					for (Runnable queued : abandoned) {
+						if (queued instanceof DroppableTask droppable) {
+							droppable.drop(e);
+						}
+						dropped++;
+					}
+				}
+				logger.warn("Executor rejected tasks for key {}, dropped {} queued task(s)", key, dropped);
+				rejected.incrementAndGet();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Schedules the supplier after all previously scheduled tasks for the same key.
+	 *
+	 * @param key
+	 *            Key to serialize tasks by.
+	 * @param supplier
+	 *            Supplier of the result.
+	 * @return Future with the result. Completes with
+	 *         {@link RejectedExecutionException} if the key backlog is full or the
+	 *         underlying executor rejects the key.
+	 */
+	public <T> CompletableFuture<T> submit(long key, Supplier<T> supplier) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		boolean accepted = execute(key, new DroppableTask() {
+			@Override
+			public void run() {
+				try {
+					future.complete(supplier.get());
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+
+			@Override
+			public void drop(RejectedExecutionException cause) {
+				future.completeExceptionally(cause);
+			}
+		});
+		if (!accepted) {
+			future.completeExceptionally(new RejectedExecutionException("Backlog for key " + key + " is full"));
+		}
+		return future;
+	}
+
+	private void drain(long key, Runnable first) {
+		Runnable task = first;
+		while (task != null) {
+			try {
+				task.run();
+			} catch (Throwable t) {
+				logger.error("Task for key {} failed: {}", key, t.getMessage(), t);
+			}
+			// Take next task or evict mailbox if there is nothing left.
+			Runnable[] next = new Runnable[1];
+			mailboxes.computeIfPresent(key, (k, mailbox) -> {
+				next[0] = mailbox.poll();
+				return next[0] != null ? mailbox : null;
+			});
+			task = next[0];
+		}
+	}
+
+	/**
+	 * Returns number of keys which currently have running or queued tasks.
+	 *
+	 * @return Number of active keys
+	 */
+	public int getActiveKeys() {
+		return mailboxes.size();
+	}
+
+	/**
+	 * Returns number of tasks rejected because of full per-key backlog.
+	 *
+	 * @return Number of rejected tasks
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+}
@@ -0,0 +1,98 @@
+package com.aleksandrmakarov.journals.util;
+
+/**
+ * Open addressing hash map from primitive {@code long} keys to {@code byte}
+ * values, without boxing and per-entry objects. Not thread-safe, meant to be
+ * filled once and then only read (e.g. published as an immutable snapshot).
+ */
+public class LongByteHashMap {
+
+	private static final byte ABSENT = -1;
+
+	private long[] keys;
+	private byte[] values;
+	private boolean[] used;
+	private int size;
+
+	/**
+	 * Creates map sized for the expected number of entries.
+	 *
+	 * @param expectedSize
+	 *            Number of entries to store without resizing.
+	 */
+	public LongByteHashMap(int expectedSize) {
+		allocate(Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1);
+	}
+
+	/**
+	 * Returns value for the key.
+	 *
+	 * @param key
+	 *            Key
+	 * @return Value or -1 if the key is absent
+	 */
+	public byte get(long key) {
+		int mask = keys.length - 1;
+		for (int i = index(key, mask);; i = (i + 1) & mask) {
+			if (!used[i]) {
+				return ABSENT;
+			}
+			if (keys[i] == key) {
+				return values[i];
+			}
+		}
+	}
+
+	/**
+	 * Puts value for the key.
+	 *
+	 * @param key
+	 *            Key
+	 * @param value
+	 *            Non-negative value
+	 */
+	public void put(long key, byte value) {
+		if ((size + 1) * 2 > keys.length) {
+			resize();
+		}
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		while (used[i] && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		if (!used[i]) {
+			used[i] = true;
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		byte[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(keys.length * 2);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new byte[capacity];
+		used = new boolean[capacity];
+	}
+
+	private static int index(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
@@ -0,0 +1,136 @@
+package com.aleksandrmakarov.journals.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free set of token buckets keyed by positive {@code long} IDs, for rate
+ * limiting many users without per-user objects. Buckets live in a fixed open
+ * addressing table, each bucket is one {@code long} packing tokens (in
+ * thousandths) and the refill time, updated by CAS. Idle buckets (refilled up
+ * to capacity) are evicted lazily: their slots are taken over by new keys. If
+ * all probed slots are busy, the key isn't limited (fail-open).
+ *
+ * Times are non-negative milliseconds from a fixed origin, e.g. the creation of
+ * the table.
+ */
+public class PackedTokenBuckets {
+
+	private static final long EMPTY = 0L;
+	private static final int PROBES = 8;
+	private static final int TOKEN_BITS = 20;
+	private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+	private static final long MILLI = 1000;
+
+	private final AtomicLongArray keys;
+	private final AtomicLongArray buckets;
+	private final int mask;
+	private final long capacityMilli;
+	private final double milliTokensPerMs;
+	private final long idleMs;
+
+	/** Result of {@link #tryTake}. */
+	public enum Result {
+		/** Token taken. */
+		ALLOWED,
+		/** Bucket is empty. */
+		LIMITED,
+		/** No free slot for the key, not limited. */
+		UNTRACKED
+	}
+
+	/**
+	 * Creates empty table.
+	 *
+	 * @param slots
+	 *            Maximum number of tracked keys, rounded up to a power of two.
+	 * @param ratePerMinute
+	 *            Tokens added per minute.
+	 * @param capacity
+	 *            Maximum number of tokens (burst), up to 1000.
+	 */
+	public PackedTokenBuckets(int slots, double ratePerMinute, int capacity) {
+		int size = Integer.highestOneBit(Math.max(PROBES, slots) - 1) << 1;
+		this.keys = new AtomicLongArray(size);
+		this.buckets = new AtomicLongArray(size);
+		this.mask = size - 1;
+		this.capacityMilli = Math.min(TOKEN_MASK, capacity * MILLI);
+		this.milliTokensPerMs = ratePerMinute * MILLI / 60_000.0;
+		this.idleMs = (long) Math.ceil(capacityMilli / milliTokensPerMs);
+	}
+
+	/**
+	 * Takes one token from the bucket of the key.
+	 *
+	 * @param key
+	 *            Positive key, e.g. Telegram user ID.
+	 * @param nowMs
+	 *            Current time in milliseconds, non-decreasing.
+	 * @return Whether the token was taken
+	 */
+	public Result tryTake(long key, long nowMs) {
+		int slot = findSlot(key, nowMs);
+		if (slot < 0) {
+			return Result.UNTRACKED;
+		}
+		while (true) {
+			long bucket = buckets.get(slot);
+			long tokens = refill(bucket, nowMs);
+			if (tokens < MILLI) {
+				return Result.LIMITED;
+			}
+			if (buckets.compareAndSet(slot, bucket, pack(tokens - MILLI, nowMs))) {
+				return Result.ALLOWED;
+			}
+		}
+	}
+
+	private int findSlot(long key, long nowMs) {
+		int start = spread(key) & mask;
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (start + i) & mask;
+			long current = keys.get(slot);
+			if (current == key) {
+				return slot;
+			}
+			if (current == EMPTY) {
+				if (keys.compareAndSet(slot, EMPTY, key)) {
+					buckets.set(slot, pack(capacityMilli, nowMs));
+					return slot;
+				}
+				if (keys.get(slot) == key) {
+					return slot;
+				}
+			}
+		}
+		// Take over a bucket idle long enough to be full, i.e. its key is forgotten.
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (start + i) & mask;
+			long current = keys.get(slot);
+			long bucket = buckets.get(slot);
+			if (nowMs - time(bucket) >= idleMs && keys.compareAndSet(slot, current, key)) {
+				buckets.compareAndSet(slot, bucket, pack(capacityMilli, nowMs));
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private long refill(long bucket, long nowMs) {
+		long elapsed = Math.max(0, nowMs - time(bucket));
+		long tokens = bucket & TOKEN_MASK;
+		return Math.min(capacityMilli, tokens + (long) (elapsed * milliTokensPerMs));
+	}
+
+	private static long pack(long tokensMilli, long timeMs) {
+		return (timeMs << TOKEN_BITS) | tokensMilli;
+	}
+
+	private static long time(long bucket) {
+		return bucket >>> TOKEN_BITS;
+	}
+
+	private static int spread(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
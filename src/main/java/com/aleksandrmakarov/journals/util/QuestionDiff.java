@@ -0,0 +1,109 @@
+package com.aleksandrmakarov.journals.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import com.aleksandrmakarov.journals.model.Question;
+
+/**
+ * Computes changes turning stored questions of a session into the new list, so
+ * that unchanged and edited questions keep their IDs (and answers given to
+ * them). Questions with the same type and text are matched by the longest
+ * common subsequence, remaining questions between matches are paired by
+ * position and updated in place. Only what is left unpaired is deleted or
+ * inserted.
+ */
+public final class QuestionDiff {
+
+	/**
+	 * Changes to apply.
+	 *
+	 * @param updated
+	 *            Stored questions with new text, type or order
+	 * @param inserted
+	 *            New questions without ID
+	 * @param deletedIds
+	 *            IDs of questions to delete
+	 */
+	public record Result(List<Question> updated, List<Question> inserted, List<Long> deletedIds) {
+
+		public boolean isEmpty() {
+			return updated.isEmpty() && inserted.isEmpty() && deletedIds.isEmpty();
+		}
+	}
+
+	private QuestionDiff() {
+	}
+
+	/**
+	 * Computes changes.
+	 *
+	 * @param existing
+	 *            Stored questions ordered by index
+	 * @param desired
+	 *            New questions in the desired order, IDs are ignored
+	 * @return Changes to apply
+	 */
+	public static Result diff(List<Question> existing, List<Question> desired) {
+		int n = existing.size();
+		int m = desired.size();
+		// lcs[i][j] is the length of LCS of existing[i..] and desired[j..].
+		int[][] lcs = new int[n + 1][m + 1];
+		for (int i = n - 1; i >= 0; i--) {
+			for (int j = m - 1; j >= 0; j--) {
+				lcs[i][j] = isSame(existing.get(i), desired.get(j)) ? lcs[i + 1][j + 1] + 1
+						: Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+			}
+		}
+
+		List<Question> updated = new ArrayList<>();
+		List<Question> inserted = new ArrayList<>();
+		List<Long> deletedIds = new ArrayList<>();
+		int i = 0;
+		int j = 0;
+		int gapI = 0;
+		int gapJ = 0;
+		while (i < n && j < m) {
+			if (isSame(existing.get(i), desired.get(j)) && lcs[i][j] == lcs[i + 1][j + 1] + 1) {
+				pairGap(existing, desired, gapI, i, gapJ, j, updated, inserted, deletedIds);
+				pair(existing.get(i), desired.get(j), updated);
+				gapI = ++i;
+				gapJ = ++j;
+			} else if (lcs[i + 1][j] >= lcs[i][j + 1]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		pairGap(existing, desired, gapI, n, gapJ, m, updated, inserted, deletedIds);
+		return new Result(updated, inserted, deletedIds);
+	}
+
+	/** Pairs questions between matches by position, the rest is deleted or inserted. */
+	private static void pairGap(List<Question> existing, List<Question> desired, int fromI, int toI, int fromJ,
+			int toJ, List<Question> updated, List<Question> inserted, List<Long> deletedIds) {
+		int i = fromI;
+		int j = fromJ;
+		for (; i < toI && j < toJ; i++, j++) {
+			pair(existing.get(i), desired.get(j), updated);
+		}
+		for (; i < toI; i++) {
+			deletedIds.add(existing.get(i).id());
+		}
+		for (; j < toJ; j++) {
+			Question q = desired.get(j);
+			inserted.add(new Question(null, q.text(), q.type(), q.orderIndex(), q.sessionId()));
+		}
+	}
+
+	private static void pair(Question stored, Question wanted, List<Question> updated) {
+		if (!isSame(stored, wanted) || !Objects.equals(stored.orderIndex(), wanted.orderIndex())) {
+			updated.add(new Question(stored.id(), wanted.text(), wanted.type(), wanted.orderIndex(), stored.sessionId()));
+		}
+	}
+
+	private static boolean isSame(Question a, Question b) {
+		return a.type() == b.type() && Objects.equals(a.text(), b.text());
+	}
+}
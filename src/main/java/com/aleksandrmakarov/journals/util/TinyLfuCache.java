@@ -0,0 +1,166 @@
+package com.aleksandrmakarov.journals.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded cache with TinyLFU admission: entries are kept in LRU order, but when
+ * the cache is full a new key replaces the least recently used one only if the
+ * new key was requested more often recently. Frequencies are approximated by a
+ * Count-Min sketch of 4-bit counters which are halved periodically, so one-off
+ * keys don't flush frequently used ones. Not thread-safe, callers are expected
+ * to guard it by their own lock.
+ *
+ * @param <K>
+ *            Key type
+ * @param <V>
+ *            Value type
+ */
+public class TinyLfuCache<K, V> {
+
+	private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+			0xcbf29ce484222325L};
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	private final int capacity;
+	private final LinkedHashMap<K, V> entries;
+	private final BiConsumer<K, V> evictionListener;
+
+	// Count-Min sketch, each long holds 16 counters of 4 bits.
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * Creates empty cache.
+	 *
+	 * @param capacity
+	 *            Maximum number of entries, positive.
+	 * @param evictionListener
+	 *            Called for entries removed to make room for new ones.
+	 */
+	public TinyLfuCache(int capacity, BiConsumer<K, V> evictionListener) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.evictionListener = evictionListener;
+		int tableSize = Integer.highestOneBit(Math.max(1, capacity / 4 - 1)) << 1;
+		this.table = new long[tableSize];
+		this.tableMask = tableSize - 1;
+		this.sampleSize = 10 * capacity;
+	}
+
+	/**
+	 * Returns the value and records access to the key.
+	 *
+	 * @param key
+	 *            Key to look up
+	 * @return Value or {@code null} if not cached
+	 */
+	public V get(K key) {
+		recordAccess(key);
+		return entries.get(key);
+	}
+
+	/**
+	 * Stores the value. Existing entry is always replaced, new one is admitted
+	 * only if there is room or it is more frequent than the eviction candidate.
+	 *
+	 * @param key
+	 *            Key
+	 * @param value
+	 *            Value
+	 * @return True if the value was stored
+	 */
+	public boolean put(K key, V value) {
+		if (entries.containsKey(key) || entries.size() < capacity) {
+			entries.put(key, value);
+			return true;
+		}
+		Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+		Map.Entry<K, V> victim = eldest.next();
+		if (frequency(key) <= frequency(victim.getKey())) {
+			return false;
+		}
+		eldest.remove();
+		evictionListener.accept(victim.getKey(), victim.getValue());
+		entries.put(key, value);
+		return true;
+	}
+
+	/**
+	 * Removes the entry, keeping the key frequency.
+	 *
+	 * @param key
+	 *            Key
+	 * @return Removed value or {@code null}
+	 */
+	public V remove(K key) {
+		return entries.remove(key);
+	}
+
+	/** Removes all entries and frequencies. */
+	public void clear() {
+		entries.clear();
+		Arrays.fill(table, 0L);
+		additions = 0;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	private void recordAccess(K key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int index = indexOf(hash, i);
+			int shift = counterShift(hash, i);
+			if (((table[index] >>> shift) & 0xfL) < 0xfL) {
+				table[index] += 1L << shift;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			// Age counters so the sketch reflects recent popularity.
+			for (int i = 0; i < table.length; i++) {
+				table[i] = (table[i] >>> 1) & RESET_MASK;
+			}
+			additions /= 2;
+		}
+	}
+
+	private int frequency(K key) {
+		int hash = spread(key.hashCode());
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < SEEDS.length; i++) {
+			int count = (int) ((table[indexOf(hash, i)] >>> counterShift(hash, i)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	private int indexOf(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return (int) h & tableMask;
+	}
+
+	/** Bit offset of the i-th counter of the key in its table slot. */
+	private static int counterShift(int hash, int i) {
+		return (((hash >>> (i << 3)) & 3) << 2) + (i << 4) & 63;
+	}
+
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+}
@@ -0,0 +1,81 @@
+package com.aleksandrmakarov.journals.util;
+
+/**
+ * Token bucket rate limiter working on {@link System#nanoTime()} timestamps.
+ * Not thread-safe, callers are expected to guard it by their own lock.
+ */
+public class TokenBucket {
+
+	private final double tokensPerNano;
+	private final double capacity;
+	private double tokens;
+	private long refilledAt;
+
+	/**
+	 * Creates full bucket.
+	 *
+	 * @param ratePerSecond
+	 *            Number of tokens added per second.
+	 * @param capacity
+	 *            Maximum number of tokens, i.e. allowed burst.
+	 * @param now
+	 *            Current {@link System#nanoTime()}.
+	 */
+	public TokenBucket(double ratePerSecond, double capacity, long now) {
+		this.tokensPerNano = ratePerSecond / 1_000_000_000.0;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.refilledAt = now;
+	}
+
+	/**
+	 * Takes one token if available.
+	 *
+	 * @param now
+	 *            Current {@link System#nanoTime()}.
+	 * @return True if the token was taken.
+	 */
+	public boolean tryTake(long now) {
+		refill(now);
+		if (tokens >= 1.0) {
+			tokens -= 1.0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns time until one token becomes available.
+	 *
+	 * @param now
+	 *            Current {@link System#nanoTime()}.
+	 * @return Nanoseconds to wait, 0 if a token is available right now.
+	 */
+	public long nanosUntilAvailable(long now) {
+		refill(now);
+		if (tokens >= 1.0) {
+			return 0;
+		}
+		return (long) Math.ceil((1.0 - tokens) / tokensPerNano);
+	}
+
+	/**
+	 * Whether the bucket is full, i.e. forgetting it doesn't change rate limiting.
+	 *
+	 * @param now
+	 *            Current {@link System#nanoTime()}.
+	 * @return True if the bucket is full.
+	 */
+	public boolean isFull(long now) {
+		refill(now);
+		return tokens >= capacity;
+	}
+
+	private void refill(long now) {
+		long elapsed = now - refilledAt;
+		if (elapsed > 0) {
+			tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+			refilledAt = now;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.aleksandrmakarov.journals.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free sliding window of recently seen monotonically increasing IDs (like
+ * Telegram `update_id`). Ring buffer slot {@code id % size} keeps the latest ID
+ * mapped to it, so checking an ID is a single CAS. An ID older than the whole
+ * window is treated as a replay: it may be a late redelivery. The caller
+ * decides when such an ID means that the sequence was restarted (Telegram
+ * picks a random `update_id` after a week without updates) and re-seeds the
+ * window with {@link #restartAt}.
+ */
+public class UpdateIdWindow {
+
+	private static final long EMPTY = -1L;
+
+	private final AtomicLongArray slots;
+	private final int mask;
+	private final AtomicLong highest = new AtomicLong(EMPTY);
+	private final AtomicLong resets = new AtomicLong();
+
+	/**
+	 * Creates window.
+	 *
+	 * @param size
+	 *            Number of IDs to remember, rounded up to a power of two.
+	 */
+	public UpdateIdWindow(int size) {
+		int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+		this.slots = new AtomicLongArray(capacity);
+		this.mask = capacity - 1;
+		for (int i = 0; i < capacity; i++) {
+			slots.set(i, EMPTY);
+		}
+	}
+
+	/**
+	 * Marks ID as seen.
+	 *
+	 * @param id
+	 *            Non-negative ID to mark.
+	 * @return True if the ID wasn't seen before, false if it is a replay or
+	 *         below the window.
+	 */
+	public boolean markSeen(long id) {
+		if (isBelowWindow(id)) {
+			return false;
+		}
+		int index = (int) (id & mask);
+		while (true) {
+			long current = slots.get(index);
+			// Slot already holds this ID or a newer one, i.e. this ID slid out of window.
+			if (current >= id) {
+				return false;
+			}
+			if (slots.compareAndSet(index, current, id)) {
+				highest.accumulateAndGet(id, Math::max);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the ID is older than all remembered ones, so it can't be
+	 * told apart from a replay.
+	 *
+	 * @param id
+	 *            ID to check.
+	 * @return True if the ID is below the window.
+	 */
+	public boolean isBelowWindow(long id) {
+		return id <= highest.get() - slots.length();
+	}
+
+	/**
+	 * Drops all remembered IDs when the sequence is known to be restarted, so IDs
+	 * from the given one on are accepted. Rare, so it isn't lock-free.
+	 *
+	 * @param id
+	 *            First ID of the restarted sequence.
+	 */
+	public synchronized void restartAt(long id) {
+		highest.set(id - 1);
+		for (int i = 0; i < slots.length(); i++) {
+			slots.set(i, EMPTY);
+		}
+		resets.incrementAndGet();
+	}
+
+	/**
+	 * Forgets the ID so it could be accepted again, e.g. when its processing
+	 * failed and the sender is expected to retry.
+	 *
+	 * @param id
+	 *            ID to forget.
+	 */
+	public void forget(long id) {
+		slots.compareAndSet((int) (id & mask), id, EMPTY);
+	}
+
+	/**
+	 * Moves the window forward to the given ID, e.g. restored from DB on start.
+	 *
+	 * @param id
+	 *            Highest ID known to be processed.
+	 */
+	public void advanceTo(long id) {
+		highest.accumulateAndGet(id, Math::max);
+	}
+
+	/**
+	 * Returns the highest seen ID.
+	 *
+	 * @return Highest seen ID or -1 if nothing was seen yet.
+	 */
+	public long getHighest() {
+		return highest.get();
+	}
+
+	/**
+	 * Returns how many times the window was re-seeded by {@link #restartAt}.
+	 *
+	 * @return Number of sequence restarts
+	 */
+	public long getResets() {
+		return resets.get();
+	}
+}
@@ -6,12 +6,26 @@ CREATE TABLE IF NOT EXISTS users (
     first_name TEXT,
     last_name TEXT,
     role TEXT NOT NULL CHECK (role IN ('ADMIN', 'PLAYER', 'BANNED')),
-    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
-    state_type TEXT,
-    state_session_id BIGINT,
-    state_question_index INTEGER NOT NULL DEFAULT 0,
-    state_updated_at TIMESTAMP,
-    state_payload TEXT
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Conversation state of users, changes on most messages. Kept apart from users and
+-- with free space in pages, so updates are HOT (no new index entries, in-page pruning).
+CREATE TABLE IF NOT EXISTS user_state (
+    user_id BIGINT PRIMARY KEY,
+    type TEXT,
+    session_id BIGINT,
+    question_index INTEGER NOT NULL DEFAULT 0,
+    payload TEXT,
+    updated_at TIMESTAMP,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) WITH (fillfactor = 70);
+
+-- Question templates, i.e. lists of questions shared by sessions. A new session
+-- reuses the template of the previous one, a shared template is copied on change.
+CREATE TABLE IF NOT EXISTS question_templates (
+    id BIGSERIAL PRIMARY KEY,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
 );
 
 -- Sessions table
@@ -19,7 +33,9 @@ CREATE TABLE IF NOT EXISTS sessions (
     id BIGSERIAL PRIMARY KEY,
     name TEXT NOT NULL,
     created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
-    finished_at TIMESTAMP
+    finished_at TIMESTAMP,
+    template_id BIGINT,
+    FOREIGN KEY (template_id) REFERENCES question_templates(id) ON DELETE SET NULL
 );
 
 -- Questions table
@@ -28,8 +44,8 @@ CREATE TABLE IF NOT EXISTS questions (
     text TEXT NOT NULL,
     type TEXT NOT NULL CHECK (type IN ('BEFORE', 'AFTER')),
     order_index INTEGER NOT NULL,
-    session_id BIGINT NOT NULL,
-    FOREIGN KEY (session_id) REFERENCES sessions(id) ON DELETE CASCADE
+    template_id BIGINT NOT NULL,
+    FOREIGN KEY (template_id) REFERENCES question_templates(id) ON DELETE CASCADE
 );
 
 -- Journals table
@@ -46,11 +62,18 @@ CREATE TABLE IF NOT EXISTS journals (
     UNIQUE (user_id, session_id, question_id)
 );
 
+-- Processed Telegram update IDs, used to drop redelivered updates.
+CREATE TABLE IF NOT EXISTS processed_updates (
+    update_id BIGINT PRIMARY KEY,
+    processed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
 
 -- Indexes for better performance
 CREATE INDEX IF NOT EXISTS idx_users_telegram_id ON users(telegram_id);
 CREATE INDEX IF NOT EXISTS idx_sessions_finished_at ON sessions(finished_at);
-CREATE INDEX IF NOT EXISTS idx_questions_session_type ON questions(session_id, type);
+CREATE INDEX IF NOT EXISTS idx_sessions_created_at ON sessions(created_at);
+CREATE INDEX IF NOT EXISTS idx_sessions_template ON sessions(template_id);
+CREATE INDEX IF NOT EXISTS idx_questions_template ON questions(template_id, order_index);
 CREATE INDEX IF NOT EXISTS idx_journals_user ON journals(user_id);
 CREATE INDEX IF NOT EXISTS idx_journals_session ON journals(session_id);
 CREATE INDEX IF NOT EXISTS idx_journals_created_at ON journals(created_at);
@@ -0,0 +1,168 @@
+package com.aleksandrmakarov.journals.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.Journal;
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.model.QuestionType;
+import com.aleksandrmakarov.journals.model.Session;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+
+/**
+ * Throughput of `JournalRepository.saveBatch` for 10, 1k and 100k rows: the
+ * former INSERT with a placeholder tuple per row (it can't take 100k rows, over
+ * 65535 parameters), the array-parameter INSERT and COPY. Run with `./gradlew
+ * benchmark`.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+public class BulkInsertBenchmark {
+
+  private static final int USERS = 100;
+  private static final int QUESTIONS = 1_000;
+  private static final int[] SIZES = {10, 1_000, 100_000};
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+
+  @FunctionalInterface
+  private interface Insert {
+    void run(List<Journal> journals);
+  }
+
+  @Test
+  void bulkInsert() {
+    List<Journal> all = prepareJournals();
+    try {
+      for (int size : SIZES) {
+        List<Journal> journals = all.subList(0, size);
+        int iterations = Math.max(3, 200_000 / size / 10);
+        if (size * 5 <= 65535) {
+          measure("placeholders", journals, iterations, this::legacyInsert);
+        } else {
+          System.out.printf("placeholders: %d rows, n/a (over 65535 parameters)%n", size);
+        }
+        measure(
+            "unnest",
+            journals,
+            iterations,
+            batch -> {
+              ReflectionTestUtils.setField(journalRepository, "copyThreshold", Integer.MAX_VALUE);
+              journalRepository.saveBatch(batch);
+            });
+        measure(
+            "copy",
+            journals,
+            iterations,
+            batch -> {
+              ReflectionTestUtils.setField(journalRepository, "copyThreshold", 0);
+              journalRepository.saveBatch(batch);
+            });
+      }
+    } finally {
+      ReflectionTestUtils.setField(journalRepository, "copyThreshold", 5000);
+      journalRepository.deleteAll();
+    }
+  }
+
+  private List<Journal> prepareJournals() {
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+    Session session =
+        sessionRepository.save(new Session(null, "Benchmark", LocalDateTime.now(), null));
+    List<Question> questions = new ArrayList<>();
+    for (int i = 0; i < QUESTIONS; i++) {
+      questions.add(new Question(null, "Q" + i, QuestionType.AFTER, i, session.id()));
+    }
+    List<Long> questionIds = questionRepository.saveBatch(questions);
+    List<Journal> journals = new ArrayList<>(USERS * QUESTIONS);
+    LocalDateTime now = LocalDateTime.now();
+    for (int u = 0; u < USERS; u++) {
+      User user =
+          userRepository.save(
+              new User(
+                  null,
+                  70_000L + u,
+                  "bulk" + u,
+                  "Bulk",
+                  String.valueOf(u),
+                  UserRole.PLAYER,
+                  now,
+                  null,
+                  null,
+                  0,
+                  null,
+                  null));
+      for (Long questionId : questionIds) {
+        journals.add(
+            new Journal(
+                null, "Answer\twith\nescapes " + u, now, user.id(), session.id(), questionId));
+      }
+    }
+    return journals;
+  }
+
+  private void measure(String name, List<Journal> journals, int iterations, Insert insert) {
+    // Warm up.
+    journalRepository.deleteAll();
+    insert.run(journals);
+    long totalNanos = 0;
+    for (int i = 0; i < iterations; i++) {
+      journalRepository.deleteAll();
+      long startedAt = System.nanoTime();
+      insert.run(journals);
+      totalNanos += System.nanoTime() - startedAt;
+    }
+    double batchMs = totalNanos / 1e6 / iterations;
+    System.out.printf(
+        "%s: %d rows, %.2f ms per batch, %.0f rows/s%n",
+        name, journals.size(), batchMs, journals.size() / (batchMs / 1e3));
+  }
+
+  /** Former implementation, a statement with a tuple of placeholders per row. */
+  private void legacyInsert(List<Journal> journals) {
+    StringBuilder sql =
+        new StringBuilder(
+            "INSERT INTO journals (answer, created_at, user_id, session_id, question_id) VALUES ");
+    List<Object> params = new ArrayList<>(journals.size() * 5);
+    String sep = "";
+    for (Journal j : journals) {
+      sql.append(sep).append("(?, ?, ?, ?, ?)");
+      sep = ", ";
+      params.add(j.answer());
+      params.add(java.sql.Timestamp.valueOf(j.createdAt()));
+      params.add(j.userId());
+      params.add(j.sessionId());
+      params.add(j.questionId());
+    }
+    sql.append(" RETURNING id");
+    jdbcTemplate.queryForList(sql.toString(), Long.class, params.toArray());
+  }
+}
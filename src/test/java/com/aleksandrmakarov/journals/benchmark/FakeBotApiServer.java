@@ -0,0 +1,121 @@
+package com.aleksandrmakarov.journals.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal Telegram Bot API server for load tests of long polling. Serves a
+ * fixed number of generated text messages from `users` users by `getUpdates`
+ * (honoring `offset` and `limit`) and acknowledges other methods with a
+ * successful empty result.
+ */
+public class FakeBotApiServer implements AutoCloseable {
+
+  private static final Pattern NUMBER_PARAM = Pattern.compile("\"(\\w+)\"\\s*:\\s*(-?\\d+)");
+  private static final String[] TEXTS = {"/start", "Felt good today", "/help", "Worked on serve"};
+
+  private final HttpServer server;
+  private final int totalUpdates;
+  private final int users;
+
+  public FakeBotApiServer(int totalUpdates, int users) throws IOException {
+    this.totalUpdates = totalUpdates;
+    this.users = users;
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", this::handle);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.start();
+  }
+
+  public String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    String method = path.substring(path.lastIndexOf('/') + 1);
+    String body;
+    if ("getUpdates".equals(method)) {
+      Map<String, String> params = readParams(exchange);
+      int offset = Integer.parseInt(params.getOrDefault("offset", "0"));
+      int limit = Integer.parseInt(params.getOrDefault("limit", "100"));
+      body = getUpdates(Math.max(offset, 1), limit);
+    } else {
+      exchange.getRequestBody().readAllBytes();
+      body = "{\"ok\":true,\"result\":true}";
+    }
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private String getUpdates(int offset, int limit) {
+    if (offset > totalUpdates) {
+      // Imitate long poll without new updates, but don't hold the poller on shutdown.
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    StringBuilder result = new StringBuilder("{\"ok\":true,\"result\":[");
+    int last = Math.min(totalUpdates, offset + limit - 1);
+    for (int updateId = offset; updateId <= last; updateId++) {
+      long userId = 10_000 + updateId % users;
+      if (updateId > offset) {
+        result.append(',');
+      }
+      result.append(
+          """
+          {"update_id":%d,"message":{"message_id":%d,"date":1700000000,\
+          "from":{"id":%d,"is_bot":false,"first_name":"Player","last_name":"%d","username":"player_%d"},\
+          "chat":{"id":%d,"type":"private"},"text":"%s"}}"""
+              .formatted(
+                  updateId, updateId, userId, userId, userId, userId,
+                  TEXTS[updateId / users % TEXTS.length]));
+    }
+    return result.append("]}").toString();
+  }
+
+  /** Reads parameters sent either as JSON body (telegrambots) or as a query string. */
+  private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+    Map<String, String> params = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query != null) {
+      for (String pair : query.split("&")) {
+        String[] parts = pair.split("=", 2);
+        if (parts.length == 2) {
+          params.put(parts[0], URLDecoder.decode(parts[1], StandardCharsets.UTF_8));
+        }
+      }
+    }
+    try (InputStream in = exchange.getRequestBody()) {
+      String json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      Matcher matcher = NUMBER_PARAM.matcher(json);
+      while (matcher.find()) {
+        params.put(matcher.group(1), matcher.group(2));
+      }
+    }
+    return params;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
@@ -0,0 +1,87 @@
+package com.aleksandrmakarov.journals.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.aleksandrmakarov.journals.bot.UpdatePoller;
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+
+/**
+ * Throughput of long polling mode against {@link FakeBotApiServer}: updates
+ * processed per second with batched user lookups and journal writes. Run with
+ * `./gradlew benchmark`.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+public class PollingBenchmark {
+
+  private static final int TOTAL_UPDATES = 20_000;
+  private static final int USERS = 200;
+  private static final long TIMEOUT_MS = 300_000;
+
+  private static final FakeBotApiServer SERVER;
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+    try {
+      SERVER = new FakeBotApiServer(TOTAL_UPDATES, USERS);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @DynamicPropertySource
+  static void pollingProperties(DynamicPropertyRegistry registry) {
+    registry.add("telegram.bot.mode", () -> "polling");
+    registry.add("telegram.bot.api-url", SERVER::getUrl);
+    registry.add("telegram.bot.polling.timeout-seconds", () -> "1");
+    registry.add("logging.level.com.aleksandrmakarov.journals", () -> "WARN");
+    registry.add("logging.level.org.springframework.jdbc.core.JdbcTemplate", () -> "WARN");
+  }
+
+  @Autowired private UpdatePoller poller;
+
+  @AfterAll
+  static void stopServer() {
+    SERVER.close();
+  }
+
+  @Test
+  void pollingThroughput() throws InterruptedException {
+    // Polling starts with the context, count only updates processed while measuring.
+    long processedBefore = processed();
+    long startedAt = System.nanoTime();
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (processed() < TOTAL_UPDATES && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    long elapsedNanos = System.nanoTime() - startedAt;
+    assertEquals(TOTAL_UPDATES, processed(), "All updates should be processed");
+
+    var stats = poller.getStats();
+    System.out.printf(
+        "polling: %d updates in %.2f s, %.0f updates/s, avg batch %.1f updates in %.2f ms%n",
+        TOTAL_UPDATES,
+        elapsedNanos / 1e9,
+        (TOTAL_UPDATES - processedBefore) / (elapsedNanos / 1e9),
+        (double) stats.get("avgBatchSize"),
+        (double) stats.get("avgBatchMs"));
+  }
+
+  private long processed() {
+    return (long) poller.getStats().get("updates");
+  }
+}
@@ -0,0 +1,144 @@
+package com.aleksandrmakarov.journals.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleksandrmakarov.journals.bot.IncomingUpdate;
+import com.aleksandrmakarov.journals.bot.JournalsBot;
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.model.QuestionType;
+import com.aleksandrmakarov.journals.model.Session;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+
+/**
+ * Compares handling updates with a transaction per service call and with one
+ * transaction per update (`telegram.bot.unit-of-work.enabled`): updates per
+ * second, latency percentiles and write transactions (each one is a WAL flush
+ * on commit) per update, for the question flow of many players. Run with
+ * `./gradlew benchmark` against a local Postgres.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+public class UnitOfWorkBenchmark {
+
+  private static final int USERS = 200;
+  private static final int ROUNDS = 5;
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @DynamicPropertySource
+  static void properties(DynamicPropertyRegistry registry) {
+    registry.add("logging.level.com.aleksandrmakarov.journals", () -> "WARN");
+    registry.add("logging.level.org.springframework.jdbc.core.JdbcTemplate", () -> "WARN");
+  }
+
+  @Autowired private JournalsBot bot;
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+
+  private final AtomicInteger updateIds = new AtomicInteger();
+
+  @Test
+  void unitOfWork() {
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+    Session session =
+        sessionRepository.save(new Session(null, "Benchmark", LocalDateTime.now(), null));
+    questionRepository.saveBatch(
+        List.of(
+            new Question(null, "B1", QuestionType.BEFORE, 1, session.id()),
+            new Question(null, "B2", QuestionType.BEFORE, 2, session.id()),
+            new Question(null, "A1", QuestionType.AFTER, 3, session.id()),
+            new Question(null, "A2", QuestionType.AFTER, 4, session.id())));
+
+    // Warm up caches and JIT.
+    run(false, 1);
+    run(true, 1);
+
+    run(false, ROUNDS);
+    run(true, ROUNDS);
+  }
+
+  private void run(boolean isUnitOfWork, int rounds) {
+    ReflectionTestUtils.setField(bot, "isUnitOfWork", isUnitOfWork);
+    List<Long> latencies = new ArrayList<>();
+    long xidBefore = currentXid();
+    long startedAt = System.nanoTime();
+    for (int round = 0; round < rounds; round++) {
+      for (int user = 1; user <= USERS; user++) {
+        for (String text : List.of("/before", "b1", "b2", "/after", "a1", "a2")) {
+          long sentAt = System.nanoTime();
+          bot.consumeUpdate(message(user, text));
+          latencies.add(System.nanoTime() - sentAt);
+        }
+      }
+    }
+    long elapsedNanos = System.nanoTime() - startedAt;
+    long writeTransactions = currentXid() - xidBefore;
+    if (rounds < ROUNDS) {
+      return;
+    }
+
+    long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+    Arrays.sort(sorted);
+    System.out.printf(
+        "unit-of-work=%s: %d updates in %.2f s, %.0f updates/s, p50 %.2f ms, p99 %.2f ms, "
+            + "%.0f write commits/s, %.2f write commits per update%n",
+        isUnitOfWork,
+        sorted.length,
+        elapsedNanos / 1e9,
+        sorted.length / (elapsedNanos / 1e9),
+        sorted[sorted.length / 2] / 1e6,
+        sorted[(int) (sorted.length * 0.99)] / 1e6,
+        writeTransactions / (elapsedNanos / 1e9),
+        (double) writeTransactions / sorted.length);
+  }
+
+  private IncomingUpdate message(long user, String text) {
+    long telegramId = 1_000_000L + user;
+    return new IncomingUpdate(
+        updateIds.incrementAndGet(),
+        telegramId,
+        telegramId,
+        "player" + user,
+        "Player",
+        String.valueOf(user),
+        "en",
+        text,
+        null,
+        null,
+        false);
+  }
+
+  /** Next transaction ID, without assigning one. */
+  private long currentXid() {
+    return jdbcTemplate.queryForObject(
+        "SELECT pg_snapshot_xmax(pg_current_snapshot())::text::bigint", Long.class);
+  }
+}
@@ -0,0 +1,136 @@
+package com.aleksandrmakarov.journals.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import com.aleksandrmakarov.journals.bot.IncomingUpdate;
+import com.aleksandrmakarov.journals.bot.UpdateParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares bytes allocated and time per update of the streaming webhook parser
+ * with full telegrambots {@link Update} deserialization. Run with `./gradlew
+ * benchmark`.
+ */
+@Tag("benchmark")
+public class UpdateParserBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 20_000;
+  private static final int ITERATIONS = 100_000;
+
+  private static final byte[] MESSAGE = """
+      {
+        "update_id": 100001,
+        "message": {
+          "message_id": 623,
+          "from": {"id": 2001, "is_bot": false, "first_name": "Player", "last_name": "Johnson",
+            "username": "player_user", "language_code": "en"},
+          "chat": {"id": 2001, "type": "private", "first_name": "Player", "last_name": "Johnson",
+            "username": "player_user"},
+          "date": 1700000000,
+          "text": "/after Felt good today, worked on serve and footwork",
+          "entities": [{"type": "bot_command", "offset": 0, "length": 6}],
+          "reply_to_message": {
+            "message_id": 622,
+            "from": {"id": 8385797027, "is_bot": true, "first_name": "amjournals", "username": "amjournalsbot"},
+            "chat": {"id": 2001, "type": "private", "first_name": "Player"},
+            "date": 1699999990,
+            "text": "Question 1/3: How did the training go?",
+            "entities": [{"type": "bold", "offset": 0, "length": 14}]
+          },
+          "photo": [
+            {"file_id": "AgACAgIAAxkBAAIBY2V", "file_unique_id": "AQADm8gxG", "file_size": 1280, "width": 90, "height": 67},
+            {"file_id": "AgACAgIAAxkBAAIBY2W", "file_unique_id": "AQADm8gxH", "file_size": 15830, "width": 320, "height": 240},
+            {"file_id": "AgACAgIAAxkBAAIBY2X", "file_unique_id": "AQADm8gxI", "file_size": 61550, "width": 800, "height": 600}
+          ]
+        }
+      }
+      """.getBytes(StandardCharsets.UTF_8);
+
+  private static final byte[] CALLBACK_QUERY = """
+      {
+        "update_id": 100002,
+        "callback_query": {
+          "id": "7103611920246976766",
+          "from": {"id": 1001, "is_bot": false, "first_name": "Coach", "last_name": "Smith",
+            "username": "admin_user", "language_code": "ru"},
+          "message": {
+            "message_id": 621,
+            "from": {"id": 8385797027, "is_bot": true, "first_name": "amjournals", "username": "amjournalsbot"},
+            "date": 1700000000,
+            "chat": {"id": 1001, "type": "private", "first_name": "Coach", "last_name": "Smith",
+              "username": "admin_user"},
+            "text": "Select participant:",
+            "reply_markup": {
+              "inline_keyboard": [
+                [{"text": "Player Johnson", "callback_data": "ps:select:1"}],
+                [{"text": "Player Brown", "callback_data": "ps:select:2"}],
+                [{"text": "Player Davis", "callback_data": "ps:select:3"}],
+                [{"text": "Next", "callback_data": "ps:page:1"}, {"text": "Cancel", "callback_data": "ps:cancel"}]
+              ]
+            }
+          },
+          "chat_instance": "1351648298235224897",
+          "data": "ps:page:1"
+        }
+      }
+      """.getBytes(StandardCharsets.UTF_8);
+
+  private final ObjectMapper objectMapper =
+      new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private final UpdateParser updateParser = new UpdateParser(objectMapper);
+
+  @FunctionalInterface
+  private interface Parser {
+    IncomingUpdate parse(byte[] json) throws Exception;
+  }
+
+  @Test
+  void streamingVsDatabind() throws Exception {
+    Parser streaming = updateParser::parse;
+    Parser databind = json -> IncomingUpdate.from(objectMapper.readValue(json, Update.class));
+
+    for (byte[] payload : new byte[][] {MESSAGE, CALLBACK_QUERY}) {
+      assertEquals(databind.parse(payload), streaming.parse(payload), "Parsers should agree");
+    }
+
+    for (var entry :
+        new Object[][] {{"message", MESSAGE}, {"callback_query", CALLBACK_QUERY}}) {
+      String name = (String) entry[0];
+      byte[] payload = (byte[]) entry[1];
+      report(name, "databind", databind, payload);
+      report(name, "streaming", streaming, payload);
+    }
+  }
+
+  private static void report(String payloadName, String parserName, Parser parser, byte[] payload)
+      throws Exception {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      parser.parse(payload);
+    }
+    var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().threadId();
+    long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+    long startedAt = System.nanoTime();
+    int checksum = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      checksum += parser.parse(payload).updateId();
+    }
+    long elapsedNanos = System.nanoTime() - startedAt;
+    long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    System.out.printf(
+        "%-15s %-10s %8d bytes/update %8.2f us/update (checksum %d)%n",
+        payloadName,
+        parserName,
+        allocated / ITERATIONS,
+        elapsedNanos / 1000.0 / ITERATIONS,
+        checksum);
+  }
+}
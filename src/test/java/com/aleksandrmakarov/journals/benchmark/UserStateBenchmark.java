@@ -0,0 +1,162 @@
+package com.aleksandrmakarov.journals.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.StateType;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+
+/**
+ * State update throughput of the narrow `user_state` table compared with the
+ * former layout with state columns in the wide `users` row (recreated in a
+ * scratch table). Also reports the share of HOT updates. Run with `./gradlew
+ * benchmark`.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+public class UserStateBenchmark {
+
+  private static final int USERS = 200;
+  private static final int WARMUP_UPDATES = 5_000;
+  private static final int UPDATES = 50_000;
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private UserRepository userRepository;
+
+  private final List<Long> userIds = new ArrayList<>();
+
+  @FunctionalInterface
+  private interface StateUpdate {
+    void run(Long userId, int questionIndex);
+  }
+
+  @BeforeEach
+  void setUp() {
+    userRepository.deleteAll();
+    jdbcTemplate.execute("DROP TABLE IF EXISTS users_wide_state");
+    jdbcTemplate.execute(
+        """
+        CREATE TABLE users_wide_state (
+            id BIGINT PRIMARY KEY,
+            telegram_id BIGINT UNIQUE NOT NULL,
+            username TEXT,
+            first_name TEXT,
+            last_name TEXT,
+            role TEXT NOT NULL,
+            created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+            state_type TEXT,
+            state_session_id BIGINT,
+            state_question_index INTEGER NOT NULL DEFAULT 0,
+            state_updated_at TIMESTAMP,
+            state_payload TEXT
+        )""");
+    jdbcTemplate.execute(
+        "CREATE INDEX idx_users_wide_state_telegram_id ON users_wide_state(telegram_id)");
+    for (int i = 0; i < USERS; i++) {
+      User user =
+          userRepository.save(
+              new User(
+                  null,
+                  50_000L + i,
+                  "player_" + i,
+                  "Player",
+                  "Number " + i,
+                  UserRole.PLAYER,
+                  LocalDateTime.now(),
+                  null,
+                  null,
+                  0,
+                  null,
+                  null));
+      userIds.add(user.id());
+    }
+    jdbcTemplate.update(
+        "INSERT INTO users_wide_state (id, telegram_id, username, first_name, last_name, role) "
+            + "SELECT id, telegram_id, username, first_name, last_name, role FROM users");
+  }
+
+  @AfterEach
+  void tearDown() {
+    jdbcTemplate.execute("DROP TABLE IF EXISTS users_wide_state");
+    userRepository.deleteAll();
+  }
+
+  @Test
+  void stateUpdateThroughput() {
+    StateUpdate wideRow =
+        (userId, questionIndex) ->
+            jdbcTemplate.update(
+                "UPDATE users_wide_state SET state_type = ?, state_session_id = ?, state_question_index = ?, "
+                    + "state_updated_at = CURRENT_TIMESTAMP, state_payload = NULL WHERE id = ?",
+                StateType.QA_FLOW.name(),
+                1L,
+                questionIndex,
+                userId);
+    StateUpdate userState =
+        (userId, questionIndex) ->
+            userRepository.upsertState(userId, StateType.QA_FLOW, 1L, questionIndex);
+
+    report("users row (before)", "users_wide_state", wideRow);
+    report("user_state (after)", "user_state", userState);
+  }
+
+  private void report(String name, String table, StateUpdate update) {
+    for (int i = 0; i < WARMUP_UPDATES; i++) {
+      update.run(userIds.get(i % USERS), i);
+    }
+    Map<String, Object> before = tableStats(table);
+    long startedAt = System.nanoTime();
+    for (int i = 0; i < UPDATES; i++) {
+      update.run(userIds.get(i % USERS), i);
+    }
+    long elapsedNanos = System.nanoTime() - startedAt;
+    Map<String, Object> after = tableStats(table);
+    long updates = delta(before, after, "n_tup_upd");
+    long hotUpdates = delta(before, after, "n_tup_hot_upd");
+    System.out.printf(
+        "%-20s %8.0f updates/s, HOT %5.1f%% (%d of %d), table size %s%n",
+        name,
+        UPDATES / (elapsedNanos / 1e9),
+        updates > 0 ? 100.0 * hotUpdates / updates : 0.0,
+        hotUpdates,
+        updates,
+        after.get("size"));
+  }
+
+  private Map<String, Object> tableStats(String table) {
+    try {
+      // Statistics are sent to the collector in background, flush them (PostgreSQL 15+).
+      jdbcTemplate.execute("SELECT pg_stat_force_next_flush()");
+    } catch (RuntimeException e) {
+      // Older server, numbers may lag behind.
+    }
+    return jdbcTemplate.queryForMap(
+        "SELECT n_tup_upd, n_tup_hot_upd, pg_size_pretty(pg_total_relation_size(relid)) AS size "
+            + "FROM pg_stat_user_tables WHERE relname = ?",
+        table);
+  }
+
+  private static long delta(Map<String, Object> before, Map<String, Object> after, String key) {
+    return ((Number) after.get(key)).longValue() - ((Number) before.get(key)).longValue();
+  }
+}
@@ -0,0 +1,73 @@
+package com.aleksandrmakarov.journals.bot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleksandrmakarov.journals.bot.FloodControl.Decision;
+
+/** Unit tests for {@link FloodControl}. */
+public class FloodControlTest {
+
+  private static FloodControl create(boolean isEnabled, boolean isReply, int perUserBurst) {
+    FloodControl floodControl = new FloodControl();
+    ReflectionTestUtils.setField(floodControl, "isEnabled", isEnabled);
+    ReflectionTestUtils.setField(floodControl, "isReply", isReply);
+    ReflectionTestUtils.setField(floodControl, "maxUsers", 1024);
+    // Slow refill, so tokens don't come back while the test runs.
+    ReflectionTestUtils.setField(floodControl, "perUserRate", 0.01);
+    ReflectionTestUtils.setField(floodControl, "perUserBurst", perUserBurst);
+    ReflectionTestUtils.setField(floodControl, "commandLimits", "/last50:0.01:1, broken, /last5:0.01:2");
+    ReflectionTestUtils.invokeMethod(floodControl, "init");
+    return floodControl;
+  }
+
+  @Test
+  void test_userBurstExceeded_replied() {
+    FloodControl floodControl = create(true, true, 3);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Decision.ALLOW, floodControl.check(2001L, "answer " + i));
+    }
+    assertEquals(Decision.REPLY, floodControl.check(2001L, "answer"));
+    assertEquals(Decision.ALLOW, floodControl.check(2002L, "answer"));
+  }
+
+  @Test
+  void test_withoutReply_dropped() {
+    FloodControl floodControl = create(true, false, 1);
+
+    assertEquals(Decision.ALLOW, floodControl.check(2001L, null));
+    assertEquals(Decision.DROP, floodControl.check(2001L, null));
+  }
+
+  @Test
+  void test_commandLimit_appliesToCommandOnly() {
+    FloodControl floodControl = create(true, true, 100);
+
+    assertEquals(Decision.ALLOW, floodControl.check(2001L, "/last50"));
+    // Arguments and bot username don't make another command.
+    assertEquals(Decision.REPLY, floodControl.check(2001L, "/last50@test_bot"));
+    assertEquals(Decision.REPLY, floodControl.check(2001L, "/last50 now"));
+    assertEquals(Decision.ALLOW, floodControl.check(2001L, "/last5"));
+    assertEquals(Decision.ALLOW, floodControl.check(2001L, "/last5"));
+    assertEquals(Decision.REPLY, floodControl.check(2001L, "/last5"));
+    assertEquals(Decision.ALLOW, floodControl.check(2001L, "/before"));
+    assertEquals(Decision.ALLOW, floodControl.check(2001L, "plain text"));
+
+    assertEquals(3L, floodControl.getStats().get("commandLimited"));
+  }
+
+  @Test
+  void test_disabledOrUnknownSender_allowed() {
+    FloodControl disabled = create(false, true, 1);
+    FloodControl enabled = create(true, true, 1);
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Decision.ALLOW, disabled.check(2001L, "/last50"));
+      assertEquals(Decision.ALLOW, enabled.check(null, "text"));
+      assertEquals(Decision.ALLOW, enabled.check(0L, "text"));
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.aleksandrmakarov.journals.bot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/** Unit tests for {@link UpdateDeduplicator} without persistent claims. */
+public class UpdateDeduplicatorTest {
+
+  private static UpdateDeduplicator create() {
+    UpdateDeduplicator deduplicator = new UpdateDeduplicator();
+    ReflectionTestUtils.setField(deduplicator, "enabled", true);
+    ReflectionTestUtils.setField(deduplicator, "windowSize", 16);
+    ReflectionTestUtils.setField(deduplicator, "persistent", false);
+    ReflectionTestUtils.setField(deduplicator, "restartIdleMinutes", 60L);
+    ReflectionTestUtils.invokeMethod(deduplicator, "init");
+    return deduplicator;
+  }
+
+  /** Moves the time of the last accepted update back. */
+  private static void idle(UpdateDeduplicator deduplicator, long minutes) {
+    AtomicLong lastAcceptedAt =
+        (AtomicLong) ReflectionTestUtils.getField(deduplicator, "lastAcceptedAt");
+    lastAcceptedAt.addAndGet(-minutes * 60_000);
+  }
+
+  @Test
+  void test_lateRedelivery_droppedAsStale() {
+    UpdateDeduplicator deduplicator = create();
+    for (int id = 1000; id < 1040; id++) {
+      assertTrue(deduplicator.isNew(id));
+    }
+
+    assertFalse(deduplicator.isNew(1001));
+    // Recent updates are still known after it.
+    assertFalse(deduplicator.isNew(1039));
+    assertTrue(deduplicator.isNew(1040));
+
+    assertEquals(1L, deduplicator.getStats().get("stale"));
+    assertEquals(2L, deduplicator.getStats().get("duplicates"));
+    assertEquals(0L, deduplicator.getStats().get("resets"));
+  }
+
+  @Test
+  void test_restartedIdsAfterPause_accepted() {
+    UpdateDeduplicator deduplicator = create();
+    for (int id = 1000; id < 1040; id++) {
+      deduplicator.isNew(id);
+    }
+    idle(deduplicator, 61);
+
+    assertTrue(deduplicator.isNew(5));
+    assertTrue(deduplicator.isNew(6));
+    assertFalse(deduplicator.isNew(5));
+
+    assertEquals(1L, deduplicator.getStats().get("resets"));
+    assertEquals(6L, deduplicator.getStats().get("highestUpdateId"));
+  }
+}
@@ -0,0 +1,138 @@
+package com.aleksandrmakarov.journals.bot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/** Unit tests for {@link UpdateParser}. */
+public class UpdateParserTest {
+
+  private final UpdateParser parser = new UpdateParser(new ObjectMapper());
+
+  private IncomingUpdate parse(String json) throws IOException {
+    return parser.parse(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void test_message_readsUsedFieldsAndSkipsOthers() throws IOException {
+    IncomingUpdate update =
+        parse(
+            """
+            {"update_id": 10,
+             "message": {"message_id": 5,
+               "photo": [{"file_id": "a", "width": 1}],
+               "from": {"id": 2001, "is_bot": false, "first_name": "Player", "last_name": "Johnson",
+                 "username": "player_user", "language_code": "ru"},
+               "reply_to_message": {"text": "not this", "chat": {"id": 1}},
+               "entities": [{"type": "bot_command", "offset": 0, "length": 7}],
+               "chat": {"id": 3001, "type": "private", "pinned": {"id": 2}},
+               "text": "/before"}}
+            """);
+
+    assertEquals(10, update.updateId());
+    assertEquals(3001L, update.chatId());
+    assertEquals(2001L, update.fromId());
+    assertEquals("player_user", update.username());
+    assertEquals("Player", update.firstName());
+    assertEquals("Johnson", update.lastName());
+    assertEquals("ru", update.languageCode());
+    assertEquals("/before", update.text());
+    assertTrue(update.hasText());
+    assertFalse(update.isCallbackQuery());
+    assertFalse(update.editedMessage());
+  }
+
+  @Test
+  void test_callbackQuery_readsDataAndChatOfMessage() throws IOException {
+    IncomingUpdate update =
+        parse(
+            """
+            {"callback_query": {"id": "cb-1", "chat_instance": "x",
+               "message": {"message_id": 7, "text": "Pick one", "from": {"id": 999},
+                 "chat": {"id": 3001}},
+               "from": {"id": 2001, "username": "player_user"},
+               "data": "session:1"},
+             "update_id": 11}
+            """);
+
+    assertEquals(11, update.updateId());
+    assertTrue(update.isCallbackQuery());
+    assertEquals("cb-1", update.callbackQueryId());
+    assertEquals("session:1", update.callbackData());
+    assertEquals(3001L, update.chatId());
+    // The message of the keyboard was sent by the bot, the user is who pressed.
+    assertEquals(2001L, update.fromId());
+    assertNull(update.text());
+  }
+
+  @Test
+  void test_unknownPayload_skipped() throws IOException {
+    IncomingUpdate update =
+        parse(
+            """
+            {"update_id": 12,
+             "my_chat_member": {"chat": {"id": 1}, "from": {"id": 2},
+               "new_chat_member": {"status": "kicked"}},
+             "poll": [1, 2, {"nested": [true, null]}]}
+            """);
+
+    assertEquals(12, update.updateId());
+    assertNull(update.chatId());
+    assertNull(update.fromId());
+    assertFalse(update.hasText());
+    assertFalse(update.isCallbackQuery());
+  }
+
+  @Test
+  void test_editedMessage_flaggedWithoutText() throws IOException {
+    IncomingUpdate update =
+        parse(
+            """
+            {"update_id": 13, "edited_message": {"chat": {"id": 3001}, "text": "changed"}}
+            """);
+
+    assertTrue(update.editedMessage());
+    assertNull(update.text());
+    assertNull(update.chatId());
+  }
+
+  @Test
+  void test_unexpectedTypes_ignored() throws IOException {
+    IncomingUpdate update =
+        parse(
+            """
+            {"update_id": "14", "message": {"from": {"id": "2001"}, "chat": [3001], "text": "hi"}}
+            """);
+
+    assertNull(update.updateId());
+    assertNull(update.fromId());
+    assertNull(update.chatId());
+    assertEquals("hi", update.text());
+  }
+
+  @Test
+  void test_inputStream_sameAsBytes() throws IOException {
+    String json = "{\"update_id\": 15, \"message\": {\"chat\": {\"id\": 1}, \"text\": \"x\"}}";
+
+    IncomingUpdate update =
+        parser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(parse(json), update);
+  }
+
+  @Test
+  void test_notObject_rejected() {
+    assertThrows(IOException.class, () -> parse("[1, 2]"));
+    assertThrows(IOException.class, () -> parse("{\"update_id\": "));
+  }
+}
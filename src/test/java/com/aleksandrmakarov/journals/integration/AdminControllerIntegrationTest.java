@@ -0,0 +1,196 @@
+package com.aleksandrmakarov.journals.integration;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.Journal;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+import com.aleksandrmakarov.journals.service.JournalExportService;
+
+/** Integration tests for the import and export of the AdminController. */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class AdminControllerIntegrationTest {
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private TestRestTemplate restTemplate;
+
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private JournalExportService exportService;
+
+  @BeforeEach
+  void setUp() {
+    // Clean up all data
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+  }
+
+  @Test
+  void test_adminImport() throws Exception {
+    String csv =
+        """
+        telegram_id,username,first_name,last_name,session_name,session_date,question_type,question_order,question_text,answer,answered_at
+        2001,player_user,Player,Johnson,Old Session,2024-05-01 18:00:00,BEFORE,1,Goal?,"Win, of course",2024-05-01 17:00:00
+        2001,player_user,Player,Johnson,Old Session,2024-05-01 18:00:00,AFTER,2,Result?,"Won ""3:1""",2024-05-01 20:00:00
+        3001,other,Other,,Old Session,2024-05-01 18:00:00,after,2,Result?,Lost,
+        3001,other,Other,,,2024-05-01 18:00:00,AFTER,2,Result?,No session,
+        """;
+    String jsonLines =
+        """
+        {"telegram_id": 2001, "session_name": "Older Session", "session_date": "2024-04-01T18:00:00", "question_type": "BEFORE", "question_text": "Goal?", "answer": "Line 1\\nLine 2 \\\\ \\"quoted\\""}
+        """;
+
+    // Without token.
+    assertEquals(401, postImport("csv", csv, null).getStatusCode().value());
+
+    // CSV creates users, session, questions and journals, skips invalid row.
+    ResponseEntity<String> response = postImport("csv", csv, "test-admin-token");
+    assertEquals(200, response.getStatusCode().value(), response.getBody());
+    assertEquals(
+        objectMapper.readTree(
+            "{\"stagedRows\":4,\"invalidRows\":1,\"users\":2,\"sessions\":1,\"questions\":2,\"journals\":3}"),
+        objectMapper.readTree(response.getBody()));
+
+    // Importing again changes nothing.
+    response = postImport("csv", csv, "test-admin-token");
+    assertEquals(
+        objectMapper.readTree(
+            "{\"stagedRows\":4,\"invalidRows\":1,\"users\":0,\"sessions\":0,\"questions\":0,\"journals\":0}"),
+        objectMapper.readTree(response.getBody()));
+
+    // JSON lines keep escapes.
+    response = postImport("jsonl", jsonLines, "test-admin-token");
+    assertEquals(
+        objectMapper.readTree(
+            "{\"stagedRows\":1,\"invalidRows\":0,\"users\":0,\"sessions\":1,\"questions\":1,\"journals\":1}"),
+        objectMapper.readTree(response.getBody()));
+    User player = userRepository.findByTelegramId(2001L).orElseThrow();
+    List<String> answers =
+        journalRepository.findByUserIdOrderByCreatedAtDesc(player.id(), 10).stream()
+            .map(Journal::answer)
+            .toList();
+    assertEquals(List.of("Won \"3:1\"", "Win, of course", "Line 1\nLine 2 \\ \"quoted\""), answers);
+  }
+
+  @Test
+  void test_adminImport_ndjsonAlias() throws Exception {
+    String jsonLines =
+        """
+        {"telegram_id": 2001, "session_name": "Old Session", "session_date": "2024-05-01T18:00:00", "question_type": "AFTER", "question_text": "Result?", "answer": "Won"}
+        """;
+
+    ResponseEntity<String> response = postImport("ndjson", jsonLines, "test-admin-token");
+
+    assertEquals(200, response.getStatusCode().value(), response.getBody());
+    assertEquals(1, objectMapper.readTree(response.getBody()).get("journals").asInt());
+  }
+
+  @Test
+  void test_adminExport() throws Exception {
+    String csv =
+        """
+        telegram_id,username,first_name,last_name,session_name,session_date,question_type,question_order,question_text,answer,answered_at
+        2001,player_user,Player,,Old Session,2024-05-01T18:00,BEFORE,1,Goal?,"Win, ""of course""
+        really",2024-05-01T17:00
+        2001,player_user,Player,,Old Session,2024-05-01T18:00,AFTER,2,Result?,Won,2024-05-01T20:00
+        3001,other,Other,,Old Session,2024-05-01T18:00,AFTER,2,Result?,Lost,2024-05-01T20:30
+        """;
+    postImport("csv", csv, "test-admin-token");
+
+    // Without token.
+    assertEquals(401, getExport("format=csv", null).getStatusCode().value());
+
+    // Exported CSV of a user is the imported one.
+    ResponseEntity<byte[]> response = getExport("format=csv&telegramId=2001", "test-admin-token");
+    assertEquals(200, response.getStatusCode().value());
+    String expected = csv.lines().limit(4).map(line -> line + "\n").reduce("", String::concat);
+    assertEquals(expected, gunzip(response.getBody()));
+
+    // NDJSON filtered by time.
+    response =
+        getExport("format=ndjson&from=2024-05-01T18:00:00&to=2024-05-01T20:30:00", "test-admin-token");
+    List<String> lines = gunzip(response.getBody()).lines().toList();
+    assertEquals(1, lines.size());
+    assertEquals("Won", objectMapper.readTree(lines.get(0)).get("answer").asText());
+  }
+
+  @Test
+  void test_adminExport_timedOut() {
+    postImport(
+        "csv",
+        """
+        telegram_id,username,first_name,last_name,session_name,session_date,question_type,question_order,question_text,answer,answered_at
+        2001,player_user,Player,,Old Session,2024-05-01T18:00,AFTER,1,Result?,Won,2024-05-01T20:00
+        """,
+        "test-admin-token");
+    // The deadline has passed before the first fetch, nothing is sent yet.
+    ReflectionTestUtils.setField(exportService, "timeoutSeconds", 0);
+    try {
+      assertEquals(
+          500, getExport("format=csv", "test-admin-token").getStatusCode().value());
+    } finally {
+      ReflectionTestUtils.setField(exportService, "timeoutSeconds", 600);
+    }
+  }
+
+  private ResponseEntity<byte[]> getExport(String query, String token) {
+    HttpHeaders headers = new HttpHeaders();
+    if (token != null) {
+      headers.set("X-Admin-Token", token);
+    }
+    return restTemplate.exchange(
+        "/admin/export?" + query, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+  }
+
+  private static String gunzip(byte[] bytes) throws IOException {
+    try (var in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private ResponseEntity<String> postImport(String format, String body, String token) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.TEXT_PLAIN);
+    if (token != null) {
+      headers.set("X-Admin-Token", token);
+    }
+    return restTemplate.exchange(
+        "/admin/import?format=" + format,
+        HttpMethod.POST,
+        new HttpEntity<>(body, headers),
+        String.class);
+  }
+}
@@ -0,0 +1,144 @@
+package com.aleksandrmakarov.journals.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import com.aleksandrmakarov.journals.bot.BotCommandHandler;
+import com.aleksandrmakarov.journals.bot.IncomingUpdate;
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+import com.aleksandrmakarov.journals.security.ForbiddenException;
+
+/** Callback queries are answered before handling, outcome texts come as the reply. */
+@SpringBootTest
+@ActiveProfiles("test")
+public class CallbackQueryIntegrationTest {
+
+  private static final long TELEGRAM_ID = 7001L;
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private TestJournalsBot bot;
+  @MockitoSpyBean private BotCommandHandler commandHandler;
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+
+  @BeforeEach
+  void setUp() {
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+    bot.clearCallbackAnswers();
+  }
+
+  private void createUser(UserRole role) {
+    userRepository.save(
+        new User(
+            null,
+            TELEGRAM_ID,
+            "player",
+            "Player",
+            "One",
+            role,
+            LocalDateTime.now(),
+            null,
+            null,
+            0,
+            null,
+            null));
+  }
+
+  private String press(String callbackData) {
+    IncomingUpdate update =
+        new IncomingUpdate(
+            1,
+            TELEGRAM_ID,
+            TELEGRAM_ID,
+            "player",
+            "Player",
+            "One",
+            "en",
+            null,
+            "query-" + callbackData,
+            callbackData,
+            false);
+    return ((SendMessage) bot.consumeUpdate(update)).getText();
+  }
+
+  /** The only answer is sent, without text. */
+  private void assertPlainAnswer() throws InterruptedException {
+    AnswerCallbackQuery answer = bot.pollCallbackAnswer();
+    assertEquals("query-ps:cancel", answer.getCallbackQueryId());
+    assertNull(answer.getText());
+    assertNull(bot.pollCallbackAnswer(200));
+  }
+
+  @Test
+  void test_handled_answered() throws Exception {
+    createUser(UserRole.PLAYER);
+
+    press("ps:cancel");
+
+    assertPlainAnswer();
+  }
+
+  @Test
+  void test_failed_errorReplied() throws Exception {
+    createUser(UserRole.PLAYER);
+    doThrow(new IllegalStateException("Test failure"))
+        .when(commandHandler)
+        .handleCallbackQuery(any(), any(), any());
+
+    String reply = press("ps:cancel");
+
+    assertEquals("Sorry, an error occurred. Please try again.", reply);
+    assertPlainAnswer();
+  }
+
+  @Test
+  void test_forbidden_replied() throws Exception {
+    createUser(UserRole.PLAYER);
+    doThrow(new ForbiddenException("Forbidden in test"))
+        .when(commandHandler)
+        .handleCallbackQuery(any(), any(), any());
+
+    String reply = press("ps:cancel");
+
+    assertEquals("Forbidden in test", reply);
+    assertPlainAnswer();
+  }
+
+  @Test
+  void test_banned_replied() throws Exception {
+    createUser(UserRole.BANNED);
+
+    String reply = press("ps:cancel");
+
+    assertEquals("You are banned from the bot. Please contact the admin to unban.", reply);
+    assertPlainAnswer();
+  }
+}
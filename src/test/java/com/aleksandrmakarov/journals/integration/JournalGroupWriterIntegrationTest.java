@@ -0,0 +1,172 @@
+package com.aleksandrmakarov.journals.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.Journal;
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.model.QuestionType;
+import com.aleksandrmakarov.journals.model.Session;
+import com.aleksandrmakarov.journals.model.StateType;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.model.UserState;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+import com.aleksandrmakarov.journals.service.JournalService;
+
+/**
+ * Answers saved through the group writer by more concurrent users than there
+ * are pool connections.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = "telegram.bot.journal-writer.enabled=true")
+public class JournalGroupWriterIntegrationTest {
+
+  // More than spring.datasource.hikari.maximum-pool-size.
+  private static final int USERS = 12;
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private JournalService journalService;
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+
+  @BeforeEach
+  void setUp() {
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+  }
+
+  @Test
+  void test_concurrentAnswers_savedWithStates() throws Exception {
+    Session session =
+        sessionRepository.save(new Session(null, "Group", LocalDateTime.now(), null));
+    Long questionId =
+        questionRepository
+            .saveBatch(List.of(new Question(null, "B1", QuestionType.BEFORE, 1, session.id())))
+            .get(0);
+    Question question = new Question(questionId, "B1", QuestionType.BEFORE, 1, session.id());
+    List<User> users = new ArrayList<>();
+    for (int i = 1; i <= USERS; i++) {
+      users.add(
+          userRepository.save(
+              new User(
+                  null,
+                  3000L + i,
+                  "player" + i,
+                  "Player",
+                  String.valueOf(i),
+                  UserRole.PLAYER,
+                  LocalDateTime.now(),
+                  null,
+                  null,
+                  0,
+                  null,
+                  null)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(USERS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Journal>> results = new ArrayList<>();
+    try {
+      for (User user : users) {
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  return journalService.saveAnswer(
+                      "answer " + user.id(),
+                      user,
+                      session,
+                      question,
+                      UserState.questionFlow(user.id(), session.id(), 1));
+                }));
+      }
+      start.countDown();
+      for (int i = 0; i < USERS; i++) {
+        // Waiting for the writer while holding pool connections would hang here.
+        Journal journal = results.get(i).get(20, TimeUnit.SECONDS);
+        assertNotNull(journal);
+        assertEquals("answer " + users.get(i).id(), journal.answer());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(USERS, journalRepository.count());
+    for (User user : users) {
+      User saved = userRepository.findByTelegramId(user.telegramId()).orElseThrow();
+      assertEquals(StateType.QA_FLOW, saved.stateType());
+      assertEquals(session.id(), saved.stateSessionId());
+      assertEquals(1, saved.stateQuestionIndex());
+    }
+  }
+
+  @Test
+  void test_finishedSession_answerNotSaved() {
+    Session session =
+        sessionRepository.save(new Session(null, "Finished", LocalDateTime.now(), null));
+    Long questionId =
+        questionRepository
+            .saveBatch(List.of(new Question(null, "B1", QuestionType.BEFORE, 1, session.id())))
+            .get(0);
+    Question question = new Question(questionId, "B1", QuestionType.BEFORE, 1, session.id());
+    User user =
+        userRepository.save(
+            new User(
+                null,
+                3100L,
+                "late",
+                "Late",
+                "Player",
+                UserRole.PLAYER,
+                LocalDateTime.now(),
+                null,
+                null,
+                0,
+                null,
+                null));
+    sessionRepository.finishAllActiveSessions();
+
+    Journal journal =
+        journalService.saveAnswer(
+            "late answer",
+            user,
+            session,
+            question,
+            UserState.questionFlow(user.id(), session.id(), 1));
+
+    assertNull(journal);
+    assertEquals(0L, journalRepository.count());
+    assertNull(userRepository.findByTelegramId(user.telegramId()).orElseThrow().stateType());
+  }
+}
@@ -0,0 +1,206 @@
+package com.aleksandrmakarov.journals.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.Journal;
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.model.QuestionType;
+import com.aleksandrmakarov.journals.model.Session;
+import com.aleksandrmakarov.journals.model.StateType;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.model.UserState;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+import com.aleksandrmakarov.journals.service.JournalService;
+
+/** Integration tests for journals saved by {@link JournalRepository}. */
+@SpringBootTest
+@ActiveProfiles("test")
+public class JournalRepositoryIntegrationTest {
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private JournalService journalService;
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+
+  private User player;
+  private Session session;
+  private Question question;
+
+  @BeforeEach
+  void setUp() {
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+
+    LocalDateTime now = LocalDateTime.now();
+    player =
+        userRepository.save(
+            new User(
+                null,
+                5001L,
+                "player",
+                "Player",
+                "One",
+                UserRole.PLAYER,
+                now,
+                null,
+                null,
+                0,
+                null,
+                null));
+    session = sessionRepository.save(new Session(null, "Session", now, null));
+    question =
+        questionRepository.save(new Question(null, "B1", QuestionType.BEFORE, 1, session.id()));
+    userRepository.upsertState(player.id(), StateType.QA_FLOW, session.id(), 0);
+  }
+
+  private User reload() {
+    return userRepository.findByTelegramId(player.telegramId()).orElseThrow();
+  }
+
+  @Test
+  void test_saveAnswer_activeSession_savesAnswerAndState() {
+    Journal journal =
+        journalRepository.saveAnswer(
+            "answer", session.id(), question.id(), UserState.questionFlow(player.id(), session.id(), 1));
+
+    assertNotNull(journal);
+    assertEquals("answer", journal.answer());
+    assertEquals(question.id(), journal.questionId());
+    assertEquals(1, reload().stateQuestionIndex());
+  }
+
+  @Test
+  void test_saveAnswer_finishedSession_returnsNullAndChangesNothing() {
+    journalRepository.saveAnswer(
+        "first", session.id(), question.id(), UserState.questionFlow(player.id(), session.id(), 1));
+    sessionRepository.finishAllActiveSessions();
+
+    Journal journal =
+        journalRepository.saveAnswer(
+            "late", session.id(), question.id(), UserState.questionFlow(player.id(), session.id(), 2));
+
+    assertNull(journal);
+    List<Journal> journals =
+        journalRepository.findByUserIdAndSessionIdOrderByCreatedAtDesc(player.id(), session.id());
+    assertEquals(List.of("first"), journals.stream().map(Journal::answer).toList());
+    assertEquals(1, reload().stateQuestionIndex());
+  }
+
+  @Test
+  void test_serviceSaveAnswer_finishedSession_returnsNull() {
+    sessionRepository.finishAllActiveSessions();
+
+    Journal journal =
+        journalService.saveAnswer(
+            "late", player, session, question, UserState.questionFlow(player.id(), session.id(), 1));
+
+    assertNull(journal);
+    assertEquals(0L, journalRepository.count());
+    assertEquals(0, reload().stateQuestionIndex());
+  }
+
+  @Test
+  void test_upsert_finishedSession_skipped() {
+    Session other = sessionRepository.save(new Session(null, "Other", LocalDateTime.now(), null));
+    Question otherQuestion =
+        questionRepository.save(new Question(null, "B1", QuestionType.BEFORE, 1, other.id()));
+    sessionRepository.finishAllActiveSessions();
+    // Only the other session is active again.
+    jdbcTemplate.update("UPDATE sessions SET finished_at = NULL WHERE id = ?", other.id());
+
+    assertNull(journalRepository.upsertJournal("late", player.id(), session.id(), question.id()));
+    List<Journal> saved =
+        journalRepository.upsertJournals(
+            List.of(
+                new Journal(null, "late", null, player.id(), session.id(), question.id()),
+                new Journal(null, "on time", null, player.id(), other.id(), otherQuestion.id())));
+
+    assertEquals(List.of("on time"), saved.stream().map(Journal::answer).toList());
+    assertEquals(1L, journalRepository.count());
+  }
+
+  /** Journals answering 30 questions of the session, in shuffled question order. */
+  private List<Journal> shuffledJournals() {
+    List<Question> questions = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      questions.add(new Question(null, "Q" + i, QuestionType.AFTER, i + 2, session.id()));
+    }
+    List<Long> questionIds = new ArrayList<>(questionRepository.saveBatch(questions));
+    Collections.shuffle(questionIds, new Random(1));
+    List<Journal> journals = new ArrayList<>();
+    for (int i = 0; i < questionIds.size(); i++) {
+      // Characters escaped in the COPY text format.
+      String answer = "answer " + i + (i % 2 == 0 ? "\tab\t\\ line\n" : "");
+      journals.add(
+          new Journal(
+              null, answer, LocalDateTime.now(), player.id(), session.id(), questionIds.get(i)));
+    }
+    return journals;
+  }
+
+  private void assertIdsInInputOrder(List<Journal> journals, List<Long> ids) {
+    assertEquals(journals.size(), ids.size());
+    Map<Long, Journal> stored =
+        journalRepository.findByUserIdAndSessionIdOrderByCreatedAtDesc(player.id(), session.id())
+            .stream()
+            .collect(Collectors.toMap(Journal::id, journal -> journal));
+    for (int i = 0; i < journals.size(); i++) {
+      assertEquals(journals.get(i).answer(), stored.get(ids.get(i)).answer());
+      assertEquals(journals.get(i).questionId(), stored.get(ids.get(i)).questionId());
+    }
+  }
+
+  @Test
+  void test_saveBatch_idsInInputOrder() {
+    List<Journal> journals = shuffledJournals();
+
+    assertIdsInInputOrder(journals, journalRepository.saveBatch(journals));
+  }
+
+  @Test
+  void test_saveBatchWithCopy_idsInInputOrder() {
+    Object repository = AopTestUtils.getUltimateTargetObject(journalRepository);
+    Object copyThreshold = ReflectionTestUtils.getField(repository, "copyThreshold");
+    ReflectionTestUtils.setField(repository, "copyThreshold", 1);
+    try {
+      List<Journal> journals = shuffledJournals();
+
+      assertIdsInInputOrder(journals, journalRepository.saveBatch(journals));
+    } finally {
+      ReflectionTestUtils.setField(repository, "copyThreshold", copyThreshold);
+    }
+  }
+}
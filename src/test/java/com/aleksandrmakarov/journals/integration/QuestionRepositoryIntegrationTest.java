@@ -0,0 +1,179 @@
+package com.aleksandrmakarov.journals.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.Journal;
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.model.QuestionType;
+import com.aleksandrmakarov.journals.model.Session;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+
+/** Integration tests for questions, including templates shared between sessions. */
+@SpringBootTest
+@ActiveProfiles("test")
+public class QuestionRepositoryIntegrationTest {
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+
+  private User player;
+  private Session previous;
+  private Session current;
+  private List<Long> questionIds;
+
+  /** Two sessions sharing the template "Q1", "Q2", both with an answer to "Q1". */
+  @BeforeEach
+  void setUp() {
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+
+    LocalDateTime now = LocalDateTime.now();
+    player =
+        userRepository.save(
+            new User(
+                null,
+                4001L,
+                "player",
+                "Player",
+                "One",
+                UserRole.PLAYER,
+                now,
+                null,
+                null,
+                0,
+                null,
+                null));
+    previous = sessionRepository.save(new Session(null, "Previous", now.minusDays(1), null));
+    questionIds =
+        questionRepository.saveBatch(
+            List.of(
+                new Question(null, "Q1", QuestionType.BEFORE, 1, previous.id()),
+                new Question(null, "Q2", QuestionType.AFTER, 2, previous.id())));
+    journalRepository.save(
+        new Journal(null, "previous answer", now, player.id(), previous.id(), questionIds.get(0)));
+    current = sessionRepository.rollover("Current", now);
+    journalRepository.save(
+        new Journal(null, "current answer", now, player.id(), current.id(), questionIds.get(0)));
+  }
+
+  private List<String> texts(Session session) {
+    return questionRepository.findBySessionIdOrderByOrderIndex(session.id()).stream()
+        .map(Question::text)
+        .toList();
+  }
+
+  private Journal answer(Session session) {
+    List<Journal> journals =
+        journalRepository.findByUserIdAndSessionIdOrderByCreatedAtDesc(player.id(), session.id());
+    assertEquals(1, journals.size());
+    return journals.get(0);
+  }
+
+  @Test
+  void test_sharedTemplate() {
+    assertEquals(
+        questionIds,
+        questionRepository.findBySessionIdOrderByOrderIndex(current.id()).stream()
+            .map(Question::id)
+            .toList());
+  }
+
+  @Test
+  void test_save_copiesSharedTemplate() {
+    Question edited =
+        questionRepository.save(
+            new Question(questionIds.get(0), "Q1 edited", QuestionType.BEFORE, 1, current.id()));
+
+    assertNotEquals(questionIds.get(0), edited.id());
+    assertEquals(List.of("Q1 edited", "Q2"), texts(current));
+    // The other session keeps its questions and answers.
+    assertEquals(List.of("Q1", "Q2"), texts(previous));
+    assertEquals(
+        questionIds,
+        questionRepository.findBySessionIdOrderByOrderIndex(previous.id()).stream()
+            .map(Question::id)
+            .toList());
+    assertEquals(questionIds.get(0), answer(previous).questionId());
+    // The answer moved with the session to the copied question.
+    assertEquals(edited.id(), answer(current).questionId());
+    assertEquals("current answer", answer(current).answer());
+
+    // The copy isn't shared anymore, so it is updated in place.
+    Question editedAgain =
+        questionRepository.save(
+            new Question(edited.id(), "Q1 edited again", QuestionType.BEFORE, 1, current.id()));
+    assertEquals(edited.id(), editedAgain.id());
+    assertEquals(List.of("Q1 edited again", "Q2"), texts(current));
+  }
+
+  @Test
+  void test_applyChanges_copiesSharedTemplate() {
+    questionRepository.applyChanges(
+        current.id(),
+        List.of(new Question(questionIds.get(1), "Q2 edited", QuestionType.AFTER, 1, current.id())),
+        List.of(new Question(null, "Q3", QuestionType.AFTER, 2, current.id())),
+        List.of(questionIds.get(0)));
+
+    assertEquals(List.of("Q2 edited", "Q3"), texts(current));
+    List<Question> currentQuestions =
+        questionRepository.findBySessionIdOrderByOrderIndex(current.id());
+    assertFalse(currentQuestions.stream().anyMatch(q -> questionIds.contains(q.id())));
+    // The answer to the deleted question is deleted only in the changed session.
+    assertEquals(
+        List.of(),
+        journalRepository.findByUserIdAndSessionIdOrderByCreatedAtDesc(player.id(), current.id()));
+    assertEquals(List.of("Q1", "Q2"), texts(previous));
+    assertEquals(questionIds.get(0), answer(previous).questionId());
+  }
+
+  @Test
+  void test_saveBatch_idsInInputOrder() {
+    Session session = sessionRepository.save(new Session(null, "Batch", LocalDateTime.now(), null));
+    List<Question> questions = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      // Order indexes go backwards, so stored order differs from input order.
+      questions.add(new Question(null, "Q" + i, QuestionType.BEFORE, 30 - i, session.id()));
+    }
+
+    List<Long> ids = questionRepository.saveBatch(questions);
+
+    assertEquals(questions.size(), ids.size());
+    Map<Long, Question> stored =
+        questionRepository.findBySessionIdOrderByOrderIndex(session.id()).stream()
+            .collect(Collectors.toMap(Question::id, Function.identity()));
+    for (int i = 0; i < questions.size(); i++) {
+      assertEquals("Q" + i, stored.get(ids.get(i)).text());
+      assertEquals(30 - i, stored.get(ids.get(i)).orderIndex());
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.aleksandrmakarov.journals.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.RoleDirectory;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+
+/** Integration tests for the in-memory {@link RoleDirectory}. */
+@SpringBootTest
+@ActiveProfiles("test")
+public class RoleDirectoryIntegrationTest {
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private RoleDirectory roleDirectory;
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+
+  @BeforeEach
+  void setUp() {
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+  }
+
+  @AfterEach
+  void tearDown() {
+    ReflectionTestUtils.setField(roleDirectory, "refreshSeconds", 60L);
+  }
+
+  private User save(long telegramId, UserRole role) {
+    return userRepository.save(
+        new User(
+            null,
+            telegramId,
+            "user" + telegramId,
+            "First",
+            "Last",
+            role,
+            LocalDateTime.now(),
+            null,
+            null,
+            0,
+            null,
+            null));
+  }
+
+  private User withRole(User user, UserRole role) {
+    return new User(
+        user.id(),
+        user.telegramId(),
+        user.username(),
+        user.firstName(),
+        user.lastName(),
+        role,
+        user.createdAt(),
+        null,
+        null,
+        0,
+        null,
+        null);
+  }
+
+  @Test
+  void test_savedUsers_roleKnownWithoutQuery() {
+    User admin1 = save(1001L, UserRole.ADMIN);
+    User admin2 = save(1002L, UserRole.ADMIN);
+    save(2001L, UserRole.BANNED);
+    save(3001L, UserRole.PLAYER);
+
+    assertEquals(UserRole.ADMIN, roleDirectory.getRole(1001L));
+    assertEquals(UserRole.BANNED, roleDirectory.getRole(2001L));
+    assertEquals(UserRole.PLAYER, roleDirectory.getRole(3001L));
+    assertEquals(UserRole.PLAYER, roleDirectory.getRole(9999L));
+    assertEquals(UserRole.PLAYER, roleDirectory.getRole(null));
+    assertTrue(roleDirectory.isBanned(2001L));
+    assertFalse(roleDirectory.isBanned(1001L));
+    assertEquals(
+        List.of(admin1.id(), admin2.id()),
+        roleDirectory.getAdmins().stream().map(User::id).toList());
+  }
+
+  @Test
+  void test_roleChange_replacesSnapshot() {
+    User banned = save(2001L, UserRole.BANNED);
+    User player = save(3001L, UserRole.PLAYER);
+
+    userRepository.save(withRole(banned, UserRole.PLAYER));
+    userRepository.save(withRole(player, UserRole.ADMIN));
+
+    assertFalse(roleDirectory.isBanned(2001L));
+    assertEquals(UserRole.ADMIN, roleDirectory.getRole(3001L));
+    assertEquals(1, roleDirectory.getAdmins().size());
+  }
+
+  @Test
+  void test_changeByOtherInstance_seenAfterRefresh() {
+    save(2001L, UserRole.PLAYER);
+    // Another instance bans the user, this one doesn't know it yet.
+    jdbcTemplate.update("UPDATE users SET role = ? WHERE telegram_id = ?", "BANNED", 2001L);
+    assertFalse(roleDirectory.isBanned(2001L));
+
+    ReflectionTestUtils.setField(roleDirectory, "refreshSeconds", 0L);
+
+    assertTrue(roleDirectory.isBanned(2001L));
+  }
+
+  @Test
+  void test_manyUsers() {
+    for (long telegramId = 1; telegramId <= 300; telegramId++) {
+      save(telegramId, telegramId % 3 == 0 ? UserRole.BANNED : UserRole.PLAYER);
+    }
+
+    for (long telegramId = 1; telegramId <= 300; telegramId++) {
+      assertEquals(telegramId % 3 == 0, roleDirectory.isBanned(telegramId));
+    }
+  }
+}
@@ -1,8 +1,13 @@
 package com.aleksandrmakarov.journals.integration;
 
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
@@ -15,6 +20,8 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMa
 public class TestJournalsBot extends com.aleksandrmakarov.journals.bot.JournalsBot {
   private String lastResponse;
   private InlineKeyboardMarkup lastInlineKeyboard;
+  // Callback query answers are sent asynchronously.
+  private final BlockingQueue<AnswerCallbackQuery> callbackAnswers = new LinkedBlockingQueue<>();
 
   public TestJournalsBot(String botToken, String botUsername, String webhookPath) {
     super(botToken, botUsername, webhookPath);
@@ -31,6 +38,8 @@ public class TestJournalsBot extends com.aleksandrmakarov.journals.bot.JournalsB
       } else {
         lastInlineKeyboard = null;
       }
+    } else if (method instanceof AnswerCallbackQuery answer) {
+      callbackAnswers.add(answer);
     }
   }
 
@@ -42,6 +51,19 @@ public class TestJournalsBot extends com.aleksandrmakarov.journals.bot.JournalsB
     return lastInlineKeyboard;
   }
 
+  /** Waits for the next callback query answer, {@code null} if none is sent. */
+  public AnswerCallbackQuery pollCallbackAnswer() throws InterruptedException {
+    return pollCallbackAnswer(5000);
+  }
+
+  public AnswerCallbackQuery pollCallbackAnswer(long timeoutMillis) throws InterruptedException {
+    return callbackAnswers.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public void clearCallbackAnswers() {
+    callbackAnswers.clear();
+  }
+
   @Bean
   @Primary
   public static TestJournalsBot testJournalsBot() {
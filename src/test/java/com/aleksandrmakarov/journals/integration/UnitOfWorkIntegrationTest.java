@@ -0,0 +1,125 @@
+package com.aleksandrmakarov.journals.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import com.aleksandrmakarov.journals.bot.IncomingUpdate;
+import com.aleksandrmakarov.journals.config.TestDatabaseInitializer;
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.model.QuestionType;
+import com.aleksandrmakarov.journals.model.Session;
+import com.aleksandrmakarov.journals.model.StateType;
+import com.aleksandrmakarov.journals.model.User;
+import com.aleksandrmakarov.journals.model.UserRole;
+import com.aleksandrmakarov.journals.repository.JournalRepository;
+import com.aleksandrmakarov.journals.repository.QuestionRepository;
+import com.aleksandrmakarov.journals.repository.SessionRepository;
+import com.aleksandrmakarov.journals.repository.UserRepository;
+
+/** Updates handled in one transaction each, see `telegram.bot.unit-of-work.enabled`. */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = "telegram.bot.unit-of-work.enabled=true")
+public class UnitOfWorkIntegrationTest {
+
+  private static final long TELEGRAM_ID = 6001L;
+
+  static {
+    // Ensure test database is created before Spring context loads
+    TestDatabaseInitializer.class.getName();
+  }
+
+  @Autowired private TestJournalsBot bot;
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private UserRepository userRepository;
+  @Autowired private SessionRepository sessionRepository;
+  @Autowired private QuestionRepository questionRepository;
+  @Autowired private JournalRepository journalRepository;
+
+  private Session session;
+  private List<Long> questionIds;
+
+  /** Player answering the first of two questions of the active session. */
+  @BeforeEach
+  void setUp() {
+    journalRepository.deleteAll();
+    questionRepository.deleteAll();
+    sessionRepository.deleteAll();
+    userRepository.deleteAll();
+
+    User player =
+        userRepository.save(
+            new User(
+                null,
+                TELEGRAM_ID,
+                "player",
+                "Player",
+                "One",
+                UserRole.PLAYER,
+                LocalDateTime.now(),
+                null,
+                null,
+                0,
+                null,
+                null));
+    session = sessionRepository.save(new Session(null, "Session", LocalDateTime.now(), null));
+    questionIds =
+        questionRepository.saveBatch(
+            List.of(
+                new Question(null, "B1", QuestionType.BEFORE, 1, session.id()),
+                new Question(null, "B2", QuestionType.BEFORE, 2, session.id())));
+    userRepository.upsertState(player.id(), StateType.QA_FLOW, session.id(), 0);
+  }
+
+  /** Text message from the player, with a changed first name. */
+  private BotApiMethod<?> send(String text) {
+    return bot.consumeUpdate(
+        new IncomingUpdate(
+            1, TELEGRAM_ID, TELEGRAM_ID, "player", "Renamed", "One", "en", text, null, null,
+            false));
+  }
+
+  private User reload() {
+    return userRepository.findByTelegramId(TELEGRAM_ID).orElseThrow();
+  }
+
+  @Test
+  void test_answer_committed() {
+    BotApiMethod<?> response = send("answer");
+
+    assertTrue(((SendMessage) response).getText().contains("B2"));
+    assertEquals(1L, journalRepository.count());
+    assertEquals("Renamed", reload().firstName());
+    assertEquals(1, reload().stateQuestionIndex());
+  }
+
+  @Test
+  void test_failedService_errorRepliedAndUpdateRolledBack() {
+    // Cache questions, then delete the answered one behind the cache, so saving the
+    // answer fails on the foreign key after the user profile was updated.
+    questionRepository.findBySessionIdOrderByOrderIndex(session.id());
+    jdbcTemplate.update("DELETE FROM questions WHERE id = ?", questionIds.get(0));
+
+    BotApiMethod<?> response = send("answer");
+
+    assertEquals(
+        "Sorry, an error occurred. Please try again.", ((SendMessage) response).getText());
+    assertEquals(0L, journalRepository.count());
+    assertEquals("Player", reload().firstName());
+    assertEquals(StateType.QA_FLOW, reload().stateType());
+    assertEquals(0, reload().stateQuestionIndex());
+  }
+}
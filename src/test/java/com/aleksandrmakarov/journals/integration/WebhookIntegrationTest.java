@@ -2,6 +2,7 @@ package com.aleksandrmakarov.journals.integration;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -66,6 +67,9 @@ public class WebhookIntegrationTest {
   private static final TestUser ADMIN = new TestUser(1001L, "admin_user", "Coach", "Smith");
   private static final TestUser PLAYER = new TestUser(2001L, "player_user", "Player", "Johnson");
 
+  // Telegram update IDs are unique and increasing, replays are dropped by the bot.
+  private static final AtomicInteger UPDATE_IDS = new AtomicInteger();
+
   // Test database is automatically created by TestDatabaseInitializer if it doesn't exist
 
   private static void assertContains(String actual, String expectedSubstring) {
@@ -135,7 +139,7 @@ public class WebhookIntegrationTest {
 
   private Update createUpdate(TestUser user, String messageText) {
     Update update = new Update();
-    update.setUpdateId(1);
+    update.setUpdateId(UPDATE_IDS.incrementAndGet());
 
     Message message = new Message();
     message.setMessageId(1);
@@ -158,7 +162,10 @@ public class WebhookIntegrationTest {
   }
 
   private ResponseEntity<String> sendWebhookRequest(TestUser user, String messageText) {
-    Update update = createUpdate(user, messageText);
+    return sendUpdate(createUpdate(user, messageText));
+  }
+
+  private ResponseEntity<String> sendUpdate(Update update) {
     HttpHeaders headers = new HttpHeaders();
     headers.setContentType(MediaType.APPLICATION_JSON);
 
@@ -200,7 +207,7 @@ public class WebhookIntegrationTest {
 
   private Update createCallbackQueryUpdate(TestUser user, String callbackData, int messageId) {
     Update update = new Update();
-    update.setUpdateId(1);
+    update.setUpdateId(UPDATE_IDS.incrementAndGet());
 
     Message message = new Message();
     message.setMessageId(messageId);
@@ -411,6 +418,23 @@ public class WebhookIntegrationTest {
     assertContains(response,"📋 <b>Participants:</b>\n👤 Player Johnson (@player_user) - 1 session(s)");
   }
 
+  @Test
+  void test_duplicateUpdate_isIgnored() {
+    // Arrange
+    createPlayerUser();
+    Update update = createUpdate(PLAYER, "/start");
+    sendUpdate(update);
+    String response = sendWebhookRequestAndGetResponse(PLAYER, "/help");
+    assertContains(response, "Bot allows to create and view journals");
+
+    // Act: Telegram redelivers the first update.
+    ResponseEntity<String> redelivery = sendUpdate(update);
+
+    // Assert: acknowledged but not answered again.
+    assertEquals("OK", redelivery.getBody());
+    assertContains(testBot.getLastResponse(), "Bot allows to create and view journals");
+  }
+
   @Test
   void test_textInput_unknownCommand() {
     // Act
@@ -597,6 +621,35 @@ public class WebhookIntegrationTest {
         "\n📋 <b>Questions:</b>\nBEFORE: B1 updated?\nAFTER: A1 updated?\nAFTER: A2 updated?");
   }
 
+  @Test
+  void test_updateQuestions_keepsAnswers() {
+    // Arrange
+    TestUser admin = createAdminUser();
+    sendWebhookRequestAndGetResponse(admin, "/session Default Session");
+    sendWebhookRequestAndGetResponse(admin, "/set_questions");
+    sendWebhookRequestAndGetResponse(admin, "Before: B1 tpyo?\nAfter: A1?");
+    sendWebhookRequestAndGetResponse(PLAYER, "/before");
+    sendWebhookRequestAndGetResponse(PLAYER, "B1 answer");
+    Long sessionId = sessionRepository.findActiveSession().orElseThrow().id();
+    List<Long> questionIds =
+        questionRepository.findBySessionIdOrderByOrderIndex(sessionId).stream()
+            .map(Question::id)
+            .toList();
+
+    // Act: Coach fixes the typo and adds a question.
+    sendWebhookRequestAndGetResponse(admin, "/set_questions");
+    String response =
+        sendWebhookRequestAndGetResponse(admin, "Before: B1 typo?\nAfter: A1?\nAfter: A2?");
+    assertContains(
+        response, "Questions updated successfully to:\nBEFORE: B1 typo?\nAFTER: A1?\nAFTER: A2?");
+
+    // Assert: Questions keep their IDs and the answer is kept.
+    List<Question> questions = questionRepository.findBySessionIdOrderByOrderIndex(sessionId);
+    assertEquals(questionIds, questions.subList(0, 2).stream().map(Question::id).toList());
+    response = sendWebhookRequestAndGetResponse(PLAYER, "/last");
+    assertContains(response, " 'Default Session':\n(BEFORE) B1 typo? - B1 answer\n");
+  }
+
   @Test
   void test_updateQuestionsForNewSession_cancel() {
     // Arrange.
@@ -857,7 +910,7 @@ public class WebhookIntegrationTest {
     // This matches the actual format Telegram sends for callback queries
     String jsonPayload1 = """
         {
-          "update_id": 1,
+          "update_id": %d,
           "callback_query": {
             "id": "7103611918865400490",
             "from": {
@@ -899,12 +952,12 @@ public class WebhookIntegrationTest {
             "chat_instance": "1351648298235224897"
           }
         }
-        """.formatted(playerId, timestamp, playerId);
+        """.formatted(UPDATE_IDS.incrementAndGet(), playerId, timestamp, playerId);
 
     // Test payload 2: Message with username in both from and chat, with entities
     String jsonPayload2 = """
         {
-          "update_id": 2,
+          "update_id": %d,
           "message": {
             "message_id": 620,
             "from": {
@@ -931,12 +984,12 @@ public class WebhookIntegrationTest {
             }]
           }
         }
-        """.formatted(playerId, timestamp, playerId);
+        """.formatted(UPDATE_IDS.incrementAndGet(), playerId, timestamp, playerId);
 
     // Test payload 3: Another CallbackQuery with username in both from and chat
     String jsonPayload3 = """
         {
-          "update_id": 3,
+          "update_id": %d,
           "callback_query": {
             "id": "7103611920246976766",
             "from": {
@@ -978,12 +1031,12 @@ public class WebhookIntegrationTest {
             "chat_instance": "1351648298235224897"
           }
         }
-        """.formatted(playerId, timestamp, playerId);
+        """.formatted(UPDATE_IDS.incrementAndGet(), playerId, timestamp, playerId);
 
     // Test payload 4: Message with username in both from and chat, with entities
     String jsonPayload4 = """
         {
-          "update_id": 4,
+          "update_id": %d,
           "message": {
             "message_id": 623,
             "from": {
@@ -1010,7 +1063,7 @@ public class WebhookIntegrationTest {
             }]
           }
         }
-        """.formatted(playerId, timestamp, playerId);
+        """.formatted(UPDATE_IDS.incrementAndGet(), playerId, timestamp, playerId);
 
     // First, directly deserialize JSON payloads using ObjectMapper to ensure builder methods are called
     // This helps the agent capture builder method calls that might not be triggered via webhook
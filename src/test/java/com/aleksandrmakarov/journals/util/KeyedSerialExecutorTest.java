@@ -0,0 +1,189 @@
+package com.aleksandrmakarov.journals.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link KeyedSerialExecutor}. */
+public class KeyedSerialExecutorTest {
+
+  private final ExecutorService pool = Executors.newFixedThreadPool(8);
+
+  @AfterEach
+  void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  void test_sameKey_runsInOrderOneByOne() throws Exception {
+    KeyedSerialExecutor executor = new KeyedSerialExecutor(pool, 1000);
+    List<Integer> order = new CopyOnWriteArrayList<>();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    CompletableFuture<?> last = null;
+
+    for (int i = 0; i < 200; i++) {
+      int index = i;
+      last =
+          executor.submit(
+              1L,
+              () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(index);
+                running.decrementAndGet();
+                return index;
+              });
+    }
+    last.get(10, TimeUnit.SECONDS);
+
+    assertEquals(1, maxRunning.get());
+    for (int i = 0; i < 200; i++) {
+      assertEquals(i, order.get(i));
+    }
+  }
+
+  @Test
+  void test_differentKeys_runInParallel() throws Exception {
+    KeyedSerialExecutor executor = new KeyedSerialExecutor(pool, 16);
+    CountDownLatch bothStarted = new CountDownLatch(2);
+
+    CompletableFuture<Boolean> first =
+        executor.submit(1L, () -> await(bothStarted));
+    CompletableFuture<Boolean> second =
+        executor.submit(2L, () -> await(bothStarted));
+
+    // Would time out if the second key waited for the first one.
+    assertTrue(first.get(10, TimeUnit.SECONDS));
+    assertTrue(second.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void test_fullBacklog_rejectsTask() throws Exception {
+    KeyedSerialExecutor executor = new KeyedSerialExecutor(pool, 2);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<Boolean> running = executor.submit(1L, () -> block(release));
+    CompletableFuture<Integer> queued1 = executor.submit(1L, () -> 1);
+    CompletableFuture<Integer> queued2 = executor.submit(1L, () -> 2);
+    CompletableFuture<Integer> rejected = executor.submit(1L, () -> 3);
+    // Other keys have their own backlog.
+    CompletableFuture<Integer> otherKey = executor.submit(2L, () -> 4);
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> rejected.get(10, TimeUnit.SECONDS));
+    assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    assertEquals(1, executor.getRejectedCount());
+    assertEquals(4, otherKey.get(10, TimeUnit.SECONDS));
+
+    release.countDown();
+    assertTrue(running.get(10, TimeUnit.SECONDS));
+    assertEquals(1, queued1.get(10, TimeUnit.SECONDS));
+    assertEquals(2, queued2.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void test_failedTask_doesNotStopKey() throws Exception {
+    KeyedSerialExecutor executor = new KeyedSerialExecutor(pool, 16);
+
+    CompletableFuture<Integer> failed =
+        executor.submit(
+            1L,
+            () -> {
+              throw new IllegalStateException("boom");
+            });
+    CompletableFuture<Integer> next = executor.submit(1L, () -> 42);
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+    assertInstanceOf(IllegalStateException.class, e.getCause());
+    assertEquals(42, next.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void test_idleKeys_mailboxesEvicted() throws Exception {
+    KeyedSerialExecutor executor = new KeyedSerialExecutor(pool, 16);
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[1000];
+    for (int key = 0; key < futures.length; key++) {
+      futures[key] = executor.submit(key, () -> null);
+    }
+    CompletableFuture.allOf(futures).get(10, TimeUnit.SECONDS);
+
+    // Drain loop removes the mailbox right after completing the last task.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (executor.getActiveKeys() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(0, executor.getActiveKeys());
+  }
+
+  @Test
+  void test_rejectingExecutor_dropsKeyAndRejects() {
+    KeyedSerialExecutor executor =
+        new KeyedSerialExecutor(
+            task -> {
+              throw new RejectedExecutionException("shut down");
+            },
+            16);
+
+    assertFalse(executor.execute(1L, () -> {}));
+    assertEquals(0, executor.getActiveKeys());
+    assertEquals(1, executor.getRejectedCount());
+  }
+
+  @Test
+  void test_rejectingExecutor_completesQueuedFutures() throws Exception {
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    KeyedSerialExecutor executor =
+        new KeyedSerialExecutor(
+            task -> {
+              entered.countDown();
+              block(release);
+              throw new RejectedExecutionException("shut down");
+            },
+            16);
+
+    // The second task is queued while the executor is deciding on the first one.
+    CompletableFuture<Boolean> first =
+        CompletableFuture.supplyAsync(() -> executor.execute(1L, () -> {}), pool);
+    assertTrue(block(entered));
+    CompletableFuture<String> queued = executor.submit(1L, () -> "ran");
+    release.countDown();
+
+    assertFalse(first.get(10, TimeUnit.SECONDS));
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> queued.get(10, TimeUnit.SECONDS));
+    assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    assertEquals(0, executor.getActiveKeys());
+  }
+
+  private static boolean await(CountDownLatch latch) {
+    latch.countDown();
+    return block(latch);
+  }
+
+  private static boolean block(CountDownLatch latch) {
+    try {
+      return latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
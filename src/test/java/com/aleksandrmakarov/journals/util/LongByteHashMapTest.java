@@ -0,0 +1,88 @@
+package com.aleksandrmakarov.journals.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link LongByteHashMap}. */
+public class LongByteHashMapTest {
+
+  @Test
+  void test_get_absentKey() {
+    LongByteHashMap map = new LongByteHashMap(0);
+
+    assertEquals(-1, map.get(42));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  void test_put_replacesValue() {
+    LongByteHashMap map = new LongByteHashMap(4);
+
+    map.put(42, (byte) 1);
+    map.put(42, (byte) 2);
+
+    assertEquals(2, map.get(42));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  void test_specialKeys() {
+    LongByteHashMap map = new LongByteHashMap(4);
+
+    map.put(0, (byte) 0);
+    map.put(-1, (byte) 1);
+    map.put(Long.MIN_VALUE, (byte) 2);
+    map.put(Long.MAX_VALUE, (byte) 3);
+
+    assertEquals(0, map.get(0));
+    assertEquals(1, map.get(-1));
+    assertEquals(2, map.get(Long.MIN_VALUE));
+    assertEquals(3, map.get(Long.MAX_VALUE));
+    assertEquals(-1, map.get(1));
+  }
+
+  @Test
+  void test_collidingKeys_probed() {
+    // Table of 8 slots, find keys landing in the same one.
+    LongByteHashMap map = new LongByteHashMap(4);
+    long[] colliding = new long[3];
+    int found = 0;
+    for (long key = 1; found < colliding.length; key++) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      if (((int) (h ^ (h >>> 32)) & 7) == 0) {
+        colliding[found++] = key;
+      }
+    }
+
+    for (int i = 0; i < colliding.length; i++) {
+      map.put(colliding[i], (byte) (i + 10));
+    }
+
+    for (int i = 0; i < colliding.length; i++) {
+      assertEquals(i + 10, map.get(colliding[i]));
+    }
+    assertEquals(colliding.length, map.size());
+  }
+
+  @Test
+  void test_growsBeyondExpectedSize() {
+    LongByteHashMap map = new LongByteHashMap(2);
+    Map<Long, Byte> expected = new HashMap<>();
+    Random random = new Random(1);
+    while (expected.size() < 10_000) {
+      long key = random.nextLong();
+      byte value = (byte) random.nextInt(Byte.MAX_VALUE + 1);
+      map.put(key, value);
+      expected.put(key, value);
+    }
+
+    assertEquals(expected.size(), map.size());
+    expected.forEach((key, value) -> assertEquals((byte) value, map.get(key)));
+    assertEquals(-1, map.get(random.nextLong()));
+  }
+}
@@ -0,0 +1,96 @@
+package com.aleksandrmakarov.journals.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.aleksandrmakarov.journals.util.PackedTokenBuckets.Result;
+
+/** Unit tests for {@link PackedTokenBuckets}. */
+public class PackedTokenBucketsTest {
+
+  @Test
+  void test_burstThenLimited() {
+    PackedTokenBuckets buckets = new PackedTokenBuckets(16, 60, 3);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Result.ALLOWED, buckets.tryTake(1, 0));
+    }
+    assertEquals(Result.LIMITED, buckets.tryTake(1, 0));
+    // Other keys have their own buckets.
+    assertEquals(Result.ALLOWED, buckets.tryTake(2, 0));
+  }
+
+  @Test
+  void test_refill() {
+    // One token per second.
+    PackedTokenBuckets buckets = new PackedTokenBuckets(16, 60, 1);
+    assertEquals(Result.ALLOWED, buckets.tryTake(1, 0));
+
+    assertEquals(Result.LIMITED, buckets.tryTake(1, 999));
+    assertEquals(Result.ALLOWED, buckets.tryTake(1, 1000));
+    assertEquals(Result.LIMITED, buckets.tryTake(1, 1000));
+  }
+
+  @Test
+  void test_fractionalRefillAccumulates() {
+    // One token per 30 seconds, refilled in small steps.
+    PackedTokenBuckets buckets = new PackedTokenBuckets(16, 2, 1);
+    assertEquals(Result.ALLOWED, buckets.tryTake(1, 0));
+
+    long now = 0;
+    for (int i = 0; i < 29; i++) {
+      now += 1000;
+      assertEquals(Result.LIMITED, buckets.tryTake(1, now));
+    }
+    assertEquals(Result.ALLOWED, buckets.tryTake(1, 30_000));
+  }
+
+  @Test
+  void test_longIdle_refillCappedWithoutOverflow() {
+    PackedTokenBuckets buckets = new PackedTokenBuckets(16, 60_000, 1000);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(Result.ALLOWED, buckets.tryTake(1, 0));
+    }
+    assertEquals(Result.LIMITED, buckets.tryTake(1, 0));
+
+    // About 30 years later the bucket holds exactly the burst.
+    long later = 1_000_000_000_000L;
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(Result.ALLOWED, buckets.tryTake(1, later));
+    }
+    assertEquals(Result.LIMITED, buckets.tryTake(1, later));
+  }
+
+  @Test
+  void test_fullTable_untrackedUntilSlotIdle() {
+    // 8 slots, 2 tokens refilled in 2 seconds.
+    PackedTokenBuckets buckets = new PackedTokenBuckets(8, 60, 2);
+    for (long key = 1; key <= 8; key++) {
+      assertEquals(Result.ALLOWED, buckets.tryTake(key, 0));
+    }
+
+    assertEquals(Result.UNTRACKED, buckets.tryTake(9, 0));
+    assertEquals(Result.UNTRACKED, buckets.tryTake(9, 1999));
+
+    // Some bucket is full again, its key is forgotten and the slot is reused.
+    assertEquals(Result.ALLOWED, buckets.tryTake(9, 2000));
+    assertEquals(Result.ALLOWED, buckets.tryTake(9, 2000));
+    assertEquals(Result.LIMITED, buckets.tryTake(9, 2000));
+  }
+
+  @Test
+  void test_activeKeysKeepSlots() {
+    PackedTokenBuckets buckets = new PackedTokenBuckets(8, 60, 2);
+    for (long key = 1; key <= 8; key++) {
+      buckets.tryTake(key, 0);
+    }
+    // All keys stay active, so their buckets are never full.
+    for (long key = 1; key <= 8; key++) {
+      buckets.tryTake(key, 1500);
+      buckets.tryTake(key, 1500);
+    }
+
+    assertEquals(Result.UNTRACKED, buckets.tryTake(9, 2500));
+  }
+}
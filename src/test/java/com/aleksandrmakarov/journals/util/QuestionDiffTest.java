@@ -0,0 +1,127 @@
+package com.aleksandrmakarov.journals.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.aleksandrmakarov.journals.model.Question;
+import com.aleksandrmakarov.journals.model.QuestionType;
+
+/** Unit tests for {@link QuestionDiff}. */
+public class QuestionDiffTest {
+
+  private static final long SESSION = 7L;
+
+  /** Stored questions with IDs 1, 2, ... in the given order. */
+  private static List<Question> stored(String... texts) {
+    List<Question> questions = new ArrayList<>();
+    for (int i = 0; i < texts.length; i++) {
+      questions.add(new Question(i + 1L, texts[i], QuestionType.BEFORE, i + 1, SESSION));
+    }
+    return questions;
+  }
+
+  /** Desired questions without IDs in the given order. */
+  private static List<Question> desired(String... texts) {
+    List<Question> questions = new ArrayList<>();
+    for (int i = 0; i < texts.length; i++) {
+      questions.add(new Question(null, texts[i], QuestionType.BEFORE, i + 1, SESSION));
+    }
+    return questions;
+  }
+
+  @Test
+  void test_sameQuestions_noChanges() {
+    QuestionDiff.Result result = QuestionDiff.diff(stored("a", "b"), desired("a", "b"));
+
+    assertTrue(result.isEmpty());
+  }
+
+  @Test
+  void test_insertInMiddle_shiftsFollowingOrder() {
+    QuestionDiff.Result result = QuestionDiff.diff(stored("a", "b"), desired("a", "new", "b"));
+
+    assertEquals(
+        List.of(new Question(null, "new", QuestionType.BEFORE, 2, SESSION)), result.inserted());
+    // "b" keeps its ID and answers, only the order changes.
+    assertEquals(
+        List.of(new Question(2L, "b", QuestionType.BEFORE, 3, SESSION)), result.updated());
+    assertTrue(result.deletedIds().isEmpty());
+  }
+
+  @Test
+  void test_delete() {
+    QuestionDiff.Result result = QuestionDiff.diff(stored("a", "b", "c"), desired("a", "c"));
+
+    assertEquals(List.of(2L), result.deletedIds());
+    assertEquals(
+        List.of(new Question(3L, "c", QuestionType.BEFORE, 2, SESSION)), result.updated());
+    assertTrue(result.inserted().isEmpty());
+  }
+
+  @Test
+  void test_edit_updatedInPlace() {
+    QuestionDiff.Result result =
+        QuestionDiff.diff(stored("a", "b", "c"), desired("a", "b edited", "c"));
+
+    assertEquals(
+        List.of(new Question(2L, "b edited", QuestionType.BEFORE, 2, SESSION)), result.updated());
+    assertTrue(result.inserted().isEmpty());
+    assertTrue(result.deletedIds().isEmpty());
+  }
+
+  @Test
+  void test_reorder_keepsIds() {
+    QuestionDiff.Result result = QuestionDiff.diff(stored("a", "b", "c"), desired("c", "a", "b"));
+
+    // "a" and "b" are the longest common subsequence and keep their IDs, "c" has
+    // no stored question to pair with before "a", so it is deleted and inserted.
+    assertEquals(
+        List.of(
+            new Question(1L, "a", QuestionType.BEFORE, 2, SESSION),
+            new Question(2L, "b", QuestionType.BEFORE, 3, SESSION)),
+        result.updated());
+    assertEquals(List.of(3L), result.deletedIds());
+    assertEquals(
+        List.of(new Question(null, "c", QuestionType.BEFORE, 1, SESSION)), result.inserted());
+  }
+
+  @Test
+  void test_typeChange_sameText_updated() {
+    List<Question> desired =
+        List.of(new Question(null, "a", QuestionType.AFTER, 1, SESSION));
+
+    QuestionDiff.Result result = QuestionDiff.diff(stored("a"), desired);
+
+    assertEquals(
+        List.of(new Question(1L, "a", QuestionType.AFTER, 1, SESSION)), result.updated());
+    assertTrue(result.inserted().isEmpty());
+    assertTrue(result.deletedIds().isEmpty());
+  }
+
+  @Test
+  void test_replaceAll_pairedByPosition() {
+    QuestionDiff.Result result = QuestionDiff.diff(stored("a", "b", "c"), desired("x", "y"));
+
+    assertEquals(
+        List.of(
+            new Question(1L, "x", QuestionType.BEFORE, 1, SESSION),
+            new Question(2L, "y", QuestionType.BEFORE, 2, SESSION)),
+        result.updated());
+    assertEquals(List.of(3L), result.deletedIds());
+    assertTrue(result.inserted().isEmpty());
+  }
+
+  @Test
+  void test_emptySides() {
+    QuestionDiff.Result created = QuestionDiff.diff(List.of(), desired("a", "b"));
+    QuestionDiff.Result cleared = QuestionDiff.diff(stored("a", "b"), List.of());
+
+    assertEquals(2, created.inserted().size());
+    assertEquals(List.of(1L, 2L), cleared.deletedIds());
+  }
+}
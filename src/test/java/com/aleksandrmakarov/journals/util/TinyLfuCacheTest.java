@@ -0,0 +1,116 @@
+package com.aleksandrmakarov.journals.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link TinyLfuCache}. */
+public class TinyLfuCacheTest {
+
+  private static final int CAPACITY = 64;
+
+  private final List<Long> evicted = new ArrayList<>();
+  private final TinyLfuCache<Long, String> cache =
+      new TinyLfuCache<>(CAPACITY, (key, value) -> evicted.add(key));
+
+  private void fill() {
+    for (long key = 0; key < CAPACITY; key++) {
+      assertTrue(cache.put(key, "v" + key));
+    }
+  }
+
+  @Test
+  void test_underCapacity_storesEverything() {
+    fill();
+
+    assertEquals(CAPACITY, cache.size());
+    for (long key = 0; key < CAPACITY; key++) {
+      assertEquals("v" + key, cache.get(key));
+    }
+    assertTrue(evicted.isEmpty());
+  }
+
+  @Test
+  void test_frequentKey_evictsLeastRecentlyUsed() {
+    fill();
+    // Key 0 becomes the most recently used one, key 1 the eviction candidate.
+    cache.get(0L);
+    for (int i = 0; i < 5; i++) {
+      assertNull(cache.get(1000L));
+    }
+
+    assertTrue(cache.put(1000L, "hot"));
+
+    assertEquals(List.of(1L), evicted);
+    assertEquals(CAPACITY, cache.size());
+    assertEquals("hot", cache.get(1000L));
+    assertNotNull(cache.get(0L));
+    assertNull(cache.get(1L));
+  }
+
+  @Test
+  void test_oneOffKey_notAdmittedOverFrequentVictim() {
+    fill();
+    for (int i = 0; i < 3; i++) {
+      for (long key = 0; key < CAPACITY; key++) {
+        cache.get(key);
+      }
+    }
+
+    assertFalse(cache.put(1000L, "once"));
+
+    assertTrue(evicted.isEmpty());
+    assertEquals(CAPACITY, cache.size());
+    assertNull(cache.get(1000L));
+  }
+
+  @Test
+  void test_existingKey_alwaysReplaced() {
+    fill();
+
+    assertTrue(cache.put(5L, "changed"));
+
+    assertEquals("changed", cache.get(5L));
+    assertEquals(CAPACITY, cache.size());
+    assertTrue(evicted.isEmpty());
+  }
+
+  @Test
+  void test_remove_keepsFrequency() {
+    fill();
+    for (int i = 0; i < 5; i++) {
+      cache.get(7L);
+    }
+    assertEquals("v7", cache.remove(7L));
+    assertTrue(cache.put(1000L, "filler"));
+
+    // Cache is full again, but the key is still known to be popular.
+    assertTrue(cache.put(7L, "back"));
+
+    assertEquals(1, evicted.size());
+    assertEquals("back", cache.get(7L));
+  }
+
+  @Test
+  void test_clear_forgetsEntriesAndFrequencies() {
+    fill();
+    for (int i = 0; i < 5; i++) {
+      cache.get(0L);
+    }
+
+    cache.clear();
+
+    assertEquals(0, cache.size());
+    assertNull(cache.get(0L));
+    fill();
+    // Key 0 was accessed once after clear, as often as the new key.
+    assertFalse(cache.put(1000L, "cold"));
+  }
+}
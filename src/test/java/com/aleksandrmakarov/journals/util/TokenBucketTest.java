@@ -0,0 +1,65 @@
+package com.aleksandrmakarov.journals.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link TokenBucket}. */
+public class TokenBucketTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  void test_newBucket_allowsBurst() {
+    TokenBucket bucket = new TokenBucket(1, 3, 0);
+
+    assertTrue(bucket.isFull(0));
+    assertTrue(bucket.tryTake(0));
+    assertTrue(bucket.tryTake(0));
+    assertTrue(bucket.tryTake(0));
+    assertFalse(bucket.tryTake(0));
+    assertFalse(bucket.isFull(0));
+  }
+
+  @Test
+  void test_emptyBucket_waitsForRefill() {
+    TokenBucket bucket = new TokenBucket(2, 1, 0);
+    assertTrue(bucket.tryTake(0));
+
+    assertEquals(SECOND / 2, bucket.nanosUntilAvailable(0));
+    assertEquals(SECOND / 4, bucket.nanosUntilAvailable(SECOND / 4));
+    assertFalse(bucket.tryTake(SECOND / 4));
+    assertEquals(0, bucket.nanosUntilAvailable(SECOND / 2));
+    assertTrue(bucket.tryTake(SECOND / 2));
+  }
+
+  @Test
+  void test_refill_cappedByCapacity() {
+    TokenBucket bucket = new TokenBucket(30, 3, 0);
+    for (int i = 0; i < 3; i++) {
+      bucket.tryTake(0);
+    }
+
+    // Idle for a minute doesn't allow more than the burst.
+    long later = 60 * SECOND;
+    assertTrue(bucket.isFull(later));
+    for (int i = 0; i < 3; i++) {
+      assertTrue(bucket.tryTake(later));
+    }
+    assertFalse(bucket.tryTake(later));
+  }
+
+  @Test
+  void test_timeGoingBack_ignored() {
+    TokenBucket bucket = new TokenBucket(1, 1, SECOND);
+    assertTrue(bucket.tryTake(SECOND));
+
+    // Earlier timestamp from another thread doesn't add or remove tokens.
+    assertFalse(bucket.tryTake(0));
+    assertTrue(bucket.tryTake(2 * SECOND));
+  }
+}
@@ -0,0 +1,88 @@
+package com.aleksandrmakarov.journals.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for {@link UpdateIdWindow}. */
+public class UpdateIdWindowTest {
+
+  @Test
+  void test_markSeen_dropsReplays() {
+    UpdateIdWindow window = new UpdateIdWindow(16);
+
+    assertTrue(window.markSeen(100));
+    assertTrue(window.markSeen(102));
+    assertTrue(window.markSeen(101));
+    assertFalse(window.markSeen(100));
+    assertFalse(window.markSeen(102));
+    assertEquals(102, window.getHighest());
+  }
+
+  @Test
+  void test_forget_acceptsIdAgain() {
+    UpdateIdWindow window = new UpdateIdWindow(16);
+    window.markSeen(100);
+
+    window.forget(100);
+
+    assertTrue(window.markSeen(100));
+    assertFalse(window.markSeen(100));
+  }
+
+  @Test
+  void test_markSeen_slotReusedByNewerId() {
+    UpdateIdWindow window = new UpdateIdWindow(16);
+    // Same slot as 100 in the window of 16.
+    assertTrue(window.markSeen(100));
+    assertTrue(window.markSeen(116));
+
+    assertFalse(window.markSeen(116));
+    assertEquals(0, window.getResets());
+  }
+
+  @Test
+  void test_markSeen_idBelowWindow_dropped() {
+    UpdateIdWindow window = new UpdateIdWindow(16);
+    for (long id = 1_000_000; id < 1_000_020; id++) {
+      assertTrue(window.markSeen(id));
+    }
+
+    // May be a late redelivery, so it isn't accepted and nothing is forgotten.
+    assertTrue(window.isBelowWindow(500));
+    assertFalse(window.markSeen(500));
+    assertFalse(window.markSeen(1_000_019));
+    assertEquals(1_000_019, window.getHighest());
+    assertEquals(0, window.getResets());
+  }
+
+  @Test
+  void test_restartAt_reseedsWindow() {
+    UpdateIdWindow window = new UpdateIdWindow(16);
+    for (long id = 1_000_000; id < 1_000_020; id++) {
+      window.markSeen(id);
+    }
+
+    // Telegram restarted update IDs, e.g. after a week without updates.
+    window.restartAt(500);
+
+    assertTrue(window.markSeen(500));
+    assertTrue(window.markSeen(501));
+    assertFalse(window.markSeen(500));
+    assertEquals(1, window.getResets());
+    assertEquals(501, window.getHighest());
+  }
+
+  @Test
+  void test_advanceTo_thenOlderIds_dropped() {
+    UpdateIdWindow window = new UpdateIdWindow(16);
+    // High-water mark restored from DB on start.
+    window.advanceTo(1_000_000);
+
+    assertFalse(window.markSeen(42));
+    assertTrue(window.markSeen(999_990));
+    assertTrue(window.markSeen(1_000_001));
+  }
+}